@@ -0,0 +1,33 @@
+import com.google.inject.AbstractModule;
+import play.Configuration;
+import play.Environment;
+import services.crawler.RefreshScheduler;
+import services.currency.CurrencyRateService;
+import services.currency.FileRateProvider;
+import services.currency.RateProvider;
+import services.currency.YahooRateProvider;
+
+/**
+ * Guice bindings loaded by Play at startup.
+ */
+public class Module extends AbstractModule {
+    private final Configuration configuration;
+
+    public Module(Environment environment, Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    @Override
+    protected void configure() {
+        //Starts re-indexing due products as soon as the application is up
+        bind(RefreshScheduler.class).asEagerSingleton();
+
+        if ("file".equals(configuration.getString("currency.provider", "yahoo"))) {
+            bind(RateProvider.class).to(FileRateProvider.class);
+        } else {
+            bind(RateProvider.class).to(YahooRateProvider.class);
+        }
+        //Loads the rates before the first product needs them
+        bind(CurrencyRateService.class).asEagerSingleton();
+    }
+}
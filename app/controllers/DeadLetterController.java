@@ -0,0 +1,171 @@
+package controllers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import models.FailureReason;
+import models.admin.UserRoles;
+import models.dao.DeadLetterDAO;
+import play.Logger;
+import play.db.jpa.Transactional;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Security;
+import services.crawler.CrawlLeases;
+import services.crawler.CrawlScheduler;
+import services.crawler.CrawlTask;
+import utils.URLFixer;
+
+import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Admin access to the products whose index runs keep failing, see models.DeadLetter.
+ * Every action can be narrowed with ?reason=NETWORK|NO_PRICE_MATCH|NO_CURRENCY_MATCH|CONVERSION_ERROR and ?site=id,
+ * retry and purge also take a JSON body {"productIds": [..]}.
+ */
+public class DeadLetterController extends Controller {
+	//Entries listed at once when no limit is given
+	private static final int DEFAULT_LIMIT = 100;
+
+	@Inject
+	private DeadLetterDAO deadLetterDAO;
+
+	@Inject
+	private CrawlScheduler crawlScheduler;
+
+	@Inject
+	private CrawlLeases crawlLeases;
+
+	/**
+	 * Lists the dead letters, most recent failures first. Takes ?quarantined=true|false, ?offset and ?limit
+	 * @return Result
+	 */
+	@Security.Authenticated(Secured.class)
+	@Transactional(readOnly = true)
+	public Result list() {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return forbidden("Thou art not admin!");
+		}
+		try {
+			String quarantined = request().getQueryString("quarantined");
+			return ok(Json.toJson(deadLetterDAO.list(reason(), site(),
+					quarantined == null ? null : Boolean.valueOf(quarantined),
+					intParam("offset", 0), intParam("limit", DEFAULT_LIMIT))));
+		} catch (IllegalArgumentException e) {
+			return badRequest(e.getMessage());
+		}
+	}
+
+	/**
+	 * Lifts the quarantine of the matching products and queues them for indexing right away. A product failing again
+	 * goes back to quarantine, a successful run removes its entry.
+	 * @return Result holding the number of products queued, leased by another node or rejected by a full queue
+	 */
+	@Security.Authenticated(Secured.class)
+	@Transactional
+	public Result retry() {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return forbidden("Thou art not admin!");
+		}
+		List<Object[]> products;
+		try {
+			List<Long> productIds = productIds();
+			products = productIds != null && productIds.isEmpty()
+					? new ArrayList<>() : deadLetterDAO.release(reason(), site(), productIds);
+		} catch (IllegalArgumentException e) {
+			return badRequest(e.getMessage());
+		}
+		List<Long> ids = new ArrayList<>();
+		for (Object[] product : products) ids.add((Long) product[0]);
+		Set<Long> leased = ids.isEmpty() ? new HashSet<>() : new HashSet<>(crawlLeases.claim(ids));
+		int queued = 0;
+		int rejected = 0;
+		for (Object[] product : products) {
+			Long productId = (Long) product[0];
+			if (!leased.contains(productId)) continue;
+			if (crawlScheduler.submit(new CrawlTask((Long) product[1], productId, null, URLFixer.normalize((String) product[2])))) {
+				queued++;
+			} else {
+				rejected++;
+				crawlLeases.release(productId);
+			}
+		}
+		Logger.info("Retrying " + queued + " dead letter(s)");
+		ObjectNode result = Json.newObject();
+		result.put("queued", queued);
+		result.put("leasedElsewhere", products.size() - leased.size());
+		result.put("rejected", rejected);
+		return rejected > 0 ? status(SERVICE_UNAVAILABLE, result) : ok(result);
+	}
+
+	/**
+	 * Removes the matching entries, which ends their quarantine without queueing them
+	 * @return Result
+	 */
+	@Security.Authenticated(Secured.class)
+	@Transactional
+	public Result purge() {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return forbidden("Thou art not admin!");
+		}
+		try {
+			List<Long> productIds = productIds();
+			int purged = productIds != null && productIds.isEmpty() ? 0 : deadLetterDAO.purge(reason(), site(), productIds);
+			return ok("Purged " + purged + " dead letter(s)");
+		} catch (IllegalArgumentException e) {
+			return badRequest(e.getMessage());
+		}
+	}
+
+	private FailureReason reason() {
+		String reason = request().getQueryString("reason");
+		if (reason == null) {
+			return null;
+		}
+		try {
+			return FailureReason.valueOf(reason.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Unknown reason " + reason);
+		}
+	}
+
+	private Long site() {
+		String site = request().getQueryString("site");
+		try {
+			return site == null ? null : Long.valueOf(site);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid site " + site);
+		}
+	}
+
+	private int intParam(String name, int defaultValue) {
+		String value = request().getQueryString(name);
+		try {
+			return value == null ? defaultValue : Math.max(0, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + " " + value);
+		}
+	}
+
+	/**
+	 * @return the product ids of the JSON body, null if there are none
+	 */
+	private List<Long> productIds() {
+		JsonNode json = request().body().asJson();
+		if (json == null || !json.has("productIds")) {
+			return null;
+		}
+		List<Long> productIds = new ArrayList<>();
+		for (JsonNode id : json.get("productIds")) {
+			if (!id.canConvertToLong()) {
+				throw new IllegalArgumentException("Invalid product id " + id);
+			}
+			productIds.add(id.asLong());
+		}
+		return productIds;
+	}
+}
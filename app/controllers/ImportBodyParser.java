@@ -0,0 +1,67 @@
+package controllers;
+
+import akka.actor.ActorSystem;
+import akka.util.ByteString;
+import models.admin.UserRoles;
+import play.db.jpa.JPAApi;
+import play.libs.F;
+import play.libs.streams.Accumulator;
+import play.mvc.BodyParser;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.mvc.Results;
+import scala.Option;
+import services.onboarding.ImportFormat;
+import services.onboarding.ImportUpload;
+import services.onboarding.ProductImport;
+
+import javax.inject.Inject;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads a bulk import upload(NDJSON or CSV, see ImportFormat) line by line as it streams in, the body is never
+ * buffered as a whole.
+ * Body parsers run before the action and its Security.Authenticated check, so the user of the session is checked to be
+ * a lead admin here, before any of the body is read. The check is a single lookup of the user and is made synchronously,
+ * like the ones of the actions.
+ */
+public class ImportBodyParser implements BodyParser<ImportUpload> {
+	private final ProductImport productImport;
+	private final JPAApi jpaApi;
+	private final Executor executor;
+
+	@Inject
+	public ImportBodyParser(ProductImport productImport, JPAApi jpaApi, ActorSystem actorSystem) {
+		this.productImport = productImport;
+		this.jpaApi = jpaApi;
+		this.executor = actorSystem.dispatcher();
+	}
+
+	@Override
+	public Accumulator<ByteString, F.Either<Result, ImportUpload>> apply(Http.RequestHeader request) {
+		Option<String> user = request._underlyingHeader().session().get("user");
+		if (user.isEmpty()) {
+			return Accumulator.done(F.Either.Left(Results.redirect(routes.Application.index())));
+		}
+		int level = jpaApi.withTransaction(() -> Secured.getAdminLevel(user.get()));
+		if (level != UserRoles.LEAD_ADMIN) {
+			return Accumulator.done(F.Either.Left(Results.forbidden("Not enough admin rights")));
+		}
+		return parse(request);
+	}
+
+	private Accumulator<ByteString, F.Either<Result, ImportUpload>> parse(Http.RequestHeader request) {
+		ImportFormat format = ImportFormat.fromContentType(request.getHeader(Http.HeaderNames.CONTENT_TYPE));
+		if (format == null) {
+			return Accumulator.done(F.Either.Left(Results.status(Http.Status.UNSUPPORTED_MEDIA_TYPE,
+					"Expected application/x-ndjson or text/csv")));
+		}
+		return Accumulator.fromSink(productImport.reader(format))
+				.<F.Either<Result, ImportUpload>>map(F.Either::Right, executor)
+				.recover(error -> {
+					Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+					return F.Either.Left(Results.badRequest("Invalid upload: " + cause.getMessage()));
+				}, executor);
+	}
+}
@@ -0,0 +1,32 @@
+package controllers;
+
+import models.admin.UserRoles;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+import play.mvc.Security;
+import services.http.OutboundHttpClient;
+
+import javax.inject.Inject;
+
+/**
+ * Runtime metrics for admins
+ */
+public class MetricsController extends Controller {
+
+	@Inject
+	private OutboundHttpClient http;
+
+	/**
+	 * Outbound request counters by host: requests in flight and their peak, totals, failures and average duration.
+	 * These are requests, not pooled connections, the WS client doesn't expose the state of its pool.
+	 * @return Result
+	 */
+	@Security.Authenticated(Secured.class)
+	public Result httpRequests() {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return forbidden("Thou art not admin!");
+		}
+		return ok(Json.toJson(http.stats()));
+	}
+}
@@ -1,7 +1,7 @@
 package controllers;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import models.Keyword;
+import models.Category;
 import models.Price;
 import models.Product;
 import models.Site;
@@ -19,6 +19,13 @@ import play.mvc.Controller;
 import play.mvc.Result;
 import play.db.jpa.Transactional;
 import play.mvc.Security;
+import services.http.OutboundHttpClient;
+import services.onboarding.ImportJob;
+import services.onboarding.ImportUpload;
+import services.onboarding.OnboardingJob;
+import services.onboarding.ProductImport;
+import services.onboarding.ProductOnboarding;
+import utils.KeywordAnalysis;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -53,6 +60,18 @@ public class ProductController extends Controller {
 	@Inject
 	private CategoryDAO catDAO;
 
+	@Inject
+	private ProductOnboarding productOnboarding;
+
+	@Inject
+	private ProductImport productImport;
+
+	@Inject
+	private OutboundHttpClient http;
+
+	@Inject
+	private KeywordAnalysis keywordAnalysis;
+
 	@Security.Authenticated(Secured.class)
 	@Transactional
 	public Result addProduct() {
@@ -72,34 +91,54 @@ public class ProductController extends Controller {
 
 			if(site != null){
 				product.setSite(site);
-				site.setProducts(productDAO.getProductsBySiteId(site.getId()));
 			}
 
 			else
 				return badRequest("No such site");
 
-			String[] keywords = parseKeywordsFromLink(product.getLinkAddress());
-			if(keywords == null)
-				return badRequest("Invalid site or missing meta tag");
+			/* Keywords, category and the first price are read from a single fetch of the page, in the background */
+			OnboardingJob job = productOnboarding.start(product);
+			return ok(Json.toJson(job));
+		}
+	}
 
-			if(keywords.length == 1 && keywords[0].equals("getFromName"))
-				keywords = parseKeywordsFromName(product.getProdName());
+	@Security.Authenticated(Secured.class)
+	public Result getOnboardingJob(Long id) {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return forbidden("Not enough admin rights");
+		}
+		OnboardingJob job = productOnboarding.get(id);
+		if (job == null) {
+			return notFound("No such job");
+		}
+		return ok(Json.toJson(job));
+	}
 
-			Set<Keyword> keywordSet = new HashSet<>();
+	/**
+	 * Imports many products at once from an NDJSON(application/x-ndjson) or CSV(text/csv) body, see ProductImport
+	 * @return Result holding the import job, its progress and row errors are at /products/import/jobs/:id
+	 */
+	@Security.Authenticated(Secured.class)
+	@BodyParser.Of(ImportBodyParser.class)
+	public Result importProducts() {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return forbidden("Not enough admin rights");
+		}
+		ImportUpload upload = request().body().as(ImportUpload.class);
+		ImportJob job = productImport.start(upload);
+		return status(ACCEPTED, Json.toJson(job));
+	}
 
-			/* Create keyword objects */
-			for(String keyword : keywords){
-				Keyword temp = new Keyword();
-				temp.setId(null);
-				temp.setProduct(product);
-				temp.setKeyword(keyword);
-				keywordSet.add(temp);
-			}
-			product.setKeywords(keywordSet);
-			product.setCategory(catDAO.determineCategory(keywords));
-			productDAO.create(product);
-			return ok("Added product: " + product.getProdName() + " " + Arrays.toString(keywords));
+	@Security.Authenticated(Secured.class)
+	public Result getImportJob(Long id) {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return forbidden("Not enough admin rights");
+		}
+		ImportJob job = productImport.get(id);
+		if (job == null) {
+			return notFound("No such job");
 		}
+		return ok(Json.toJson(job));
 	}
 
 	@Security.Authenticated(Secured.class)
@@ -175,27 +214,22 @@ public class ProductController extends Controller {
 					else
 						return badRequest("No such site");
 
-					String[] keywords = parseKeywordsFromLink(current.getLinkAddress());
+					String[] keywords = parseKeywordsFromLink(http, keywordAnalysis, current.getLinkAddress());
 					if(keywords == null)
 						return badRequest("Invalid site or missing meta tag");
 
 					if(keywords.length == 1 && keywords[0].equals("getFromName"))
-						keywords = parseKeywordsFromName(current.getProdName());
-
-					keywordDAO.delete(current);
-					Set<Keyword> keywordSet = new HashSet<>();
-
-					/* Create keyword objects */
-					for(String keyword : keywords){
-						Keyword temp = new Keyword();
-						temp.setId(null);
-						temp.setProduct(current);
-						temp.setKeyword(keyword);
-						keywordSet.add(temp);
-					}
-					current.setKeywords(keywordSet);
-					current.setCategory(catDAO.determineCategory(keywords));
+						keywords = parseKeywordsFromName(keywordAnalysis, current.getProdName());
+
+					/* Only the keywords that changed are written */
+					keywordDAO.update(current, keywords);
+					Category category = catDAO.determineCategory(keywords);
+					boolean categoryChanged = !Objects.equals(category, current.getCategory());
+					current.setCategory(category);
 					productDAO.update(current);
+					/* The index of the keywords that didn't change still holds the old category */
+					if(categoryChanged)
+						keywordDAO.reindex(Collections.singletonList(current.getId()));
 				}
 				return ok("Product updated: " + current.getProdName());
 			}
@@ -1,10 +1,13 @@
 package controllers;
 
+import com.google.common.cache.CacheStats;
 import com.google.inject.Inject;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import models.Product;
 import models.SearchHistory;
 import models.User;
 import models.admin.UserRoles;
+import models.dao.KeywordDAO;
 import models.dao.ProductDAO;
 import models.dao.SearchHistoryDAO;
 import models.dao.UserDAO;
@@ -15,6 +18,7 @@ import play.libs.Json;
 import play.mvc.Http;
 import play.mvc.Result;
 import play.mvc.Security;
+import services.search.SearchCache;
 import java.util.*;
 
 import static play.mvc.Controller.request;
@@ -38,6 +42,12 @@ public class SearchController {
     @Inject
     private FormFactory formFactory;
 
+    @Inject
+    private KeywordDAO keywordDAO;
+
+    @Inject
+    private SearchCache searchCache;
+
     /**
      * Attempts a search using the provided string(productName) and also inserts the search in user's search history
      * @param productName
@@ -59,7 +69,13 @@ public class SearchController {
             return badRequest("Bad search string");
         }
         Set<Map.Entry<String,String[]>> queryString = request().queryString().entrySet();
-        Set<Product> products = productDAO.findProductsByName(productName, queryString);
+        //One page of results, see ProductDAO#findProductsByName for offset and limit
+        Set<Product> products;
+        try {
+            products = productDAO.findProductsByName(productName, queryString);
+        } catch (IllegalArgumentException e) {
+            return badRequest("Invalid search parameters: " + e.getMessage());
+        }
 
         try {
             User user = userDAO.getUserByName(Http.Context.current().request().username());
@@ -148,4 +164,41 @@ public class SearchController {
             return notFound("No such user");
         }
     }
+
+    /**
+     * Rebuilds the search index of all keywords in the background, e.g. after the keyword analyzer or its stopwords
+     * changed
+     * @return
+     */
+    @Security.Authenticated(Secured.class)
+    @Transactional(readOnly = true)
+    public Result reindexKeywords() {
+        if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+            return badRequest("Not enough privileges");
+        }
+        keywordDAO.reindex();
+        return ok("Reindexing keywords");
+    }
+
+    /**
+     * Statistics of the search result cache since the application started
+     * @return
+     */
+    @Security.Authenticated(Secured.class)
+    @Transactional(readOnly = true)
+    public Result getCacheStats() {
+        if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+            return badRequest("Not enough privileges");
+        }
+        CacheStats stats = searchCache.stats();
+        ObjectNode result = Json.newObject();
+        result.put("size", searchCache.size());
+        result.put("hits", stats.hitCount());
+        result.put("misses", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        //Entries dropped for size or age; the ones dropped because their products changed are counted apart
+        result.put("evictions", stats.evictionCount());
+        result.put("invalidations", searchCache.getInvalidations());
+        return ok(result);
+    }
 }
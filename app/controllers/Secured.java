@@ -48,10 +48,20 @@ public class Secured extends Security.Authenticator {
     }
 
     public static int getAdminLevel() {
+        return getAdminLevel(Context.current().request().username());
+    }
+
+    /**
+     * Admin level of a user, for checks made before the request reaches the action(e.g. in a body parser). Needs a
+     * JPA transaction.
+     * @param userName
+     * @return the level, 0 for unknown users
+     */
+    public static int getAdminLevel(String userName) {
 
         try {
             UserDAO ud = new UserDAO();
-            User u = ud.getUserByName(Context.current().request().username());
+            User u = ud.getUserByName(userName);
             return u.getAdminLevel();
         } catch (NullPointerException e) {
             return 0;
@@ -1,14 +1,11 @@
 package controllers;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import models.Product;
 import models.admin.UserRoles;
 import models.dao.ProductDAO;
 import play.Logger;
 import play.data.Form;
 import play.data.FormFactory;
-import play.db.jpa.JPAApi;
-import play.libs.Akka;
 import play.libs.Json;
 import play.mvc.Security;
 import play.mvc.Controller;
@@ -16,18 +13,29 @@ import models.Site;
 import models.dao.SiteDAO;
 import play.db.jpa.Transactional;
 import play.mvc.Result;
-import scala.concurrent.ExecutionContext;
-import services.ProductService;
+import services.archive.ReextractionJob;
+import services.archive.ReextractionService;
+import services.crawler.CrawlLeases;
+import services.crawler.CrawlScheduler;
+import services.crawler.CrawlTask;
+import services.crawler.IndexingJob;
+import services.crawler.IndexingJobs;
+import services.extraction.ExtractionStats;
+import services.extraction.SiteExtractionRulesCache;
 import utils.URLFixer;
 import javax.inject.Inject;
-import java.util.List;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CompletionStage;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by octavian.salcianu on 7/14/2016.
  */
 public class SiteController extends Controller {
+	//Product ids read and leased at once when a site is indexed
+	private static final int INDEXING_BATCH = 500;
 
 	@Inject
 	private SiteDAO siteDAO;
@@ -39,7 +47,22 @@ public class SiteController extends Controller {
 	private FormFactory formFactory;
 
 	@Inject
-	private JPAApi jpa;
+	private CrawlScheduler crawlScheduler;
+
+	@Inject
+	private SiteExtractionRulesCache rulesCache;
+
+	@Inject
+	private IndexingJobs indexingJobs;
+
+	@Inject
+	private CrawlLeases crawlLeases;
+
+	@Inject
+	private ReextractionService reextractionService;
+
+	@Inject
+	private ExtractionStats extractionStats;
 
 	@Security.Authenticated(Secured.class)
 	@Transactional
@@ -100,7 +123,13 @@ public class SiteController extends Controller {
 					return badRequest("Invalid form");
 				} else{
 					s.setSiteURL(URLFixer.fixURL(form.get().getSiteURL()));
+					if(form.get().getSiteKeyword() != null && form.get().getSiteKeyword().length() > 0) s.setSiteKeyword(form.get().getSiteKeyword());
+					s.setPriceElement(form.get().getPriceElement());
+					s.setCurrencyElement(form.get().getCurrencyElement());
+					if(form.get().getMaxRequestsPerSecond() != null) s.setMaxRequestsPerSecond(form.get().getMaxRequestsPerSecond());
+					if(form.get().getMaxBurst() != null) s.setMaxBurst(form.get().getMaxBurst());
 					siteDAO.update(s);
+					rulesCache.invalidate(s.getId());
 					return ok("Updated");
 				}
 			}
@@ -108,48 +137,132 @@ public class SiteController extends Controller {
 	}
 
 	/**
-	 * Gets all the products coresponding to a site id and starts fetching data from webpages asynchronously
+	 * Queues the products of a site that are due for indexing on the crawl scheduler, as an indexing job. Products are
+	 * read as ids and links in batches from a cursor, see ProductDAO.scrollDueProducts.
+	 * If the site is already being indexed the running job is returned instead of starting a second one. Products
+	 * leased by another node are left to it, so triggering the same site on several nodes splits the work; those the
+	 * refresh scheduler of this node is already indexing are left to it as well.
 	 * @param id
-	 * @return Result
+	 * @return Result holding the job, see getIndexingJob
      */
 	@Security.Authenticated(Secured.class)
-	@Transactional
+	@Transactional(readOnly = true)
 	public Result startIndexing(Long id) {
 		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
 			return badRequest("You are not authorized to use this");
 		} else {
-			List<Product> allProds = productDAO.getProductsBySiteId(id);
-			int size = allProds.size();
-			if(size > 0) Logger.info("Started indexing " + size + " product(s) for website " + allProds.get(0).getSite().getSiteURL());
-			for(int i = 0; i < size; i++) {
-				startIndexingProduct(allProds.get(i));
+			Site site = siteDAO.get(id);
+			if(site == null) {
+				return notFound("Site doesn't exist");
 			}
-			return ok("Indexing");
+			IndexingJob job = indexingJobs.start(id);
+			if(!job.claim()) {
+				Logger.info("Website " + id + " is already being indexed by job " + job.getId());
+				return ok(Json.toJson(job));
+			}
+			//Leased by this job and not submitted yet, released if submitting fails
+			Set<Long> leased = new HashSet<>();
+			int due;
+			try {
+				due = productDAO.scrollDueProducts(id, new Date(), INDEXING_BATCH, batch -> {
+					Map<Long, String> links = new LinkedHashMap<>();
+					for(Object[] row : batch) links.put((Long) row[0], (String) row[1]);
+					leased.addAll(crawlLeases.claim(links.keySet()));
+					for(Map.Entry<Long, String> product : links.entrySet()) {
+						Long productId = product.getKey();
+						if(!leased.contains(productId)) job.leasedElsewhere();
+						//Products sharing a page are merged into one task by the scheduler
+						else if(crawlScheduler.submit(new CrawlTask(id, productId, job.getId(), URLFixer.normalize(product.getValue())))) job.submitted();
+						else {
+							job.rejected();
+							crawlLeases.release(productId);
+						}
+						leased.remove(productId);
+					}
+				});
+			} catch(RuntimeException e) {
+				Logger.error("Indexing job " + job.getId() + " stopped submitting the products of website " + id + ": " + e.getMessage());
+				job.submissionFailed(e.getMessage());
+				//Products already submitted keep their lease until they are done
+				for(Long productId : leased) crawlLeases.release(productId);
+				return internalServerError(Json.toJson(job));
+			} finally {
+				//Always closed, or the site could never be indexed again on this node
+				job.submissionDone();
+			}
+			Logger.info("Started indexing job " + job.getId() + " with " + due + " due product(s) for website " + site.getSiteURL());
+			//The crawl queue is full, let the caller retry later for the rest
+			if(job.getRejected() > 0) {
+				Logger.warn("Crawl queue full, rejected " + job.getRejected() + " product(s) for website " + id);
+				return status(SERVICE_UNAVAILABLE, Json.toJson(job));
+			}
+			return ok(Json.toJson(job));
 		}
 	}
 
 	/**
-	 * Starts the indexing process in another thread
-	 * @param product
-	 * @return
+	 * Progress of an indexing job
+	 * @param id
+	 * @return Result
 	 */
-	public CompletionStage<Result> startIndexingProduct(Long product) {
-		ExecutionContext ec = Akka.system().dispatchers().lookup("akka.actor.db-context");
-		ProductService productService = new ProductService();
-		return CompletableFuture.supplyAsync(() -> jpa.withTransaction("default", false, ()-> productService.indexProduct(productDAO.get(product))), play.libs.concurrent.HttpExecution.fromThread(ec))
-				.thenApply(i -> ok("Got result: " + i));
+	@Security.Authenticated(Secured.class)
+	public Result getIndexingJob(Long id) {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return badRequest("You are not authorized to use this");
+		}
+		IndexingJob job = indexingJobs.get(id);
+		if(job == null) {
+			return notFound("No such indexing job");
+		}
+		return ok(Json.toJson(job));
 	}
 
 	/**
-	 * Starts the indexing process in another thread
-	 * @param product
-	 * @return
-     */
-	public CompletionStage<Result> startIndexingProduct(Product product) {
-		ExecutionContext ec = Akka.system().dispatchers().lookup("akka.actor.db-context");
-		ProductService productService = new ProductService();
+	 * Runs the current rules of a site over its archived pages, without fetching anything.
+	 * With ?apply=true the prices found are stored.
+	 * @param id
+	 * @return Result holding the job, see getReextractionJob
+	 */
+	@Security.Authenticated(Secured.class)
+	@Transactional(readOnly = true)
+	public Result startReextraction(Long id) {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return badRequest("You are not authorized to use this");
+		}
+		if(siteDAO.get(id) == null) {
+			return notFound("Site doesn't exist");
+		}
+		ReextractionJob job = reextractionService.start(id, "true".equals(request().getQueryString("apply")));
+		return ok(Json.toJson(job));
+	}
+
+	/**
+	 * Progress of a re-extraction
+	 * @param id
+	 * @return Result
+	 */
+	@Security.Authenticated(Secured.class)
+	public Result getReextractionJob(Long id) {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return badRequest("You are not authorized to use this");
+		}
+		ReextractionJob job = reextractionService.get(id);
+		if(job == null) {
+			return notFound("No such re-extraction job");
+		}
+		return ok(Json.toJson(job));
+	}
 
-		return CompletableFuture.supplyAsync(() -> jpa.withTransaction("default", true, ()-> productService.indexProduct(product)), play.libs.concurrent.HttpExecution.fromThread(ec))
-				.thenApply(i -> ok("Got result: " + i));
+	/**
+	 * How the prices of a site were found since startup: by structured data path, site rules or not at all
+	 * @param id
+	 * @return Result
+	 */
+	@Security.Authenticated(Secured.class)
+	public Result getExtractionStats(Long id) {
+		if (Secured.getAdminLevel() != UserRoles.LEAD_ADMIN) {
+			return badRequest("You are not authorized to use this");
+		}
+		return ok(Json.toJson(extractionStats.forSite(id)));
 	}
 }
@@ -0,0 +1,57 @@
+package models;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * Crawl bookkeeping of a product: HTTP validators and the fingerprint of the price region from the last fetch.
+ */
+@Data
+@Entity
+@Table(name = "product_crawl_state")
+public class CrawlState {
+    @Id
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(name = "etag")
+    private String etag;
+
+    @Column(name = "last_modified")
+    private String lastModified;
+
+    //SHA-1 of the price region from the last fetch that stored a price
+    @Column(name = "content_hash")
+    private String contentHash;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "last_fetched")
+    private Date lastFetched;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "last_unchanged")
+    private Date lastUnchanged;
+
+    //Number of fetches in a row that found the page unchanged
+    @Column(name = "unchanged_count")
+    private Integer unchangedCount;
+
+    //Time between two index runs of the product in milliseconds, learned from its price changes(see CrawlIntervalPolicy)
+    @Column(name = "crawl_interval")
+    private Long crawlInterval;
+
+    //When the product should be indexed again
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "next_due")
+    private Date nextDue;
+
+    //Node indexing the product, see CrawlLeaseDAO. Never written through JPA so a merge can't undo a renewal
+    @Column(name = "lease_owner", insertable = false, updatable = false)
+    private String leaseOwner;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "lease_expires", insertable = false, updatable = false)
+    private Date leaseExpires;
+}
@@ -0,0 +1,45 @@
+package models;
+
+import lombok.Data;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * A product whose index runs keep failing, with the reason of the last failure. Products failing
+ * crawler.deadLetter.quarantineAfter times in a row are quarantined: left out of the regular runs until an admin
+ * retries or purges them. The entry is removed once a run succeeds.
+ */
+@Data
+@Entity
+@Table(name = "dead_letters")
+public class DeadLetter {
+    @Id
+    @Column(name = "product_id", nullable = false)
+    private Long productId;
+
+    @Column(name = "site_id")
+    private Long siteId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "reason", nullable = false)
+    private FailureReason reason;
+
+    //Failed runs in a row, retries of unreachable pages within a run count once
+    @Column(name = "attempts", nullable = false)
+    private Integer attempts;
+
+    @Column(name = "last_error")
+    private String lastError;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "first_failed")
+    private Date firstFailed;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "last_failed")
+    private Date lastFailed;
+
+    @Column(name = "quarantined", nullable = false)
+    private Boolean quarantined;
+}
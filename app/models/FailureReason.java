@@ -0,0 +1,15 @@
+package models;
+
+/**
+ * Why no price could be stored for a product, see DeadLetter
+ */
+public enum FailureReason {
+    //The page couldn't be downloaded or answered with an error status
+    NETWORK,
+    //The price region or the price pattern wasn't found on the page
+    NO_PRICE_MATCH,
+    //The price was found but no valid currency next to it
+    NO_CURRENCY_MATCH,
+    //No exchange rate is known for the currency found
+    CONVERSION_ERROR
+}
@@ -1,8 +1,21 @@
 package models;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
+import org.apache.lucene.analysis.core.LowerCaseFilterFactory;
+import org.apache.lucene.analysis.core.StopFilterFactory;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilterFactory;
+import org.apache.lucene.analysis.standard.StandardTokenizerFactory;
+import org.hibernate.search.annotations.Analyze;
+import org.hibernate.search.annotations.Analyzer;
+import org.hibernate.search.annotations.AnalyzerDef;
 import org.hibernate.search.annotations.Field;
 import org.hibernate.search.annotations.Indexed;
+import org.hibernate.search.annotations.NumericField;
+import org.hibernate.search.annotations.Parameter;
+import org.hibernate.search.annotations.Store;
+import org.hibernate.search.annotations.TokenFilterDef;
+import org.hibernate.search.annotations.TokenizerDef;
 import play.data.validation.Constraints;
 import javax.persistence.*;
 
@@ -13,7 +26,28 @@ import javax.persistence.*;
 @Entity
 @Table(name = "keywords")
 @Indexed
+/*
+ * Keywords are analyzed the same way when a page is parsed(utils.KeywordAnalysis), when they are indexed and when they
+ * are searched for. Stopwords are read per language from conf/stopwords, already lower case and without diacritics.
+ */
+@AnalyzerDef(name = Keyword.ANALYZER,
+        tokenizer = @TokenizerDef(factory = StandardTokenizerFactory.class),
+        filters = {
+                @TokenFilterDef(factory = LowerCaseFilterFactory.class),
+                @TokenFilterDef(factory = ASCIIFoldingFilterFactory.class),
+                @TokenFilterDef(factory = StopFilterFactory.class, params = {
+                        @Parameter(name = "words", value = "stopwords/ro.txt,stopwords/en.txt"),
+                        @Parameter(name = "ignoreCase", value = "true")
+                })
+        })
 public class Keyword {
+    public static final String ANALYZER = "keywordAnalyzer";
+    //Fields of the product copied to the index of its keywords, so searches filter on them inside Lucene
+    public static final String PRICE_FIELD = "price";
+    public static final String CATEGORY_FIELD = "category";
+    //Stored, read back from the index without loading the keyword
+    public static final String PRODUCT_ID_FIELD = "productId";
+
     @Id
     @Column(name = "id", nullable = false)
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -28,6 +62,7 @@ public class Keyword {
     @Column(name = "keyword", nullable = false)
     @Constraints.MaxLength(45)
     @Field
+    @Analyzer(definition = ANALYZER)
     private String keyword;
 
     //Commented out as it's used after getting keywords to determine products found
@@ -35,4 +70,40 @@ public class Keyword {
     /*public Product getProductByName() {
         return null;
     }*/
+
+    /**
+     * Indexed only
+     * @return the id of the product
+     */
+    @Transient
+    @JsonIgnore
+    @Field(name = PRODUCT_ID_FIELD, analyze = Analyze.NO, store = Store.YES)
+    @NumericField(forField = PRODUCT_ID_FIELD)
+    public Long getProductId() {
+        return product == null ? null : product.getId();
+    }
+
+    /**
+     * Indexed only; keywords are indexed again when a new price of their product is stored, see KeywordDAO#reindex
+     * @return the current price of the product, null if it has none
+     */
+    @Transient
+    @JsonIgnore
+    @Field(name = PRICE_FIELD, analyze = Analyze.NO)
+    @NumericField(forField = PRICE_FIELD)
+    public Float getProductPrice() {
+        Price price = product == null ? null : product.getPrice();
+        return price == null ? null : price.getValue();
+    }
+
+    /**
+     * Indexed only
+     * @return the category name of the product, upper case
+     */
+    @Transient
+    @JsonIgnore
+    @Field(name = CATEGORY_FIELD, analyze = Analyze.NO)
+    public String getProductCategory() {
+        return product == null || product.getCategory() == null ? null : product.getCategory().getCatName().toUpperCase();
+    }
 }
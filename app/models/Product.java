@@ -68,6 +68,10 @@ public class Product {
 
     public Price getPrice() {
         Price p = null;
+        if (prices == null) {
+            //Not saved yet
+            return null;
+        }
         for(Price o : prices){
             if (p == null || o.getInputDate().compareTo(p.getInputDate()) > 0){
                 p = o;
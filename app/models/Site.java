@@ -39,6 +39,13 @@ public class Site {
     @Constraints.Required
     private String currencyElement;
 
+    //Crawl budget, the crawler.politeness defaults are used when empty
+    @Column(name = "max_requests_per_second")
+    private Float maxRequestsPerSecond;
+
+    @Column(name = "max_burst")
+    private Integer maxBurst;
+
     @Column(name = "deleted")
     private Boolean deleted;
 
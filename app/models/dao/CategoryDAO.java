@@ -91,5 +91,33 @@ public class CategoryDAO {
 		return getCategoryByName("Unknown");
 	}
 
+	/**
+	 * Same as determineCategory(keywords), against categories that were already loaded, e.g. once for a whole import
+	 * @param keywords
+	 * @param categories all categories
+	 * @return the category, null if there is no Unknown category
+	 */
+	public static Category determineCategory(String[] keywords, List<Category> categories) {
+		for(String k : keywords){
+			if(k.toLowerCase().contains("telefon") || k.toLowerCase().contains("mobil"))
+				return byName(categories, "Smartphone");
+		}
+		for(String k : keywords) {
+			for (Category c : categories) {
+				if (c.getCatName().toLowerCase().contains(k.toLowerCase())) {
+					return c;
+				}
+			}
+		}
+		return byName(categories, "Unknown");
+	}
 
+	private static Category byName(List<Category> categories, String name) {
+		for (Category c : categories) {
+			if (c.getCatName().equals(name)) {
+				return c;
+			}
+		}
+		return null;
+	}
 }
@@ -0,0 +1,191 @@
+package models.dao;
+
+import play.db.Database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Crawl leases on the product_crawl_state rows, through plain JDBC so the claims are single row updates committed
+ * right away. A lease is held by an owner(one per application node) until it expires; expired leases can be claimed
+ * by any node. Every claim is a conditional update, so of two nodes claiming the same product only one wins.
+ *
+ * Expiry dates are set and compared with the clock of the database, so nodes whose clocks drift apart don't take
+ * leases over before they expired.
+ */
+public class CrawlLeaseDAO {
+    private static final int CHUNK = 500;
+
+    private final Database db;
+
+    public CrawlLeaseDAO(Database db) {
+        this.db = db;
+    }
+
+    /**
+     * Leases the products due before horizon that nobody holds and that aren't quarantined(see models.DeadLetter),
+     * earliest first
+     * @param owner
+     * @param horizon
+     * @param limit
+     * @param leaseMillis how long the leases last
+     * @return rows of [product id, site id, next due, link address] of the products that were leased, in due order
+     */
+    public List<Object[]> claimDue(String owner, Date horizon, int limit, long leaseMillis) {
+        return db.withConnection(connection -> {
+            Map<Long, Object[]> candidates = new LinkedHashMap<>();
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT s.product_id, p.site_id, s.next_due, p.link_address FROM product_crawl_state s JOIN products p ON p.id = s.product_id " +
+                    "WHERE s.next_due <= ? AND (s.lease_expires IS NULL OR s.lease_expires < CURRENT_TIMESTAMP) " +
+                    "AND (p.deleted IS NULL OR p.deleted = FALSE) " +
+                    "AND NOT EXISTS (SELECT 1 FROM dead_letters d WHERE d.product_id = s.product_id AND d.quarantined = TRUE) " +
+                    "ORDER BY s.next_due LIMIT ?")) {
+                select.setTimestamp(1, new Timestamp(horizon.getTime()));
+                select.setInt(2, limit);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        candidates.put(rows.getLong(1), new Object[]{rows.getLong(1), rows.getLong(2), rows.getTimestamp(3), rows.getString(4)});
+                    }
+                }
+            }
+            List<Long> won = claim(connection, owner, candidates.keySet(), leaseMillis);
+            List<Object[]> leased = new ArrayList<>();
+            for (Long productId : won) {
+                leased.add(candidates.get(productId));
+            }
+            return leased;
+        });
+    }
+
+    /**
+     * Leases the given products if nobody holds them, whether they are due or not
+     * @param owner
+     * @param productIds
+     * @param leaseMillis how long the leases last
+     * @return the ids that were leased
+     */
+    public List<Long> claim(String owner, Collection<Long> productIds, long leaseMillis) {
+        return db.withConnection(connection -> {
+            return claim(connection, owner, productIds, leaseMillis);
+        });
+    }
+
+    /**
+     * Extends the leases of owner on the given products
+     * @param owner
+     * @param productIds
+     * @param leaseMillis how long the leases last from now on
+     * @return number of leases still held
+     */
+    public int renew(String owner, Collection<Long> productIds, long leaseMillis) {
+        return db.withConnection(connection -> {
+            Timestamp until = expiry(connection, leaseMillis);
+            int renewed = 0;
+            for (List<Long> chunk : chunks(productIds)) {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE product_crawl_state SET lease_expires = ? WHERE lease_owner = ? AND product_id IN (" + placeholders(chunk.size()) + ")")) {
+                    update.setTimestamp(1, until);
+                    update.setString(2, owner);
+                    for (int i = 0; i < chunk.size(); i++) {
+                        update.setLong(i + 3, chunk.get(i));
+                    }
+                    renewed += update.executeUpdate();
+                }
+            }
+            return renewed;
+        });
+    }
+
+    /**
+     * Gives up the leases of owner on the given products
+     * @param owner
+     * @param productIds
+     * @param nextDue when the products are due again, null to leave it as set by the index run
+     * @return number of leases released
+     */
+    public int release(String owner, Collection<Long> productIds, Date nextDue) {
+        return db.withConnection(connection -> {
+            int released = 0;
+            String due = nextDue == null ? "" : ", next_due = ?";
+            for (List<Long> chunk : chunks(productIds)) {
+                try (PreparedStatement update = connection.prepareStatement(
+                        "UPDATE product_crawl_state SET lease_owner = NULL, lease_expires = NULL" + due +
+                        " WHERE lease_owner = ? AND product_id IN (" + placeholders(chunk.size()) + ")")) {
+                    int index = 1;
+                    if (nextDue != null) update.setTimestamp(index++, new Timestamp(nextDue.getTime()));
+                    update.setString(index++, owner);
+                    for (Long productId : chunk) {
+                        update.setLong(index++, productId);
+                    }
+                    released += update.executeUpdate();
+                }
+            }
+            return released;
+        });
+    }
+
+    private static List<Long> claim(Connection connection, String owner, Collection<Long> productIds, long leaseMillis) throws SQLException {
+        if (productIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Timestamp until = expiry(connection, leaseMillis);
+        List<Long> ids = new ArrayList<>(productIds);
+        List<Long> won = new ArrayList<>();
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE product_crawl_state SET lease_owner = ?, lease_expires = ? " +
+                "WHERE product_id = ? AND (lease_expires IS NULL OR lease_expires < CURRENT_TIMESTAMP OR lease_owner = ?)")) {
+            for (Long productId : ids) {
+                update.setString(1, owner);
+                update.setTimestamp(2, until);
+                update.setLong(3, productId);
+                update.setString(4, owner);
+                update.addBatch();
+            }
+            int[] counts = update.executeBatch();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] > 0) won.add(ids.get(i));
+            }
+        }
+        return won;
+    }
+
+    /**
+     * @param connection
+     * @param leaseMillis
+     * @return the time of the database in leaseMillis
+     */
+    private static Timestamp expiry(Connection connection, long leaseMillis) throws SQLException {
+        try (PreparedStatement select = connection.prepareStatement("SELECT CURRENT_TIMESTAMP");
+             ResultSet rows = select.executeQuery()) {
+            rows.next();
+            return new Timestamp(rows.getTimestamp(1).getTime() + leaseMillis);
+        }
+    }
+
+    private static List<List<Long>> chunks(Collection<Long> ids) {
+        List<Long> all = new ArrayList<>(ids);
+        List<List<Long>> chunks = new ArrayList<>();
+        for (int i = 0; i < all.size(); i += CHUNK) {
+            chunks.add(all.subList(i, Math.min(all.size(), i + CHUNK)));
+        }
+        return chunks;
+    }
+
+    private static String placeholders(int count) {
+        StringBuilder sql = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        return sql.toString();
+    }
+}
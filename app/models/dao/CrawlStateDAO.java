@@ -0,0 +1,48 @@
+package models.dao;
+
+import models.CrawlState;
+import play.db.jpa.JPA;
+
+import javax.persistence.EntityManager;
+
+public class CrawlStateDAO {
+    private EntityManager em;
+
+    public CrawlStateDAO() {
+        this.em = JPA.em();
+    }
+
+    public CrawlState get(Long productId) {
+        return em.find(CrawlState.class, productId);
+    }
+
+    /**
+     * Returns the crawl state of the product or a new, unsaved one if the product was never fetched
+     * @param productId
+     * @return
+     */
+    public CrawlState getOrCreate(Long productId) {
+        CrawlState state = get(productId);
+        if (state == null) {
+            state = new CrawlState();
+            state.setProductId(productId);
+            state.setUnchangedCount(0);
+        }
+        return state;
+    }
+
+    public CrawlState save(CrawlState state) {
+        return em.merge(state);
+    }
+
+    /**
+     * Creates the missing crawl state of products that existed before the refresh scheduler, due right away
+     * @return number of rows created
+     */
+    public int createMissing() {
+        return em.createNativeQuery("INSERT INTO product_crawl_state (product_id, unchanged_count, next_due) " +
+                "SELECT p.id, 0, NOW() FROM products p LEFT JOIN product_crawl_state s ON s.product_id = p.id " +
+                "WHERE s.product_id IS NULL")
+                .executeUpdate();
+    }
+}
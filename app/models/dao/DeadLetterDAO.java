@@ -0,0 +1,139 @@
+package models.dao;
+
+import models.DeadLetter;
+import models.FailureReason;
+import play.db.jpa.JPA;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Dead letters can be selected by reason, site and product ids; every filter left null matches all entries.
+ */
+public class DeadLetterDAO {
+    //Longest error message kept, see last_error
+    private static final int MAX_ERROR = 1024;
+
+    private EntityManager em;
+
+    public DeadLetterDAO() {
+        this.em = JPA.em();
+    }
+
+    public DeadLetter get(Long productId) {
+        return em.find(DeadLetter.class, productId);
+    }
+
+    /**
+     * Counts a failed run of a product, quarantining it once it failed quarantineAfter times in a row. The entry is
+     * created or updated by a single upsert, so failures of the same product recorded at once by several threads or
+     * nodes are all counted.
+     * @param productId
+     * @param siteId
+     * @param reason
+     * @param error
+     * @param quarantineAfter
+     * @return the entry of the product
+     */
+    public DeadLetter record(Long productId, Long siteId, FailureReason reason, String error, int quarantineAfter) {
+        Date now = new Date();
+        //MySQL applies the assignments in order, quarantined sees the new attempts
+        em.createNativeQuery("INSERT INTO dead_letters (product_id, site_id, reason, attempts, last_error, first_failed, last_failed, quarantined) " +
+                "VALUES (?1, ?2, ?3, 1, ?4, ?5, ?5, ?6) ON DUPLICATE KEY UPDATE site_id = VALUES(site_id), reason = VALUES(reason), " +
+                "last_error = VALUES(last_error), last_failed = VALUES(last_failed), attempts = attempts + 1, quarantined = attempts >= ?7")
+                .setParameter(1, productId)
+                .setParameter(2, siteId)
+                .setParameter(3, reason.name())
+                .setParameter(4, error != null && error.length() > MAX_ERROR ? error.substring(0, MAX_ERROR) : error)
+                .setParameter(5, now)
+                .setParameter(6, quarantineAfter <= 1)
+                .setParameter(7, quarantineAfter)
+                .executeUpdate();
+        return get(productId);
+    }
+
+    /**
+     * Forgets the failures of a product after a successful run
+     * @param productId
+     * @return number of entries removed
+     */
+    public int delete(Long productId) {
+        return em.createQuery("DELETE FROM DeadLetter d WHERE d.productId = :productId")
+                .setParameter("productId", productId)
+                .executeUpdate();
+    }
+
+    /**
+     * Entries matching the filters, the most recent failures first
+     * @param reason
+     * @param siteId
+     * @param quarantined
+     * @param offset
+     * @param limit
+     * @return
+     */
+    public List<DeadLetter> list(FailureReason reason, Long siteId, Boolean quarantined, int offset, int limit) {
+        String where = where(reason, siteId, null);
+        if (quarantined != null) {
+            where += " AND d.quarantined = :quarantined";
+        }
+        Query query = em.createQuery("SELECT d FROM DeadLetter d WHERE " + where + " ORDER BY d.lastFailed DESC");
+        bind(query, reason, siteId, null);
+        if (quarantined != null) {
+            query.setParameter("quarantined", quarantined);
+        }
+        @SuppressWarnings("unchecked")
+        List<DeadLetter> deadLetters = query.setFirstResult(offset).setMaxResults(limit).getResultList();
+        return deadLetters;
+    }
+
+    /**
+     * Lifts the quarantine of the matching entries and returns what is needed to queue them again
+     * @param reason
+     * @param siteId
+     * @param productIds
+     * @return rows of [product id, site id, link address]
+     */
+    public List<Object[]> release(FailureReason reason, Long siteId, Collection<Long> productIds) {
+        Query select = em.createQuery("SELECT d.productId, p.site.id, p.linkAddress FROM DeadLetter d, Product p " +
+                "WHERE p.id = d.productId AND (p.deleted IS NULL OR p.deleted = false) AND " + where(reason, siteId, productIds));
+        bind(select, reason, siteId, productIds);
+        @SuppressWarnings("unchecked")
+        List<Object[]> rows = select.getResultList();
+
+        Query update = em.createQuery("UPDATE DeadLetter d SET d.quarantined = false WHERE " + where(reason, siteId, productIds));
+        bind(update, reason, siteId, productIds);
+        update.executeUpdate();
+        return rows;
+    }
+
+    /**
+     * Removes the matching entries, which also ends their quarantine
+     * @param reason
+     * @param siteId
+     * @param productIds
+     * @return number of entries removed
+     */
+    public int purge(FailureReason reason, Long siteId, Collection<Long> productIds) {
+        Query query = em.createQuery("DELETE FROM DeadLetter d WHERE " + where(reason, siteId, productIds));
+        bind(query, reason, siteId, productIds);
+        return query.executeUpdate();
+    }
+
+    private static String where(FailureReason reason, Long siteId, Collection<Long> productIds) {
+        String where = "1 = 1";
+        if (reason != null) where += " AND d.reason = :reason";
+        if (siteId != null) where += " AND d.siteId = :siteId";
+        if (productIds != null) where += " AND d.productId IN (:productIds)";
+        return where;
+    }
+
+    private static void bind(Query query, FailureReason reason, Long siteId, Collection<Long> productIds) {
+        if (reason != null) query.setParameter("reason", reason);
+        if (siteId != null) query.setParameter("siteId", siteId);
+        if (productIds != null) query.setParameter("productIds", productIds);
+    }
+}
@@ -2,41 +2,129 @@ package models.dao;
 
 import models.Keyword;
 import models.Product;
+import org.hibernate.Session;
+import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.search.jpa.Search;
+import play.Logger;
 import play.db.jpa.JPA;
+import services.search.SearchCache;
 
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
-import java.util.List;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.Future;
 
 public class KeywordDAO {
 	private EntityManager emKW;
 	private CriteriaBuilder criteriaBuilder;
+	private SearchCache searchCache;
 
-	public KeywordDAO() {
+	@Inject
+	public KeywordDAO(SearchCache searchCache) {
 		this.emKW = JPA.em();
 		this.criteriaBuilder = emKW.getCriteriaBuilder();
+		this.searchCache = searchCache;
 	}
 
 	public void create(Keyword k){
 		emKW.persist(k);
 	}
 
-	public void delete(Product product){
-		CriteriaDelete<Keyword> deleteQ = this.emKW.getCriteriaBuilder().createCriteriaDelete(Keyword.class);
-		Root<Keyword> root = deleteQ.from(Keyword.class);
+	/**
+	 * Gives a product exactly the keywords passed, see updateAll
+	 * @param product
+	 * @param keywords
+	 * @return number of keywords inserted or deleted
+	 */
+	public int update(Product product, String[] keywords){
+		return updateAll(Collections.singletonMap(product.getId(), keywords));
+	}
 
-		deleteQ.where(this.criteriaBuilder.equal(root.get("product"), product.getId()));
-		this.emKW.createQuery(deleteQ).executeUpdate();
+	/**
+	 * Gives products exactly the keywords passed. Only the difference to their current keywords is written: keywords
+	 * that are gone are deleted, new ones are inserted through JDBC, and keywords kept are left alone. The
+	 * search index is updated for the changed keywords only, all of it when the transaction commits.
+	 * @param keywords keywords by product id
+	 * @return number of keywords inserted or deleted
+	 */
+	public int updateAll(Map<Long, String[]> keywords){
+		if (keywords.isEmpty()) {
+			return 0;
+		}
+		Map<Long, Set<String>> added = new LinkedHashMap<>();
+		for (Map.Entry<Long, String[]> entry : keywords.entrySet()) {
+			added.put(entry.getKey(), new LinkedHashSet<>(Arrays.asList(entry.getValue())));
+		}
+		@SuppressWarnings("unchecked")
+		List<Keyword> existing = emKW.createQuery("SELECT k FROM Keyword k WHERE k.product.id IN (:ids)")
+				.setParameter("ids", keywords.keySet())
+				.getResultList();
+		List<String> removed = new ArrayList<>();
+		for (Keyword keyword : existing) {
+			//Kept once, duplicates and keywords that are gone are deleted
+			if (!added.get(keyword.getProduct().getId()).remove(keyword.getKeyword())) {
+				emKW.remove(keyword);
+				removed.add(keyword.getKeyword());
+			}
+		}
+		//Searches for the removed keywords may have found these products, insertAll takes care of the new ones
+		searchCache.invalidateOnCommit(emKW, keywords.keySet(), removed);
+		return removed.size() + insertAll(added).size();
 	}
 
+	/**
+	 * Inserts keywords through one JDBC statement and adds them to the search index, which doesn't see JDBC inserts by
+	 * itself
+	 * @param keywords keywords by product id
+	 * @return ids of the keywords inserted
+	 */
+	public List<Long> insertAll(Map<Long, ? extends Collection<String>> keywords){
+		List<Long> ids = new ArrayList<>();
+		emKW.unwrap(Session.class).doWork(connection -> {
+			try (PreparedStatement insert = connection.prepareStatement("INSERT INTO keywords (product_id, keyword) VALUES (?, ?)",
+					Statement.RETURN_GENERATED_KEYS)) {
+				for (Map.Entry<Long, ? extends Collection<String>> entry : keywords.entrySet()) {
+					for (String keyword : entry.getValue()) {
+						insert.setLong(1, entry.getKey());
+						insert.setString(2, keyword);
+						//Executed row by row, a batch only returns the key of its last row on H2
+						insert.executeUpdate();
+						try (ResultSet keys = insert.getGeneratedKeys()) {
+							keys.next();
+							ids.add(keys.getLong(1));
+						}
+					}
+				}
+			}
+		});
+		if (ids.isEmpty()) {
+			return ids;
+		}
+		@SuppressWarnings("unchecked")
+		List<Keyword> inserted = emKW.createQuery("SELECT k FROM Keyword k WHERE k.id IN (:ids)")
+				.setParameter("ids", ids)
+				.getResultList();
+		FullTextEntityManager fullTextEntityManager = Search.getFullTextEntityManager(emKW);
+		List<String> words = new ArrayList<>();
+		for (Keyword keyword : inserted) {
+			fullTextEntityManager.index(keyword);
+			words.add(keyword.getKeyword());
+		}
+		searchCache.invalidateOnCommit(emKW, keywords.keySet(), words);
+		return ids;
+	}
 
 	public List<Keyword> getProductExistingKeywords(Product product){
 		CriteriaQuery<Keyword> query = this.criteriaBuilder.createQuery(Keyword.class);
 		Root<Keyword> p = query.from(Keyword.class);
 		query.select(p);
 		query.where(this.criteriaBuilder.equal(p.get("product"), product.getId()));
-		Query finalQuery = this.emKW.createQuery(query);
+		TypedQuery<Keyword> finalQuery = this.emKW.createQuery(query);
 		List<Keyword> keywords =  finalQuery.getResultList();
 		if(keywords.isEmpty()){
 			return null;
@@ -45,6 +133,39 @@ public class KeywordDAO {
 		}
 	}
 
+	/**
+	 * Rebuilds the search index of all keywords, in the background
+	 * @return completes once the index was rebuilt
+	 */
+	public Future<?> reindex(){
+		Logger.info("Reindexing keywords");
+		searchCache.invalidateAll();
+		return Search.getFullTextEntityManager(emKW).createIndexer(Keyword.class).start();
+	}
+
+	/**
+	 * Indexes the keywords of products again, e.g. after a new price was stored, as the index of a keyword holds the
+	 * price and category of its product. The index is updated when the transaction commits, the cached searches that
+	 * found these products or could find them now are dropped(see SearchCache).
+	 * @param productIds
+	 */
+	public void reindex(Collection<Long> productIds){
+		if (productIds.isEmpty()) {
+			return;
+		}
+		@SuppressWarnings("unchecked")
+		List<Keyword> keywords = emKW.createQuery("SELECT k FROM Keyword k WHERE k.product.id IN (:ids)")
+				.setParameter("ids", productIds)
+				.getResultList();
+		FullTextEntityManager fullTextEntityManager = Search.getFullTextEntityManager(emKW);
+		List<String> words = new ArrayList<>();
+		for (Keyword keyword : keywords) {
+			fullTextEntityManager.index(keyword);
+			words.add(keyword.getKeyword());
+		}
+		searchCache.invalidateOnCommit(emKW, productIds, words);
+	}
+
 	public String[] keywordsFromProductURL(Product p){
 		String URL = p.getLinkAddress();
 		String[] URLsite = URL.split("/");
@@ -34,4 +34,24 @@ public class PriceDAO {
         List<Price> prices = finalQuery.getResultList();
         return prices;
     }
+
+    /**
+     * Latest prices of a product, newest first
+     * @param id
+     * @param limit
+     * @return
+     */
+    public List<Price> getRecentPrices(Long id, int limit) {
+        CriteriaQuery<Price> criteriaQuery = this.criteriaBuilder.createQuery(Price.class);
+        Root<Price> root = criteriaQuery.from(Price.class);
+
+        criteriaQuery.select(root);
+        criteriaQuery.where(this.criteriaBuilder.equal(root.get("product").get("id"), id));
+        criteriaQuery.orderBy(this.criteriaBuilder.desc(root.get("inputDate")));
+
+        Query finalQuery = this.em.createQuery(criteriaQuery).setMaxResults(limit);
+        @SuppressWarnings("unchecked")
+        List<Price> prices = finalQuery.getResultList();
+        return prices;
+    }
 }
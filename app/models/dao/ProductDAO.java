@@ -2,16 +2,32 @@ package models.dao;
 
 import models.*;
 import models.Product;
-import org.hibernate.search.jpa.FullTextEntityManager;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.hibernate.search.FullTextSession;
+import org.hibernate.search.ProjectionConstants;
+import org.hibernate.search.Search;
+import org.hibernate.search.query.dsl.BooleanJunction;
 import org.hibernate.search.query.dsl.QueryBuilder;
 import play.Logger;
 import play.db.jpa.JPA;
+import services.search.SearchCache;
+import utils.KeywordCountHits;
 
+import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.persistence.criteria.*;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.List;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 
@@ -19,18 +35,86 @@ import java.util.stream.Collectors;
  * Created by octavian.salcianu on 7/14/2016.
  */
 public class ProductDAO {
+	//Search results returned at once
+	public static final int DEFAULT_LIMIT = 20;
+	public static final int MAX_LIMIT = 100;
+	//Deepest page searched, offset + limit hits are kept while ranking
+	public static final int MAX_OFFSET = 10000;
+	//Keywords read from the index at once while ranking
+	private static final int SEARCH_FETCH_SIZE = 1000;
+
 	private EntityManager emPD;
 	private CriteriaBuilder criteriaBuilder;
+	private SearchCache searchCache;
 
-	public ProductDAO() {
+	@Inject
+	public ProductDAO(SearchCache searchCache) {
 		this.emPD = JPA.em();
 		this.criteriaBuilder = emPD.getCriteriaBuilder();
+		this.searchCache = searchCache;
 	}
 
 	public void create(Product product){
 		product.setId(null);
 		product.setDeleted(false);
 		emPD.persist(product);
+
+		//New products are due for indexing right away
+		CrawlState state = new CrawlState();
+		state.setProductId(product.getId());
+		state.setUnchangedCount(0);
+		state.setNextDue(new Date());
+		emPD.persist(state);
+		invalidateSearches(product);
+	}
+
+	/**
+	 * Inserts new products with their keywords and crawl state through JDBC, without loading them into the persistence
+	 * context, see KeywordDAO#insertAll
+	 * @param products not saved yet, with their site and category set; their ids are set once inserted
+	 * @param keywords keywords of each product, in the same order
+	 */
+	public void createAll(List<Product> products, List<String[]> keywords) {
+		if (products.isEmpty()) {
+			return;
+		}
+		emPD.unwrap(Session.class).doWork(connection -> {
+			try (PreparedStatement insert = connection.prepareStatement(
+					"INSERT INTO products (link_address, product_name, site_id, category_id, deleted) VALUES (?, ?, ?, ?, ?)",
+					Statement.RETURN_GENERATED_KEYS)) {
+				for (Product product : products) {
+					insert.setString(1, product.getLinkAddress());
+					insert.setString(2, product.getProdName());
+					insert.setLong(3, product.getSite().getId());
+					insert.setLong(4, product.getCategory().getId());
+					insert.setBoolean(5, false);
+					//Executed row by row, a batch only returns the key of its last row on H2
+					insert.executeUpdate();
+					try (ResultSet ids = insert.getGeneratedKeys()) {
+						ids.next();
+						product.setId(ids.getLong(1));
+						product.setDeleted(false);
+					}
+				}
+			}
+			//New products are due for indexing right away
+			try (PreparedStatement insert = connection.prepareStatement(
+					"INSERT INTO product_crawl_state (product_id, unchanged_count, next_due) VALUES (?, 0, ?)")) {
+				Timestamp now = new Timestamp(System.currentTimeMillis());
+				for (Product product : products) {
+					insert.setLong(1, product.getId());
+					insert.setTimestamp(2, now);
+					insert.addBatch();
+				}
+				insert.executeBatch();
+			}
+		});
+
+		Map<Long, List<String>> keywordsById = new LinkedHashMap<>();
+		for (int i = 0; i < products.size(); i++) {
+			keywordsById.put(products.get(i).getId(), Arrays.asList(keywords.get(i)));
+		}
+		new KeywordDAO(searchCache).insertAll(keywordsById);
 	}
 
 	public void delete(Product product){
@@ -74,13 +158,67 @@ public class ProductDAO {
 		return resultList;
 	}
 
+	/**
+	 * Streams the ids and links of the products of a site that are due for indexing, i.e. whose next due date(see
+	 * CrawlState) is before dueBefore or not set and that aren't quarantined(see DeadLetter), through a forward only
+	 * cursor. Only these two columns are read, so neither products nor their price history are loaded; with MySQL the
+	 * cursor needs the useCursorFetch connection property, see db.default.hikaricp.dataSource.
+	 * @param siteId
+	 * @param dueBefore
+	 * @param batchSize number of rows handed to consumer at once
+	 * @param consumer gets rows of [product id, link address]
+	 * @return number of products found
+	 */
+	public int scrollDueProducts(Long siteId, Date dueBefore, int batchSize, Consumer<List<Object[]>> consumer) {
+		ScrollableResults results = emPD.unwrap(Session.class)
+				.createQuery("SELECT p.id, p.linkAddress FROM Product p WHERE p.site.id = :siteId AND (p.deleted IS NULL OR p.deleted = false) " +
+						//Same due date as the background refresh
+						"AND NOT EXISTS (SELECT s.productId FROM CrawlState s WHERE s.productId = p.id AND s.nextDue > :dueBefore) " +
+						"AND NOT EXISTS (SELECT d.productId FROM DeadLetter d WHERE d.productId = p.id AND d.quarantined = true)")
+				.setParameter("siteId", siteId)
+				.setParameter("dueBefore", dueBefore)
+				.setReadOnly(true)
+				.setFetchSize(batchSize)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		int found = 0;
+		try {
+			List<Object[]> batch = new ArrayList<>(batchSize);
+			while (results.next()) {
+				batch.add(new Object[]{results.getLong(0), results.getString(1)});
+				found++;
+				if (batch.size() == batchSize) {
+					consumer.accept(batch);
+					batch = new ArrayList<>(batchSize);
+				}
+			}
+			if (!batch.isEmpty()) consumer.accept(batch);
+		} finally {
+			results.close();
+		}
+		return found;
+	}
+
 	public void softDelete(Product product) {
 		product.setDeleted(true);
 		emPD.merge(product);
+		invalidateSearches(product);
 	}
 
 	public void update(Product product){
 		emPD.merge(product);
+		invalidateSearches(product);
+	}
+
+	/**
+	 * Drops the cached searches that found the product or could find it now, see SearchCache
+	 * @param product
+	 */
+	private void invalidateSearches(Product product) {
+		@SuppressWarnings("unchecked")
+		List<String> keywords = emPD.createQuery("SELECT k.keyword FROM Keyword k WHERE k.product.id = :id")
+				.setParameter("id", product.getId())
+				.getResultList();
+		searchCache.invalidateOnCommit(emPD, Collections.singletonList(product.getId()), keywords);
 	}
 
 	public Product getProductByName(String name){
@@ -112,59 +250,40 @@ public class ProductDAO {
 		}
 	}
 
+	/**
+	 * Finds the products whose keywords match productName. The min-price, max-price and category parameters of the
+	 * query string are range and term clauses of the Lucene query, so only the ids and scores of matching keywords are
+	 * read from the index, product by product. Products are ranked by the summed score of their keywords, then by id;
+	 * only the best offset + limit of them are kept while ranking and only the page is loaded. The ids of the page are cached(see
+	 * SearchCache), a repeated search only loads the products.
+	 * @param productName
+	 * @param queryString may hold offset(default 0, at most MAX_OFFSET) and limit(default DEFAULT_LIMIT, at most MAX_LIMIT)
+	 * @return one page of the products with the most matching keywords, or one less, best first
+	 * @throws IllegalArgumentException for invalid parameters
+	 */
 	public Set<Product> findProductsByName(String productName, Set<Map.Entry<String, String[]>> queryString) {
+		int offset = intParam(queryString, "offset", 0);
+		int limit = intParam(queryString, "limit", DEFAULT_LIMIT);
+		if (offset < 0 || offset > MAX_OFFSET || limit < 1 || limit > MAX_LIMIT) {
+			throw new IllegalArgumentException("offset must be between 0 and " + MAX_OFFSET + " and limit between 1 and " + MAX_LIMIT);
+		}
+		SearchCache.Key cacheKey = searchCache.key(productName, queryString);
+		List<Long> cached = cacheKey == null ? null : searchCache.get(cacheKey);
+		if (cached != null) {
+			return load(cached);
+		}
+		long cacheVersion = searchCache.version();
 		//Fetch the matching keywords
-		FullTextEntityManager fullTextEntityManager =
-				org.hibernate.search.jpa.Search.getFullTextEntityManager(emPD);
-		QueryBuilder qb = fullTextEntityManager.getSearchFactory()
+		FullTextSession fullTextSession = Search.getFullTextSession(emPD.unwrap(Session.class));
+		QueryBuilder qb = fullTextSession.getSearchFactory()
 				.buildQueryBuilder().forEntity(Keyword.class).get();
-		org.apache.lucene.search.Query luceneQuery = qb
+		org.apache.lucene.search.Query keywordQuery = qb
 				.keyword()
 				.onFields("keyword")
 				.matching(productName)
 				.createQuery();
-
-		javax.persistence.Query jpaQuery =
-				fullTextEntityManager.createFullTextQuery(luceneQuery, Keyword.class);
-
-		@SuppressWarnings("unchecked")
-		List<Keyword> foundKeywords = (List<Keyword>) jpaQuery.getResultList();
-		//Get the corresponding products
-		List<Product> foundProducts = new ArrayList<>();
-		foundProducts.addAll(foundKeywords.stream().map(Keyword::getProduct).collect(Collectors.toList()));
-
-		//Get the count for every product
-		Map<Product, Integer> counter = new HashMap<>();
-		int maxCount = 0;
-		for (Product prod : foundProducts) {
-			counter.put(prod, 1 + (counter.containsKey(prod) ? counter.get(prod) : 0));
-			if(counter.get(prod) > maxCount) maxCount = counter.get(prod);
-		}
-
-		final int MIN_KEYWORDS = maxCount - 1;
-
-
-
-		//Sort the product list by frequency
-		List<Product> list = new ArrayList<>(counter.keySet());
-		Collections.sort(list, new Comparator<Product>() {
-			@Override
-			public int compare(Product x, Product y) {
-				return counter.get(y) - counter.get(x);
-			}
-		});
-
-		//Logger.info(foundProducts.toString());
-
-		//Convert it to set and maintain the order(LinkedHashSet)
-		Set<Product> sortedProducts = new HashSet<>();
-
-		//Only keep the products that have at least maxCount-1 keywords
-		/*
-		The logic is that if you find a product with maxCount keywords, then there is for sure a match, so any other products
-		/that have the same no of keywords-1 can be kept and all others discarded(not relevant)
-		*/
-		sortedProducts.addAll(list.stream().filter(p -> counter.get(p) >= MIN_KEYWORDS).collect(Collectors.toCollection(LinkedHashSet::new)));
+		BooleanJunction<?> luceneQuery = qb.bool().must(keywordQuery);
+		boolean filtered = false;
 
 		for (Map.Entry<String,String[]> entry : queryString) {
 			String key = entry.getKey();
@@ -173,21 +292,21 @@ public class ProductDAO {
 			switch (key) {
 				case "min-price": {
 					Float val = Float.parseFloat(value[0]);
-					//foundProducts.forEach(p -> Logger.info(p.getPrice().getValue().toString()));
-					sortedProducts = sortedProducts.stream().filter(p -> p.getPrice().getValue() >= val).collect(Collectors.toSet());
-					//Logger.info("Filtered " + foundProducts);
+					luceneQuery.must(qb.range().onField(Keyword.PRICE_FIELD).above(val).createQuery());
+					filtered = true;
 					break;
 				}
 
 				case "max-price": {
 					Float val = Float.parseFloat(value[0]);
-					sortedProducts = sortedProducts.stream().filter(p -> p.getPrice().getValue() <= val).collect(Collectors.toSet());
+					luceneQuery.must(qb.range().onField(Keyword.PRICE_FIELD).below(val).createQuery());
+					filtered = true;
 					break;
 				}
 
 				case "category": {
-					String category = value[0].toUpperCase();
-					sortedProducts = sortedProducts.stream().filter(p -> p.getCategory().getCatName().toUpperCase().equals(category)).collect(Collectors.toSet());
+					luceneQuery.must(qb.keyword().onField(Keyword.CATEGORY_FIELD).matching(value[0].toUpperCase()).createQuery());
+					filtered = true;
 					break;
 				}
 
@@ -195,7 +314,110 @@ public class ProductDAO {
 					break;
 			}
 		}
-		return sortedProducts;//empty check in controller
+
+		//Only keep the products that have at least maxCount-1 keywords
+		/*
+		The logic is that if you find a product with maxCount keywords, then there is for sure a match, so any other products
+		/that have the same no of keywords-1 can be kept and all others discarded(not relevant)
+		*/
+		//maxCount is counted before the price and category filters, they only drop products afterwards
+		int[] maxCount = {0};
+		if (filtered) {
+			scrollHits(fullTextSession, keywordQuery, hit -> maxCount[0] = Math.max(maxCount[0], hit.count));
+		}
+		KeywordCountHits<SearchHit> top = new KeywordCountHits<>(Math.addExact(offset, limit), SearchHit.BEST_FIRST, maxCount[0]);
+		scrollHits(fullTextSession, luceneQuery.createQuery(), hit -> top.offer(hit, hit.count));
+		List<Long> ids = top.page(offset).stream().map(hit -> hit.productId).collect(Collectors.toList());
+		if (cacheKey != null) {
+			searchCache.put(cacheKey, ids, cacheVersion);
+		}
+		return load(ids);
+	}
+
+	/**
+	 * Loads the products of a page of search results
+	 * @param ids
+	 * @return the products, in the order of ids
+	 */
+	private Set<Product> load(List<Long> ids) {
+		if (ids.isEmpty()) {
+			return new LinkedHashSet<>();//empty check in controller
+		}
+		@SuppressWarnings("unchecked")
+		List<Product> products = emPD.createQuery("SELECT p FROM Product p WHERE p.id IN (:ids)")
+				.setParameter("ids", ids)
+				.getResultList();
+
+		//The set keeps the order of the page
+		Product[] page = new Product[ids.size()];
+		Map<Long, Integer> positions = new HashMap<>();
+		for (int i = 0; i < ids.size(); i++) {
+			positions.put(ids.get(i), i);
+		}
+		for (Product product : products) {
+			page[positions.get(product.getId())] = product;
+		}
+		Set<Product> sorted = new LinkedHashSet<>();
+		for (Product product : page) {
+			if (product != null) sorted.add(product);
+		}
+		return sorted;
+	}
+
+	/**
+	 * Reads the hits of a keyword search product by product, the keywords are sorted by product id so that only the
+	 * product being counted is held; the index is read in pages of SEARCH_FETCH_SIZE keywords
+	 * @param fullTextSession
+	 * @param query
+	 * @param consumer gets the summed score and the number of keywords of every matching product
+	 */
+	private static void scrollHits(FullTextSession fullTextSession, org.apache.lucene.search.Query query, Consumer<SearchHit> consumer) {
+		ScrollableResults results = fullTextSession.createFullTextQuery(query, Keyword.class)
+				.setProjection(ProjectionConstants.SCORE, Keyword.PRODUCT_ID_FIELD)
+				.setSort(new Sort(new SortField(Keyword.PRODUCT_ID_FIELD, SortField.Type.LONG)))
+				.setFetchSize(SEARCH_FETCH_SIZE)
+				.scroll();
+		try {
+			SearchHit hit = null;
+			while (results.next()) {
+				Long productId = (Long) results.get(1);
+				if (hit == null || !hit.productId.equals(productId)) {
+					if (hit != null) consumer.accept(hit);
+					hit = new SearchHit(productId);
+				}
+				hit.count++;
+				hit.score += (Float) results.get(0);
+			}
+			if (hit != null) consumer.accept(hit);
+		} finally {
+			results.close();
+		}
+	}
+
+	/**
+	 * A product matched by a search, before it is loaded
+	 */
+	private static class SearchHit {
+		//Highest summed score first, the lowest id among equal scores so that pages are stable
+		private static final Comparator<SearchHit> BEST_FIRST = Comparator.<SearchHit>comparingDouble(hit -> -hit.score)
+				.thenComparingLong(hit -> hit.productId);
+
+		private final Long productId;
+		private int count;
+		private float score;
+
+		private SearchHit(Long productId) {
+			this.productId = productId;
+		}
+	}
+
+	private static int intParam(Set<Map.Entry<String, String[]>> queryString, String name, int defaultValue) {
+		for (Map.Entry<String, String[]> entry : queryString) {
+			if (entry.getKey().equals(name)) {
+				return Integer.parseInt(entry.getValue()[0]);
+			}
+		}
+		return defaultValue;
 	}
 
 	/*
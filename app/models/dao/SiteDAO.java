@@ -59,6 +59,17 @@ public class SiteDAO {
 
 	public Site get(Long id){ return em.find(Site.class, id);}
 
+	/* Returns all sites, e.g. to resolve many links without a query per link. */
+	public List<Site> getAllSites(){
+		CriteriaQuery<Site> criteriaQuery = this.criteriaBuilder.createQuery(Site.class);
+		Root<Site> root = criteriaQuery.from(Site.class);
+		criteriaQuery.select(root);
+		Query finalQuery = this.em.createQuery(criteriaQuery);
+		@SuppressWarnings("unchecked")
+		List<Site> sites = finalQuery.getResultList();
+		return sites;
+	}
+
 	/* Delete site identified by its keyword(which should be unique). */
 	public void delete(Site site) {
 		em.remove(site);
@@ -0,0 +1,18 @@
+package services;
+
+/**
+ * Result of indexing a single product.
+ */
+public enum IndexOutcome {
+    //A new price was stored
+    UPDATED,
+    //The page was fetched but didn't change since the last stored price
+    UNCHANGED,
+    //The product was indexed recently, nothing was fetched
+    UP_TO_DATE,
+    //robots.txt of the retailer doesn't allow fetching the page
+    DISALLOWED,
+    //The retailer couldn't be reached or answered with a server error, worth retrying later
+    UNREACHABLE,
+    FAILED
+}
@@ -0,0 +1,78 @@
+package services;
+
+import models.FailureReason;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of indexing a single product together with the time spent in each step.
+ * Steps that didn't run have a time of 0.
+ */
+public class IndexResult {
+    private final Long productId;
+    private final IndexOutcome outcome;
+    private final long fetchNanos;
+    private final long extractNanos;
+    private final long totalNanos;
+    //Why no price could be stored, null for runs that didn't fail or failed for another reason
+    private final FailureReason failure;
+    private final String error;
+
+    public IndexResult(Long productId, IndexOutcome outcome, long fetchNanos, long extractNanos, long totalNanos) {
+        this(productId, outcome, fetchNanos, extractNanos, totalNanos, null, null);
+    }
+
+    public IndexResult(Long productId, IndexOutcome outcome, long fetchNanos, long extractNanos, long totalNanos,
+                       FailureReason failure, String error) {
+        this.productId = productId;
+        this.outcome = outcome;
+        this.fetchNanos = fetchNanos;
+        this.extractNanos = extractNanos;
+        this.totalNanos = totalNanos;
+        this.failure = failure;
+        this.error = error;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public IndexOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return true if a page was downloaded, even if it was a 304 or an error status
+     */
+    public boolean isFetched() {
+        return fetchNanos > 0;
+    }
+
+    public long getFetchMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(fetchNanos);
+    }
+
+    public long getExtractMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(extractNanos);
+    }
+
+    public long getTotalMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalNanos);
+    }
+
+    public long getFetchNanos() {
+        return fetchNanos;
+    }
+
+    public long getExtractNanos() {
+        return extractNanos;
+    }
+
+    public FailureReason getFailure() {
+        return failure;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -1,163 +1,620 @@
 package services;
 
+import akka.actor.ActorSystem;
+import models.CrawlState;
+import models.FailureReason;
 import models.Price;
 import models.Product;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
+import models.dao.CrawlStateDAO;
+import models.dao.KeywordDAO;
+import models.dao.PriceDAO;
+import models.dao.ProductDAO;
 import play.Configuration;
 import play.Logger;
-import play.api.Play;
 import play.db.jpa.JPAApi;
-import utils.CurrencyCalculator;
+import services.archive.PageArchive;
+import services.archive.PageSnapshot;
+import services.crawler.CrawlIntervalPolicy;
+import services.crawler.FetchedPage;
+import services.crawler.HostRateLimiter;
+import services.crawler.PageFetcher;
+import services.crawler.RobotsTxtCache;
+import services.currency.CurrencyRateService;
+import services.extraction.ExtractedPrice;
+import services.extraction.ExtractionStats;
+import services.extraction.PriceExtractor;
+import services.extraction.SiteExtractionRules;
+import services.extraction.SiteExtractionRulesCache;
+import services.extraction.StreamingPriceScanner;
+import services.extraction.StructuredDataExtractor;
+import services.http.HttpStatusException;
+import utils.ContentHash;
 import utils.URLFixer;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
 import javax.persistence.EntityManager;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Currency;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by octavian.salcianu on 8/9/2016.
  */
+@Singleton
 public class ProductService {
+    //Number of recent prices the first crawl interval of a product is learned from
+    private static final int INTERVAL_HISTORY = 20;
+
+    private final JPAApi jpaApi;
+    private final PageFetcher pageFetcher;
+    private final SiteExtractionRulesCache rulesCache;
+    private final CurrencyRateService currencyRates;
+    private final RobotsTxtCache robots;
+    private final HostRateLimiter rateLimiter;
+    private final PageArchive archive;
+    private final ExtractionStats extractionStats;
+    private final CrawlIntervalPolicy intervalPolicy;
+    //The DAOs hold the entity manager of the transaction they are created in, so a new one is taken for each
+    private final Provider<ProductDAO> productDAO;
+    private final Provider<KeywordDAO> keywordDAO;
+    private final Provider<CrawlStateDAO> crawlStateDAO;
+    private final Provider<PriceDAO> priceDAO;
+    //Scan the page while it downloads instead of buffering and parsing all of it
+    private final boolean streamingExtraction;
+    //Blocking work(JPA)
+    private final Executor dbContext;
+    //Small CPU bound pool used for parsing and extraction once the page has arrived
+    private final Executor extractContext;
+    //Pages being downloaded and inspected, by normalized URL and validators
+    private final ConcurrentMap<String, CompletableFuture<PageContent>> pagesInFlight = new ConcurrentHashMap<>();
+
+    @Inject
+    public ProductService(JPAApi jpaApi, PageFetcher pageFetcher, SiteExtractionRulesCache rulesCache, CurrencyRateService currencyRates,
+                          RobotsTxtCache robots, HostRateLimiter rateLimiter, PageArchive archive, ExtractionStats extractionStats,
+                          CrawlIntervalPolicy intervalPolicy, Provider<ProductDAO> productDAO, Provider<KeywordDAO> keywordDAO,
+                          Provider<CrawlStateDAO> crawlStateDAO, Provider<PriceDAO> priceDAO, ActorSystem actorSystem,
+                          Configuration configuration) {
+        this.jpaApi = jpaApi;
+        this.pageFetcher = pageFetcher;
+        this.rulesCache = rulesCache;
+        this.currencyRates = currencyRates;
+        this.robots = robots;
+        this.rateLimiter = rateLimiter;
+        this.archive = archive;
+        this.extractionStats = extractionStats;
+        this.intervalPolicy = intervalPolicy;
+        this.productDAO = productDAO;
+        this.keywordDAO = keywordDAO;
+        this.crawlStateDAO = crawlStateDAO;
+        this.priceDAO = priceDAO;
+        this.streamingExtraction = configuration.getBoolean("crawler.streamingExtraction", false);
+        this.dbContext = actorSystem.dispatchers().lookup("akka.actor.db-context");
+        this.extractContext = actorSystem.dispatchers().lookup("akka.actor.crawler-extract-context");
+    }
+
+    /**
+     * State of a product while it goes through the indexing pipeline
+     */
+    private static class IndexRun {
+        private Long productId;
+        private Product product;
+        private CrawlState state;
+        private SiteExtractionRules rules;
+        private URL location;
+        private String url;
+        private FetchedPage page;
+        private String contentHash;
+        private ExtractedPrice extracted;
+        private Float convertedValue;
+        private Throwable conversionError;
+        private IndexOutcome outcome;
+        private FailureReason failure;
+        private String error;
+        private long fetchNanos;
+        private long extractNanos;
+    }
+
+    /**
+     * A fetched page and what was found on it, shared by all the products pointing at the page. The price is only
+     * extracted from the region once a product needs it, i.e. when the region changed for that product.
+     */
+    private static class PageContent {
+        private final FetchedPage page;
+        private final StreamingPriceScanner scanner;
+        private final ExtractedPrice structured;
+        private final String region;
+        private final String contentHash;
+        private final long fetchNanos;
+        private final long extractNanos;
+        //The time spent on the page is reported with the first product only
+        private final AtomicBoolean timeReported = new AtomicBoolean(false);
+        private boolean extractedDone = false;
+        private ExtractedPrice extracted;
+
+        private PageContent(FetchedPage page, StreamingPriceScanner scanner, ExtractedPrice structured, String region,
+                            String contentHash, long fetchNanos, long extractNanos) {
+            this.page = page;
+            this.scanner = scanner;
+            this.structured = structured;
+            this.region = region;
+            this.contentHash = contentHash;
+            this.fetchNanos = fetchNanos;
+            this.extractNanos = extractNanos;
+        }
+
+        private synchronized ExtractedPrice extracted() {
+            if (!extractedDone) {
+                extracted = structured != null ? structured : scanner.result();
+                extractedDone = true;
+            }
+            return extracted;
+        }
+    }
+
+    /**
+     * Loads the product, downloads its page without blocking and stores the price found on it, see indexProducts
+     * @param productId
+     * @return IndexResult holding the outcome and the time spent fetching and extracting
+     */
+    public CompletionStage<IndexResult> indexProduct(Long productId) {
+        return indexProducts(Collections.singletonList(productId)).thenApply(results -> results.get(0));
+    }
 
-    private static final JPAApi jpaApi = Play.current().injector().instanceOf(JPAApi.class);
     /**
-     * Returns the price by accesing the website of the product.
+     * Loads products pointing at the same page, downloads the page once without blocking and stores the price found
+     * on it for each of them.
      *
-     * Method works by taking the closest parent(class, siteKeyword) of the element containing the price on which it tests
-     * the pattern using the price keyword(priceElement) for finding the price value and currency keyword(currencyElement)
-     * for finding the currency.
-     * @param product
+     * The page is fetched asynchronously, parsing and extraction run on the extraction pool only after the body
+     * arrived. A price published as structured data(see {@link StructuredDataExtractor}) is used before the rules of
+     * the site are tried(see {@link PriceExtractor}). The conversion is answered from the in-memory rate table and the
+     * merge runs on the db pool. Re-fetches are conditional on the validators of the previous fetch; a 304 or a price
+     * region with the same fingerprint as last time is only recorded as seen unchanged, without extraction or a new
+     * price. Pages disallowed by the robots.txt of the retailer are never fetched and its Crawl-delay is applied to the
+     * request budget of the site. A page already being downloaded for other products is not fetched a second time,
+     * its content is shared.
+     * @param productIds
+     * @return one IndexResult per product, in the same order, holding the outcome and the time spent fetching and
+     * extracting
+     */
+    public CompletionStage<List<IndexResult>> indexProducts(List<Long> productIds) {
+        long start = System.nanoTime();
+        List<IndexRun> runs = new ArrayList<>();
+        for (Long productId : productIds) {
+            IndexRun run = new IndexRun();
+            run.productId = productId;
+            runs.add(run);
+        }
+        return CompletableFuture.runAsync(() -> load(runs), dbContext)
+                .thenCompose(loaded -> {
+                    List<IndexRun> due = new ArrayList<>();
+                    for (IndexRun run : runs) {
+                        if (prepare(run)) due.add(run);
+                    }
+                    if (due.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    IndexRun lead = due.get(0);
+                    return robots.forUrl(lead.location).thenCompose(robotsRules -> {
+                        rateLimiter.configure(lead.product.getSite(), robotsRules.getCrawlDelay());
+                        if (!robotsRules.isAllowed(lead.location.getFile())) {
+                            Logger.info("robots.txt disallows indexing product(s) " + productIds);
+                            due.forEach(run -> run.outcome = IndexOutcome.DISALLOWED);
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        return fetchAndStore(due);
+                    });
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    Logger.error("Error while indexing product(s) " + productIds + " " + cause.getMessage());
+                    for (IndexRun run : runs) {
+                        if (run.outcome != null) continue;
+                        run.outcome = isTransient(cause) ? IndexOutcome.UNREACHABLE : IndexOutcome.FAILED;
+                        if (isTransient(cause) || cause instanceof HttpStatusException) {
+                            run.failure = FailureReason.NETWORK;
+                            run.error = cause.getMessage();
+                        }
+                    }
+                    return null;
+                })
+                .thenApply(done -> {
+                    List<IndexResult> results = new ArrayList<>();
+                    for (IndexRun run : runs) {
+                        results.add(new IndexResult(run.productId, run.outcome, run.fetchNanos, run.extractNanos,
+                                System.nanoTime() - start, run.failure, run.error));
+                    }
+                    return results;
+                });
+    }
+
+    /**
+     * Stores the price found on a page that was already fetched for the product, e.g. while onboarding it. Runs the
+     * same steps as indexProducts after the download, without the up to date check.
+     * @param productId
+     * @param page
+     * @return IndexResult holding the outcome
+     */
+    public CompletionStage<IndexResult> indexPage(Long productId, FetchedPage page) {
+        long start = System.nanoTime();
+        IndexRun run = new IndexRun();
+        run.productId = productId;
+        return CompletableFuture.runAsync(() -> load(Collections.singletonList(run)), dbContext)
+                .thenCompose(loaded -> {
+                    if (run.product == null) {
+                        Logger.error("Product " + productId + " doesn't exist");
+                        return CompletableFuture.completedFuture(IndexOutcome.FAILED);
+                    }
+                    run.url = URLFixer.fixURL(run.product.getLinkAddress());
+                    run.rules = rulesCache.forSite(run.product.getSite());
+                    return CompletableFuture.supplyAsync(() -> extract(run, inspect(page, run.rules, 0)), extractContext)
+                            .thenCompose(this::convert)
+                            .thenApplyAsync(this::save, dbContext);
+                })
+                .exceptionally(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    Logger.error("Error while indexing product " + productId + " " + cause.getMessage());
+                    return IndexOutcome.FAILED;
+                })
+                .thenApply(outcome -> new IndexResult(productId, outcome, run.fetchNanos, run.extractNanos,
+                        System.nanoTime() - start, run.failure, run.error));
+    }
+
+    /**
+     * Network errors, timeouts, server errors and throttling; client errors like 404 won't go away by retrying
+     * @param error
      * @return
      */
-    public boolean indexProduct(Product product) {
-        Logger.info("Indexing product " + product.getId() + "...");
+    private static boolean isTransient(Throwable error) {
+        if (error instanceof HttpStatusException) {
+            return ((HttpStatusException) error).isTransient();
+        }
+        return error instanceof IOException || error instanceof TimeoutException;
+    }
+
+    /**
+     * Checks that the product exists, needs indexing and has a valid URL, otherwise sets its outcome
+     * @param run
+     * @return true if the page of the product has to be fetched
+     */
+    private boolean prepare(IndexRun run) {
+        if (run.product == null) {
+            Logger.error("Product " + run.productId + " doesn't exist");
+            run.outcome = IndexOutcome.FAILED;
+            return false;
+        }
+        Logger.info("Indexing product " + run.productId + "...");
+        if (isUpToDate(run)) {
+            Logger.info("Product " + run.productId + " was up to date");
+            run.outcome = IndexOutcome.UP_TO_DATE;
+            return false;
+        }
         try {
-            //Only update if the last update is 7 days old or older
-            if (product.getPrice() == null || new Date().compareTo(product.getPrice().getInputDate()) >= Configuration.root().getInt("productMinUpdateTime")) {
-                //Test that the URL is well formated and open the connection
-                URL testURL = new URL(URLFixer.fixURL(product.getLinkAddress()));
-                Document document = Jsoup.connect(URLFixer.fixURL(product.getLinkAddress())).userAgent("Mozilla/5.0").maxBodySize(0).get();
-                Element doc;
-                //If the site has a certain element containing the price & currency, use it to avoid duplicate price/currency elements
-                if(product.getSite().getSiteKeyword().equals("none")) {
-                    doc = document;
-                } else {
-                    //doc = document.getElementsContainingText(product.getSite().getSiteKeyword()).first();
-                    doc = document.getElementsByClass(product.getSite().getSiteKeyword()).first();
+            //Test that the URL is well formated
+            run.location = new URL(URLFixer.fixURL(run.product.getLinkAddress()));
+            run.url = run.location.toString();
+        } catch (MalformedURLException e) {
+            Logger.error("Bad URL while indexing product " + run.productId + " " + e.getMessage());
+            run.outcome = IndexOutcome.FAILED;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fetches the page of the first product and stores the price found on it for every product
+     * @param runs products pointing at the same page
+     * @return
+     */
+    private CompletionStage<Void> fetchAndStore(List<IndexRun> runs) {
+        IndexRun lead = runs.get(0);
+        SiteExtractionRules rules = rulesCache.forSite(lead.product.getSite());
+        runs.forEach(run -> run.rules = rules);
+        return content(lead, sameValidators(runs) ? lead.state : null)
+                .thenCompose(content -> {
+                    List<CompletableFuture<Void>> stored = new ArrayList<>();
+                    for (IndexRun run : runs) {
+                        stored.add(CompletableFuture.supplyAsync(() -> extract(run, content), extractContext)
+                                .thenCompose(this::convert)
+                                .thenApplyAsync(this::save, dbContext)
+                                .thenAccept(outcome -> run.outcome = outcome));
+                    }
+                    return CompletableFuture.allOf(stored.toArray(new CompletableFuture<?>[stored.size()]));
+                });
+    }
+
+    /**
+     * The request is only conditional if all the products were fetched with the same validators last time, otherwise a
+     * 304 would say nothing about some of them
+     * @param runs
+     * @return
+     */
+    private static boolean sameValidators(List<IndexRun> runs) {
+        CrawlState first = runs.get(0).state;
+        for (IndexRun run : runs) {
+            if (!Objects.equals(first.getEtag(), run.state.getEtag()) || !Objects.equals(first.getLastModified(), run.state.getLastModified())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Downloads and inspects the page of the run, or joins the download already running for the same page and
+     * validators
+     * @param run
+     * @param validators
+     * @return
+     */
+    private CompletionStage<PageContent> content(IndexRun run, CrawlState validators) {
+        String key = URLFixer.normalize(run.url) + (validators == null ? "" : " " + validators.getEtag() + " " + validators.getLastModified());
+        CompletableFuture<PageContent> content = new CompletableFuture<>();
+        CompletableFuture<PageContent> inFlight = pagesInFlight.putIfAbsent(key, content);
+        if (inFlight != null) {
+            return inFlight;
+        }
+        long[] fetchStart = {0};
+        long[] fetchNanos = {0};
+        //The request token is only taken now that the page is really requested
+        rateLimiter.whenAllowed(run.product.getSite().getId())
+                .thenCompose(allowed -> {
+                    fetchStart[0] = System.nanoTime();
+                    //In streaming mode the fetch time includes scanning the page as it arrives
+                    return streamingExtraction
+                            ? pageFetcher.stream(run.url, validators, run.rules)
+                            : pageFetcher.fetch(run.url, validators);
+                })
+                .whenComplete((fetched, error) -> fetchNanos[0] = System.nanoTime() - fetchStart[0])
+                .thenApplyAsync(fetched -> inspect(fetched, run.rules, fetchNanos[0]), extractContext)
+                .whenComplete((inspected, error) -> {
+                    pagesInFlight.remove(key, content);
+                    if (error != null) content.completeExceptionally(error);
+                    else content.complete(inspected);
+                });
+        return content;
+    }
+
+    /**
+     * Reads the structured price of the fetched page or else finds its price region, and fingerprints it. A buffered
+     * page is scanned like a streamed one, so that both modes find the same region and price.
+     * @param page
+     * @param rules
+     * @param fetchNanos
+     * @return
+     */
+    private PageContent inspect(FetchedPage page, SiteExtractionRules rules, long fetchNanos) {
+        long start = System.nanoTime();
+        if (page.isNotModified()) {
+            return new PageContent(page, null, null, null, null, fetchNanos, 0);
+        }
+        StreamingPriceScanner scanner = page.getScanner() != null ? page.getScanner() : StreamingPriceScanner.scan(page.getBody(), rules);
+        ExtractedPrice structured = scanner.getStructuredPrice();
+        String region = scanner.getRegion();
+        String contentHash;
+        if (structured != null) {
+            contentHash = ContentHash.sha1(structured.getPath() + " " + structured.getValue() + " " + structured.getCurrency());
+        } else {
+            contentHash = region == null ? null : ContentHash.sha1(region);
+        }
+        return new PageContent(page, scanner, structured, region, contentHash, fetchNanos, System.nanoTime() - start);
+    }
+
+    private void load(List<IndexRun> runs) {
+        jpaApi.withTransaction(() -> {
+            ProductDAO products = productDAO.get();
+            CrawlStateDAO crawlStates = crawlStateDAO.get();
+            PriceDAO prices = priceDAO.get();
+            for (IndexRun run : runs) {
+                run.product = products.get(run.productId);
+                if (run.product == null) continue;
+                run.state = crawlStates.getOrCreate(run.productId);
+                if (run.state.getCrawlInterval() == null) {
+                    run.state.setCrawlInterval(intervalPolicy.fromHistory(prices.getRecentPrices(run.productId, INTERVAL_HISTORY)));
                 }
-               //Element doc = document.select("div:contains(" + product.getSite().getSiteKeyword() + ")").first();
-               //Element doc = document.getElementsByClass(product.getSite().getSiteKeyword()).first();
-
-                //Patterns for finding the price
-                //<..."price"...>ACTUAL_PRICE
-                //String patternTag = "(?is)(<.*?" + product.getSite().getPriceElement() + ".*?>)(([0-9]*[.])?[0-9]+)";
-                //..."price"...ACTUAL_PRICE
-                //String pricePattern = "(?is)(.*?" + product.getSite().getPriceElement() + ".*?)(([0-9]*[.])?[0-9]+)";
-                String pricePattern = "(?is)((\"" + product.getSite().getPriceElement() + "\"|" + product.getSite().getPriceElement() + "\\s*=|" + product.getSite().getPriceElement() + "\\s*>).*?)(([0-9]*[.])?[0-9]+)";
-
-                //Patterns for finding the currency
-                String currencyPatternTag = "(?is)(" + product.getSite().getCurrencyElement() + ".*?>)(\\w+)<";
-                String currencyPatternProp = "(?is)(" + product.getSite().getCurrencyElement() + ".*?)\"(\\w+)\"";
-
-                //Element productElement = doc.getElementsByClass(product.getSite().getSiteKeyword()).first();
-                //Element priceElement = doc.select("div:containsOwn(" + product.getSite().getPriceElement() + "),meta:containsOwn(" + product.getSite().getPriceElement() + ")").first();
-                //Element currencyElement = doc.select("div:containsOwn(" + product.getSite().getCurrencyElement() + "),meta:containsOwn(" + product.getSite().getCurrencyElement() + ")").first();
-
-                Pattern pPattern = Pattern.compile(pricePattern);
-                Matcher priceMatcher = pPattern.matcher(doc.html());
-
-                Pattern cPatternTag = Pattern.compile(currencyPatternTag);
-                Pattern cPatternProp = Pattern.compile(currencyPatternProp);
-                Matcher currencyMatcherTag = cPatternTag.matcher(doc.html());
-                Matcher currencyMatcherProp = cPatternProp.matcher(doc.html());
-
-                Float productPrice = null;
-                String productCurrency = null;
-
-                //Find the patterns and collect data
-                if (priceMatcher.find()) {
-                    productPrice = Float.parseFloat(priceMatcher.group(3));
-                    //Logger.info(productPrice.toString());
+                //An up to date product isn't due before the end of its interval, see CrawlLeases#finished
+                Date dueAgain = dueAgain(run);
+                if (isUpToDate(run) && !dueAgain.equals(run.state.getNextDue())) {
+                    run.state.setNextDue(dueAgain);
+                    crawlStates.save(run.state);
                 }
+            }
+        });
+    }
 
+    /**
+     * Only update if the last update(new price or page seen unchanged) is as old as the crawl interval of the product
+     * or older, see {@link CrawlIntervalPolicy}
+     * @param run
+     * @return
+     */
+    private boolean isUpToDate(IndexRun run) {
+        Date dueAgain = dueAgain(run);
+        return dueAgain != null && dueAgain.getTime() > System.currentTimeMillis();
+    }
 
-                if (currencyMatcherTag.find()) {
-                    productCurrency = currencyMatcherTag.group(2);
-                   // Logger.info(productCurrency);
-                    //Check if the found string is a currency because of the false matching sometimes
-                    try {
-                        Set<Currency> currencies = Currency.getAvailableCurrencies();
-                        Currency c = Currency.getInstance(CurrencyCalculator.solveBadCurrency(productCurrency));
-                        if (!currencies.contains(c)) productCurrency = null;
-                    } catch (Exception e) {
-                        productCurrency = null;
-                    }
-                }
+    /**
+     * @param run
+     * @return the last update of the product plus its crawl interval, null if it was never updated
+     */
+    private static Date dueAgain(IndexRun run) {
+        Date lastUpdate = run.state.getLastFetched();
+        if (run.product.getPrice() != null && (lastUpdate == null || run.product.getPrice().getInputDate().after(lastUpdate))) {
+            lastUpdate = run.product.getPrice().getInputDate();
+        }
+        return lastUpdate == null ? null : new Date(lastUpdate.getTime() + run.state.getCrawlInterval());
+    }
 
-                //If there is no currency found, search using the second pattern and also check if the currency exists
-                if (currencyMatcherProp.find() && productCurrency == null) {
-                    productCurrency = currencyMatcherProp.group(2);
-                    //Logger.info(productCurrency);
-                    try {
-                        Set<Currency> currencies = Currency.getAvailableCurrencies();
-                        Currency c = Currency.getInstance(CurrencyCalculator.solveBadCurrency(productCurrency));
-                        if (!currencies.contains(c)) productCurrency = null;
-                    } catch (Exception e) {
-                        productCurrency = null;
-                    }
-                }
+    /**
+     * Extracts the price for a product from the shared page content unless the fingerprint of its price or region
+     * didn't change since the last price of the product
+     * @param run
+     * @param content
+     * @return
+     */
+    private IndexRun extract(IndexRun run, PageContent content) {
+        long start = System.nanoTime();
+        run.page = content.page;
+        run.contentHash = content.contentHash;
+        if (content.timeReported.compareAndSet(false, true)) {
+            run.fetchNanos = content.fetchNanos;
+            run.extractNanos = content.extractNanos;
+        }
+        try {
+            if (content.page.isNotModified()) {
+                return run;
+            }
+            if (content.contentHash == null) {
+                extractionStats.record(run.product.getSite().getId(), null);
+                run.failure = FailureReason.NO_PRICE_MATCH;
+                run.error = "Price element not found";
+                return run;
+            }
+            if (isUnchanged(run)) {
+                return run;
+            }
+            archive(run, content.region);
+            run.extracted = content.extracted();
+            extractionStats.record(run.product.getSite().getId(), run.extracted);
+            if (run.extracted == null) {
+                boolean priceFound = PriceExtractor.hasPrice(content.region, run.rules);
+                run.failure = priceFound ? FailureReason.NO_CURRENCY_MATCH : FailureReason.NO_PRICE_MATCH;
+                run.error = priceFound ? "No currency found next to the price" : "No price found in the price element";
+            }
+            return run;
+        } finally {
+            run.extractNanos += System.nanoTime() - start;
+        }
+    }
 
+    /**
+     * Keeps the changed page in the {@link PageArchive}, so it can be extracted again after a fix of the site rules
+     * @param run
+     * @param region may be null for prices read from structured data
+     */
+    private void archive(IndexRun run, String region) {
+        if (!archive.isEnabled()) {
+            return;
+        }
+        boolean fullPage = archive.isFullPage() && run.page.getBody() != null;
+        if (!fullPage && region == null) {
+            return;
+        }
+        archive.store(new PageSnapshot(run.product.getId(), run.product.getSite().getId(), System.currentTimeMillis(), run.url,
+                fullPage ? PageSnapshot.Kind.PAGE : PageSnapshot.Kind.REGION, fullPage ? run.page.getBody() : region));
+    }
 
-                //Finally, check if price & currency were found
-                if (productPrice != null && productCurrency != null) {
-                    try {
-                        Price price = new Price();
-                        price.setInputDate(new Date());
-                        price.setProduct(product);
-                        price.setValue(CurrencyCalculator.convert(productPrice, productCurrency, "EUR"));
-                        product.setPrice(price);
-
-                        try {
-                            jpaApi.withTransaction(() -> {
-                                EntityManager em = jpaApi.em();
-                                em.merge(product);
-                            });
-                        } catch (Exception e) {
-                            Logger.error("There was an error while trying to merge product + " + product.getId() + ": " + e.getMessage());
-                            return false;
-                        }
-                        Logger.info("Updated product " + product.getProdName());
-                        return true;
-                        //return ok("Product " + product.getId() + " updated!");
-                    } catch (Exception e) {
-                        Logger.info("Conversion exception: " + e.getMessage());
-                        return false;
-                    }
-                } else {
-                    Logger.error("Error while updating product " + product.getProdName() + "(ID:" + product.getId() + ")");
-                    return false;
-                    // return badRequest();
-                }
-            } else {
-                Logger.info("Product " + product.getId() + " was up to date");
-                return false;
-                //return ok("Product already up to date");
+    /**
+     * A page is unchanged if the server answered 304 or the price region has the fingerprint of the last stored price
+     * @param run
+     * @return
+     */
+    private boolean isUnchanged(IndexRun run) {
+        if (run.page.isNotModified()) {
+            return true;
+        }
+        return run.contentHash != null && run.contentHash.equals(run.state.getContentHash()) && run.product.getPrice() != null;
+    }
+
+    /**
+     * Converts the extracted price to EUR, see {@link CurrencyRateService}
+     * @param run
+     * @return
+     */
+    private CompletionStage<IndexRun> convert(IndexRun run) {
+        if (run.extracted == null || isUnchanged(run)) {
+            return CompletableFuture.completedFuture(run);
+        }
+        return currencyRates.convert(run.extracted.getValue(), run.extracted.getCurrency(), "EUR")
+                .handle((value, error) -> {
+                    run.convertedValue = value;
+                    run.conversionError = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    return run;
+                });
+    }
+
+    /**
+     * Adds the converted price to the price history of the product, together with the
+     * validators of the page. Unchanged pages only get their crawl state updated.
+     * @param run
+     * @return IndexOutcome
+     */
+    private IndexOutcome save(IndexRun run) {
+        Product product = run.product;
+        CrawlState state = run.state;
+        Date now = new Date();
+
+        if (isUnchanged(run)) {
+            state.setLastFetched(now);
+            state.setLastUnchanged(now);
+            state.setUnchangedCount(state.getUnchangedCount() == null ? 1 : state.getUnchangedCount() + 1);
+            state.setCrawlInterval(intervalPolicy.next(state.getCrawlInterval(), false));
+            state.setNextDue(new Date(now.getTime() + state.getCrawlInterval()));
+            try {
+                jpaApi.withTransaction(() -> {
+                    crawlStateDAO.get().save(state);
+                });
+            } catch (Exception e) {
+                Logger.error("There was an error while trying to save the crawl state of product " + product.getId() + ": " + e.getMessage());
+                return IndexOutcome.FAILED;
             }
-        } catch (MalformedURLException e) {
-            Logger.error("Bad URL while indexing product " + product.getId() + " " + e.getMessage());
-            return false;
-            //return badRequest();
-        } catch (IOException |NullPointerException e) {
-            Logger.error("Error while indexing product " + product.getId() + " " + e.getMessage());
-            return false;
-            //return badRequest();
+            Logger.info("Product " + product.getId() + " was seen unchanged");
+            return IndexOutcome.UNCHANGED;
+        }
+
+        //Finally, check if price & currency were found
+        if (run.extracted == null) {
+            Logger.error("Error while updating product " + product.getProdName() + "(ID:" + product.getId() + ")");
+            return IndexOutcome.FAILED;
+        }
+        if (run.conversionError != null) {
+            Logger.info("Conversion exception: " + run.conversionError.getMessage());
+            run.failure = FailureReason.CONVERSION_ERROR;
+            run.error = run.conversionError.getMessage();
+            return IndexOutcome.FAILED;
+        }
+        Price previous = product.getPrice();
+        boolean changed = intervalPolicy.isChange(previous == null ? null : previous.getValue(), run.convertedValue);
+        Price price = new Price();
+        price.setInputDate(now);
+        price.setProduct(product);
+        price.setValue(run.convertedValue);
+        product.setPrice(price);
+
+        //Validators are only kept for pages a price was read from, so a 304 never hides a page we failed to parse
+        state.setEtag(run.page.getEtag());
+        state.setLastModified(run.page.getLastModified());
+        state.setContentHash(run.contentHash);
+        state.setLastFetched(now);
+        state.setUnchangedCount(0);
+        state.setCrawlInterval(intervalPolicy.next(state.getCrawlInterval(), changed));
+        state.setNextDue(new Date(now.getTime() + state.getCrawlInterval()));
+
+        try {
+            jpaApi.withTransaction(() -> {
+                EntityManager em = jpaApi.em();
+                em.merge(product);
+                crawlStateDAO.get().save(state);
+                //The index of the keywords holds the current price
+                keywordDAO.get().reindex(Collections.singletonList(product.getId()));
+            });
+        } catch (Exception e) {
+            Logger.error("There was an error while trying to merge product + " + product.getId() + ": " + e.getMessage());
+            return IndexOutcome.FAILED;
         }
+        Logger.info("Updated product " + product.getProdName());
+        return IndexOutcome.UPDATED;
     }
 }
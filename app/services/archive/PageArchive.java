@@ -0,0 +1,268 @@
+package services.archive;
+
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Append-only, compressed archive of fetched pages, enabled with archive.enabled.
+ *
+ * Snapshots are appended to segment files(segment-000001.gz, ...) of at most archive.maxSegmentBytes, each snapshot
+ * being its own gzip member so a segment is a valid gzip file and a crash can only lose the snapshot being written.
+ * Next to every segment an index file(segment-000001.idx) holds one line per snapshot: product id, site id, fetch
+ * time and offset in the segment. Writes happen on a single archive thread and never hold up indexing: at most
+ * archive.queueSize snapshots wait for it, the ones that don't fit are dropped and counted.
+ */
+@Singleton
+public class PageArchive {
+    private static final int VERSION = 1;
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    /**
+     * Location of a snapshot, as read from the index files
+     */
+    public static class Entry {
+        private final File segment;
+        private final long offset;
+        private final Long productId;
+        private final Long siteId;
+        private final long fetchedAt;
+
+        private Entry(File segment, long offset, Long productId, Long siteId, long fetchedAt) {
+            this.segment = segment;
+            this.offset = offset;
+            this.productId = productId;
+            this.siteId = siteId;
+            this.fetchedAt = fetchedAt;
+        }
+
+        public Long getProductId() {
+            return productId;
+        }
+
+        public Long getSiteId() {
+            return siteId;
+        }
+
+        public long getFetchedAt() {
+            return fetchedAt;
+        }
+    }
+
+    private final boolean enabled;
+    private final boolean fullPage;
+    private final File dir;
+    private final long maxSegmentBytes;
+    private final ExecutorService writer;
+    private final AtomicLong dropped = new AtomicLong();
+
+    //Only used by the writer thread
+    private int segmentNumber;
+    private FileOutputStream segmentOut;
+    private Writer indexOut;
+
+    @Inject
+    public PageArchive(Configuration configuration, ApplicationLifecycle lifecycle) {
+        this.enabled = configuration.getBoolean("archive.enabled", false);
+        this.fullPage = configuration.getBoolean("archive.fullPage", false);
+        this.dir = new File(configuration.getString("archive.dir", "archive"));
+        this.maxSegmentBytes = configuration.getBytes("archive.maxSegmentBytes", 67108864L);
+        this.writer = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(configuration.getInt("archive.queueSize", 1000)));
+        lifecycle.addStopHook(() -> CompletableFuture.runAsync(() -> {
+            writer.shutdown();
+            try {
+                writer.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            closeSegment();
+        }));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return true if whole pages should be archived when available, instead of only their price region
+     */
+    public boolean isFullPage() {
+        return fullPage;
+    }
+
+    /**
+     * @return number of snapshots dropped because the writer was behind
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Queues a snapshot for writing, does nothing if the archive is disabled
+     * @param snapshot
+     */
+    public void store(PageSnapshot snapshot) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    append(snapshot);
+                } catch (IOException e) {
+                    Logger.error("Could not archive the page of product " + snapshot.getProductId() + ": " + e.getMessage());
+                    closeSegment();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //Queue full or application stopping
+            long count = dropped.incrementAndGet();
+            if (count == 1 || count % 1000 == 0) {
+                Logger.warn("Archive writer is behind, " + count + " snapshot(s) dropped so far");
+            }
+        }
+    }
+
+    /**
+     * Reads the index files
+     * @param siteId
+     * @return the latest snapshot of every archived product of the site
+     * @throws IOException
+     */
+    public Collection<Entry> latestBySite(Long siteId) throws IOException {
+        Map<Long, Entry> latest = new HashMap<>();
+        for (File segment : segments()) {
+            File index = indexOf(segment);
+            if (!index.exists()) continue;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(index), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(",");
+                    //A line cut short by a crash
+                    if (fields.length < 4) continue;
+                    Long site = Long.parseLong(fields[1]);
+                    if (!site.equals(siteId)) continue;
+                    Entry entry = new Entry(segment, Long.parseLong(fields[3]), Long.parseLong(fields[0]), site, Long.parseLong(fields[2]));
+                    Entry current = latest.get(entry.productId);
+                    if (current == null || current.fetchedAt <= entry.fetchedAt) {
+                        latest.put(entry.productId, entry);
+                    }
+                }
+            }
+        }
+        return latest.values();
+    }
+
+    /**
+     * Reads a snapshot, can be called from any number of threads
+     * @param entry
+     * @return
+     * @throws IOException
+     */
+    public PageSnapshot read(Entry entry) throws IOException {
+        try (FileInputStream file = new FileInputStream(entry.segment)) {
+            file.getChannel().position(entry.offset);
+            DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(file)));
+            int version = in.readByte();
+            if (version != VERSION) {
+                throw new IOException("Unknown snapshot version " + version + " in " + entry.segment);
+            }
+            Long productId = in.readLong();
+            Long siteId = in.readLong();
+            long fetchedAt = in.readLong();
+            PageSnapshot.Kind kind = PageSnapshot.Kind.values()[in.readByte()];
+            String url = in.readUTF();
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            return new PageSnapshot(productId, siteId, fetchedAt, url, kind, new String(content, StandardCharsets.UTF_8));
+        }
+    }
+
+    private void append(PageSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(member))) {
+            byte[] content = snapshot.getContent().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(VERSION);
+            out.writeLong(snapshot.getProductId());
+            out.writeLong(snapshot.getSiteId());
+            out.writeLong(snapshot.getFetchedAt());
+            out.writeByte(snapshot.getKind().ordinal());
+            out.writeUTF(snapshot.getUrl());
+            out.writeInt(content.length);
+            out.write(content);
+        }
+        if (segmentOut == null || segmentOut.getChannel().position() + member.size() > maxSegmentBytes) {
+            openNextSegment();
+        }
+        long offset = segmentOut.getChannel().position();
+        member.writeTo(segmentOut);
+        segmentOut.flush();
+        //The index line is written last, a snapshot is only visible once it is complete
+        indexOut.write(snapshot.getProductId() + "," + snapshot.getSiteId() + "," + snapshot.getFetchedAt() + "," + offset + "\n");
+        indexOut.flush();
+    }
+
+    private void openNextSegment() throws IOException {
+        closeSegment();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create archive directory " + dir);
+        }
+        if (segmentNumber == 0) {
+            for (File segment : segments()) {
+                segmentNumber = Math.max(segmentNumber, numberOf(segment));
+            }
+        }
+        segmentNumber++;
+        File segment = new File(dir, String.format(SEGMENT_PREFIX + "%06d.gz", segmentNumber));
+        segmentOut = new FileOutputStream(segment, true);
+        indexOut = new OutputStreamWriter(new FileOutputStream(indexOf(segment), true), StandardCharsets.UTF_8);
+        Logger.info("Archiving pages to " + segment);
+    }
+
+    private void closeSegment() {
+        try {
+            if (segmentOut != null) segmentOut.close();
+            if (indexOut != null) indexOut.close();
+        } catch (IOException e) {
+            Logger.error("Could not close archive segment: " + e.getMessage());
+        }
+        segmentOut = null;
+        indexOut = null;
+    }
+
+    private List<File> segments() {
+        File[] files = dir.listFiles((parent, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(".gz"));
+        List<File> segments = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        segments.sort(Comparator.comparing(File::getName));
+        return segments;
+    }
+
+    private static File indexOf(File segment) {
+        return new File(segment.getParentFile(), segment.getName().replace(".gz", ".idx"));
+    }
+
+    private static int numberOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - ".gz".length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package services.archive;
+
+/**
+ * A page, or only its price region, as it was fetched for a product
+ */
+public class PageSnapshot {
+    public enum Kind {
+        REGION, PAGE
+    }
+
+    private final Long productId;
+    private final Long siteId;
+    private final long fetchedAt;
+    private final String url;
+    private final Kind kind;
+    private final String content;
+
+    public PageSnapshot(Long productId, Long siteId, long fetchedAt, String url, Kind kind, String content) {
+        this.productId = productId;
+        this.siteId = siteId;
+        this.fetchedAt = fetchedAt;
+        this.url = url;
+        this.kind = kind;
+        this.content = content;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public Long getSiteId() {
+        return siteId;
+    }
+
+    public long getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getContent() {
+        return content;
+    }
+}
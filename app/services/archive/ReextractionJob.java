@@ -0,0 +1,108 @@
+package services.archive;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a re-extraction run, serialized as is by the job endpoint
+ */
+public class ReextractionJob {
+    private final Long id;
+    private final Long siteId;
+    private final boolean apply;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt = 0;
+    private volatile int snapshots = 0;
+    private volatile String error;
+    private final AtomicInteger processed = new AtomicInteger();
+    private final AtomicInteger extracted = new AtomicInteger();
+    private final AtomicInteger noPrice = new AtomicInteger();
+    private final AtomicInteger unreadable = new AtomicInteger();
+    private final AtomicInteger stored = new AtomicInteger();
+
+    ReextractionJob(Long id, Long siteId, boolean apply) {
+        this.id = id;
+        this.siteId = siteId;
+        this.apply = apply;
+    }
+
+    void setSnapshots(int snapshots) {
+        this.snapshots = snapshots;
+    }
+
+    void extracted() {
+        processed.incrementAndGet();
+        extracted.incrementAndGet();
+    }
+
+    void noPrice() {
+        processed.incrementAndGet();
+        noPrice.incrementAndGet();
+    }
+
+    void unreadable() {
+        processed.incrementAndGet();
+        unreadable.incrementAndGet();
+    }
+
+    void stored(int count) {
+        stored.addAndGet(count);
+    }
+
+    void finished(String error) {
+        this.error = error;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getSiteId() {
+        return siteId;
+    }
+
+    public boolean isApply() {
+        return apply;
+    }
+
+    public String getStatus() {
+        return finishedAt == 0 ? "running" : error == null ? "finished" : "failed";
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Date getStartedAt() {
+        return new Date(startedAt);
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt == 0 ? null : new Date(finishedAt);
+    }
+
+    public int getSnapshots() {
+        return snapshots;
+    }
+
+    public int getProcessed() {
+        return processed.get();
+    }
+
+    public int getExtracted() {
+        return extracted.get();
+    }
+
+    public int getNoPrice() {
+        return noPrice.get();
+    }
+
+    public int getUnreadable() {
+        return unreadable.get();
+    }
+
+    public int getStored() {
+        return stored.get();
+    }
+}
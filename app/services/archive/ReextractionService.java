@@ -0,0 +1,190 @@
+package services.archive;
+
+import models.Price;
+import models.Product;
+import models.Site;
+import models.dao.KeywordDAO;
+import models.dao.ProductDAO;
+import models.dao.SiteDAO;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import services.currency.CurrencyRateService;
+import services.extraction.ExtractedPrice;
+import services.extraction.PriceExtractor;
+import services.extraction.SiteExtractionRules;
+import services.extraction.StreamingPriceScanner;
+import services.search.SearchCache;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the current rules of a site over its archived pages, without any network access.
+ *
+ * The latest snapshot of every product of the site is read and extracted in parallel on all cores. With apply, the
+ * prices found are stored with the fetch time of their snapshot, unless the product already got a price from a later
+ * fetch.
+ *
+ * The last crawler.jobs.keep jobs are kept for their status, like indexing jobs.
+ */
+@Singleton
+public class ReextractionService {
+    private static final int APPLY_BATCH = 200;
+
+    private final PageArchive archive;
+    private final JPAApi jpaApi;
+    private final CurrencyRateService currencyRates;
+    private final SearchCache searchCache;
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, ReextractionJob> jobs;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor();
+
+    @Inject
+    public ReextractionService(PageArchive archive, JPAApi jpaApi, CurrencyRateService currencyRates, SearchCache searchCache,
+                               Configuration configuration, ApplicationLifecycle lifecycle) {
+        this.archive = archive;
+        this.jpaApi = jpaApi;
+        this.currencyRates = currencyRates;
+        this.searchCache = searchCache;
+        int keep = configuration.getInt("crawler.jobs.keep", 1000);
+        this.jobs = new LinkedHashMap<Long, ReextractionJob>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ReextractionJob> eldest) {
+                return size() > keep;
+            }
+        };
+        //Waiting runs are dropped, the running one is interrupted
+        lifecycle.addStopHook(() -> CompletableFuture.runAsync(() -> {
+            runner.shutdownNow();
+            try {
+                runner.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+    }
+
+    /**
+     * Starts a re-extraction of a site, runs are executed one after the other
+     * @param siteId
+     * @param apply store the prices found
+     * @return the job
+     */
+    public ReextractionJob start(Long siteId, boolean apply) {
+        ReextractionJob job = new ReextractionJob(ids.incrementAndGet(), siteId, apply);
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+        runner.execute(() -> {
+            try {
+                run(job);
+                job.finished(null);
+                Logger.info("Re-extraction " + job.getId() + " of site " + siteId + " finished: " + job.getExtracted() + " price(s) found in "
+                        + job.getSnapshots() + " snapshot(s)");
+            } catch (Exception e) {
+                Logger.error("Re-extraction " + job.getId() + " of site " + siteId + " failed: " + e.getMessage());
+                job.finished(e.getMessage());
+            }
+        });
+        return job;
+    }
+
+    /**
+     * @param id
+     * @return the job or null if it is unknown or too old
+     */
+    public ReextractionJob get(Long id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    private void run(ReextractionJob job) throws Exception {
+        Site site = jpaApi.withTransaction(() -> new SiteDAO().get(job.getSiteId()));
+        if (site == null) {
+            throw new IllegalArgumentException("Site " + job.getSiteId() + " doesn't exist");
+        }
+        SiteExtractionRules rules = SiteExtractionRules.compile(site);
+        List<PageArchive.Entry> entries = new ArrayList<>(archive.latestBySite(job.getSiteId()));
+        job.setSnapshots(entries.size());
+
+        Map<PageSnapshot, ExtractedPrice> found = new ConcurrentHashMap<>();
+        ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        try {
+            pool.submit(() -> entries.parallelStream().forEach(entry -> {
+                PageSnapshot snapshot;
+                try {
+                    snapshot = archive.read(entry);
+                } catch (IOException e) {
+                    job.unreadable();
+                    return;
+                }
+                //Whole pages are scanned the way indexing does, see ProductService
+                ExtractedPrice price = snapshot.getKind() == PageSnapshot.Kind.PAGE
+                        ? StreamingPriceScanner.scan(snapshot.getContent(), rules).result()
+                        : PriceExtractor.extract(snapshot.getContent(), rules);
+                if (price == null) {
+                    job.noPrice();
+                } else {
+                    found.put(snapshot, price);
+                    job.extracted();
+                }
+            })).get();
+        } finally {
+            pool.shutdown();
+        }
+
+        if (job.isApply()) {
+            apply(job, found);
+        }
+    }
+
+    private void apply(ReextractionJob job, Map<PageSnapshot, ExtractedPrice> found) throws Exception {
+        List<Map.Entry<PageSnapshot, ExtractedPrice>> prices = new ArrayList<>(found.entrySet());
+        for (int i = 0; i < prices.size(); i += APPLY_BATCH) {
+            List<Map.Entry<PageSnapshot, ExtractedPrice>> batch = prices.subList(i, Math.min(prices.size(), i + APPLY_BATCH));
+            //Rates are resolved before the transaction, it's the only part that may wait
+            Map<Long, Float> converted = new HashMap<>();
+            for (Map.Entry<PageSnapshot, ExtractedPrice> price : batch) {
+                try {
+                    converted.put(price.getKey().getProductId(), currencyRates
+                            .convert(price.getValue().getValue(), price.getValue().getCurrency(), "EUR")
+                            .toCompletableFuture().get());
+                } catch (ExecutionException e) {
+                    Logger.info("Conversion exception: " + e.getCause().getMessage());
+                }
+            }
+            int stored = jpaApi.withTransaction(() -> {
+                ProductDAO productDAO = new ProductDAO(searchCache);
+                List<Long> updated = new ArrayList<>();
+                for (Map.Entry<PageSnapshot, ExtractedPrice> price : batch) {
+                    Float value = converted.get(price.getKey().getProductId());
+                    Product product = productDAO.get(price.getKey().getProductId());
+                    Date fetchedAt = new Date(price.getKey().getFetchedAt());
+                    if (value == null || product == null || product.getPrice() != null && !product.getPrice().getInputDate().before(fetchedAt)) {
+                        continue;
+                    }
+                    Price newPrice = new Price();
+                    newPrice.setInputDate(fetchedAt);
+                    newPrice.setProduct(product);
+                    newPrice.setValue(value);
+                    product.setPrice(newPrice);
+                    productDAO.update(product);
+                    updated.add(product.getId());
+                }
+                //The index of the keywords holds the current price
+                new KeywordDAO(searchCache).reindex(updated);
+                return updated.size();
+            });
+            job.stored(stored);
+        }
+    }
+}
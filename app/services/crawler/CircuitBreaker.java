@@ -0,0 +1,80 @@
+package services.crawler;
+
+/**
+ * Circuit breaker of a single site.
+ *
+ * Closed while the site answers. After failureThreshold consecutive failures it opens and nothing is sent to the site
+ * for openMillis. Then it is half-open: a single probe request is let through, its success closes the breaker and its
+ * failure opens it again. Times are passed in by the caller, in milliseconds.
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int failures = 0;
+    private long openUntil = 0;
+    private boolean probing = false;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * @param now
+     * @return 0 if a request may be sent, otherwise the milliseconds until the breaker may let one through, or
+     * Long.MAX_VALUE while a probe is running
+     */
+    public synchronized long blockedFor(long now) {
+        if (state == State.OPEN) {
+            if (now < openUntil) {
+                return openUntil - now;
+            }
+            state = State.HALF_OPEN;
+        }
+        if (state == State.HALF_OPEN && probing) {
+            return Long.MAX_VALUE;
+        }
+        return 0;
+    }
+
+    /**
+     * Records that a request is sent, in half-open state it is the probe
+     */
+    public synchronized void onDispatch() {
+        if (state == State.HALF_OPEN) {
+            probing = true;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        failures = 0;
+        probing = false;
+    }
+
+    public synchronized void onFailure(long now) {
+        failures++;
+        if (state == State.HALF_OPEN || failures >= failureThreshold) {
+            state = State.OPEN;
+            openUntil = now + openMillis;
+        }
+        probing = false;
+    }
+
+    /**
+     * The dispatched request ended without reaching the site, a half-open breaker lets the next one probe
+     */
+    public synchronized void onSkipped() {
+        probing = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+}
@@ -0,0 +1,103 @@
+package services.crawler;
+
+import models.Price;
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Learns how often each product should be indexed again from how often its price moves.
+ *
+ * The interval of a product is halved every time a new price differs from the previous one and doubled every time it
+ * doesn't, always staying within crawler.interval.min and crawler.interval.max. Products without an interval yet start
+ * from their price history: half the average time between two price changes, so a change is usually seen twice.
+ * Differences below crawler.interval.changeThreshold(relative) don't count as changes, prices converted from other
+ * currencies move a little with the exchange rate alone.
+ */
+@Singleton
+public class CrawlIntervalPolicy {
+    private final long minMillis;
+    private final long maxMillis;
+    private final long initialMillis;
+    private final double changeThreshold;
+
+    @Inject
+    public CrawlIntervalPolicy(Configuration configuration) {
+        this(configuration.getMilliseconds("crawler.interval.min", 21600000L),
+                configuration.getMilliseconds("crawler.interval.max", 2592000000L),
+                configuration.getMilliseconds("crawler.interval.initial", TimeUnit.DAYS.toMillis(configuration.getInt("productMinUpdateTime", 7))),
+                configuration.getDouble("crawler.interval.changeThreshold", 0.01));
+    }
+
+    public CrawlIntervalPolicy(long minMillis, long maxMillis, long initialMillis, double changeThreshold) {
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.initialMillis = initialMillis;
+        this.changeThreshold = changeThreshold;
+    }
+
+    /**
+     * First interval of a product, learned from its recent prices
+     * @param prices in any order
+     * @return interval in milliseconds
+     */
+    public long fromHistory(List<Price> prices) {
+        if (prices == null || prices.size() < 2) {
+            return clamp(initialMillis);
+        }
+        List<Price> sorted = new ArrayList<>(prices);
+        sorted.sort(Comparator.comparing(Price::getInputDate));
+        int changes = 0;
+        for (int i = 1; i < sorted.size(); i++) {
+            if (isChange(sorted.get(i - 1).getValue(), sorted.get(i).getValue())) changes++;
+        }
+        long span = sorted.get(sorted.size() - 1).getInputDate().getTime() - sorted.get(0).getInputDate().getTime();
+        if (changes == 0) {
+            //Stable for the whole span, back off as if it had been seen unchanged all along
+            return clamp(Math.max(span, initialMillis));
+        }
+        return clamp(span / changes / 2);
+    }
+
+    /**
+     * Interval after an index run that found a price
+     * @param current interval of the product, null if it has none yet
+     * @param changed true if the price moved since the last run
+     * @return interval in milliseconds
+     */
+    public long next(Long current, boolean changed) {
+        if (current == null) {
+            return clamp(initialMillis);
+        }
+        return clamp(changed ? current / 2 : current * 2);
+    }
+
+    /**
+     * @param previous null if the product had no price
+     * @param current
+     * @return true if the price differs by more than the change threshold
+     */
+    public boolean isChange(Float previous, Float current) {
+        if (previous == null || current == null) {
+            return previous != current;
+        }
+        return Math.abs(current - previous) > Math.abs(previous) * changeThreshold;
+    }
+
+    public long getMinMillis() {
+        return minMillis;
+    }
+
+    public long getMaxMillis() {
+        return maxMillis;
+    }
+
+    private long clamp(long interval) {
+        return Math.max(minMillis, Math.min(maxMillis, interval));
+    }
+}
@@ -0,0 +1,150 @@
+package services.crawler;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.dao.CrawlLeaseDAO;
+import play.Configuration;
+import play.Logger;
+import play.db.Database;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.duration.Duration;
+import services.IndexOutcome;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crawl leases held by this node.
+ *
+ * Products are only indexed by the node holding their lease (see {@link CrawlLeaseDAO}), and only once on that node:
+ * a product already held by the refresh scheduler isn't claimed again by an indexing job, or the other way round. Leases last
+ * crawler.lease.duration and are renewed every crawler.lease.renewInterval for as long as the product is queued or
+ * being indexed, so a node that dies loses them within one lease duration and other nodes take its products over.
+ * Finished products are released right away; those that didn't get a new next due date from their index run are
+ * pushed back by crawler.refresh.retryDelay.
+ */
+@Singleton
+public class CrawlLeases {
+    private final CrawlLeaseDAO leaseDAO;
+    private final String owner;
+    private final long leaseMillis;
+    private final long retryDelayMillis;
+    private final ExecutionContext dbContext;
+    private final Set<Long> held = ConcurrentHashMap.newKeySet();
+    private Cancellable renewals;
+
+    @Inject
+    public CrawlLeases(Database db, ActorSystem actorSystem, Configuration configuration, ApplicationLifecycle lifecycle) {
+        this.leaseDAO = new CrawlLeaseDAO(db);
+        this.owner = configuration.getString("crawler.nodeId", UUID.randomUUID().toString());
+        this.leaseMillis = configuration.getMilliseconds("crawler.lease.duration", 120000L);
+        this.retryDelayMillis = configuration.getMilliseconds("crawler.refresh.retryDelay", 3600000L);
+        this.dbContext = actorSystem.dispatchers().lookup("akka.actor.db-context");
+
+        long renewInterval = configuration.getMilliseconds("crawler.lease.renewInterval", 30000L);
+        renewals = actorSystem.scheduler().schedule(
+                Duration.create(renewInterval, TimeUnit.MILLISECONDS),
+                Duration.create(renewInterval, TimeUnit.MILLISECONDS),
+                this::renew, dbContext);
+        lifecycle.addStopHook(() -> {
+            renewals.cancel();
+            //Let the other nodes have our products right away
+            return CompletableFuture.runAsync(() -> leaseDAO.release(owner, new ArrayList<>(held), null), dbContext::execute);
+        });
+    }
+
+    /**
+     * Leases the products due before horizon, blocking
+     * @param horizon
+     * @param limit
+     * @return rows of [product id, site id, next due, link address], in due order
+     */
+    public List<Object[]> claimDue(Date horizon, int limit) {
+        List<Object[]> leased = new ArrayList<>();
+        for (Object[] row : leaseDAO.claimDue(owner, horizon, limit, leaseMillis)) {
+            if (held.add((Long) row[0])) leased.add(row);
+        }
+        return leased;
+    }
+
+    /**
+     * Leases the given products, blocking
+     * @param productIds
+     * @return the ids that were leased, the others are held by other nodes or already being indexed by this one
+     */
+    public List<Long> claim(Collection<Long> productIds) {
+        List<Long> free = new ArrayList<>();
+        for (Long productId : productIds) {
+            if (!held.contains(productId)) free.add(productId);
+        }
+        List<Long> leased = new ArrayList<>();
+        for (Long productId : leaseDAO.claim(owner, free, leaseMillis)) {
+            //Taken meanwhile by a claim of this node, e.g. the refresh scheduler
+            if (held.add(productId)) leased.add(productId);
+        }
+        return leased;
+    }
+
+    /**
+     * Releases the lease of a product whose indexing is over
+     * @param productId
+     * @param outcome
+     */
+    public void finished(Long productId, IndexOutcome outcome) {
+        //Updated, unchanged and up to date runs set the next due date themselves
+        release(productId, outcome == IndexOutcome.UPDATED || outcome == IndexOutcome.UNCHANGED || outcome == IndexOutcome.UP_TO_DATE
+                ? null : new Date(System.currentTimeMillis() + retryDelayMillis));
+    }
+
+    /**
+     * Releases the lease of a product that won't be indexed by this node after all
+     * @param productId
+     */
+    public void release(Long productId) {
+        release(productId, null);
+    }
+
+    private void release(Long productId, Date nextDue) {
+        if (!held.remove(productId)) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>();
+        ids.add(productId);
+        dbContext.execute(() -> {
+            try {
+                leaseDAO.release(owner, ids, nextDue);
+            } catch (Exception e) {
+                Logger.error("Could not release the crawl lease of product " + productId + ": " + e.getMessage());
+            }
+        });
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    private void renew() {
+        if (held.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(held);
+        try {
+            int renewed = leaseDAO.renew(owner, ids, leaseMillis);
+            if (renewed < ids.size()) {
+                Logger.warn("Lost " + (ids.size() - renewed) + " crawl lease(s), other nodes may index them too");
+            }
+        } catch (Exception e) {
+            Logger.error("Could not renew crawl leases: " + e.getMessage());
+        }
+    }
+}
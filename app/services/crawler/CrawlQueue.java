@@ -0,0 +1,121 @@
+package services.crawler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Bounded work queue that hands out tasks round-robin across sites.
+ *
+ * Every site gets its own FIFO queue and sites with pending work take turns, so one large site cannot starve the
+ * others. A task is only handed out while both the global and the per-site in-flight caps have room and its site is
+ * ready to be crawled; callers must report finished tasks through {@link #complete(Long)} to free the slot.
+ */
+public class CrawlQueue<T> {
+    private final int capacity;
+    private final int maxInFlight;
+    private final int maxInFlightPerSite;
+
+    private final Map<Long, Deque<T>> pending = new HashMap<>();
+    private final Deque<Long> rotation = new ArrayDeque<>();
+    private final Map<Long, Integer> inFlightPerSite = new HashMap<>();
+    private int size = 0;
+    private int inFlight = 0;
+
+    public CrawlQueue(int capacity, int maxInFlight, int maxInFlightPerSite) {
+        this.capacity = capacity;
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerSite = maxInFlightPerSite;
+    }
+
+    /**
+     * Adds a task to the queue of its site
+     * @param siteId
+     * @param task
+     * @return false if the queue is full and the task was rejected
+     */
+    public synchronized boolean offer(Long siteId, T task) {
+        if (size >= capacity) {
+            return false;
+        }
+        Deque<T> siteQueue = pending.get(siteId);
+        if (siteQueue == null) {
+            siteQueue = new ArrayDeque<>();
+            pending.put(siteId, siteQueue);
+            rotation.addLast(siteId);
+        }
+        siteQueue.addLast(task);
+        size++;
+        return true;
+    }
+
+    /**
+     * Takes the next task that is allowed to run right now and marks it as in flight
+     * @return the task or null if nothing can run until a slot is freed
+     */
+    public T poll() {
+        return poll(siteId -> true);
+    }
+
+    /**
+     * Takes the next task that is allowed to run right now and whose site is ready, then marks it as in flight
+     * @param ready asked only for sites with room under the caps, a task of the site is handed out if it returns true
+     * @return the task or null if nothing can run until a slot is freed or a site becomes ready
+     */
+    public synchronized T poll(Predicate<Long> ready) {
+        if (inFlight >= maxInFlight) {
+            return null;
+        }
+        //Visit every site with pending work at most once, starting with the one that waited the longest
+        for (int i = rotation.size(); i > 0; i--) {
+            Long siteId = rotation.pollFirst();
+            if (inFlightPerSite.getOrDefault(siteId, 0) >= maxInFlightPerSite || !ready.test(siteId)) {
+                rotation.addLast(siteId);
+                continue;
+            }
+            Deque<T> siteQueue = pending.get(siteId);
+            T task = siteQueue.pollFirst();
+            size--;
+            if (siteQueue.isEmpty()) {
+                pending.remove(siteId);
+            } else {
+                rotation.addLast(siteId);
+            }
+            inFlightPerSite.merge(siteId, 1, Integer::sum);
+            inFlight++;
+            return task;
+        }
+        return null;
+    }
+
+    /**
+     * Frees the in-flight slot held by a task of the given site
+     * @param siteId
+     */
+    public synchronized void complete(Long siteId) {
+        Integer running = inFlightPerSite.get(siteId);
+        if (running == null) {
+            return;
+        }
+        if (running <= 1) {
+            inFlightPerSite.remove(siteId);
+        } else {
+            inFlightPerSite.put(siteId, running - 1);
+        }
+        inFlight--;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized int inFlight() {
+        return inFlight;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,254 @@
+package services.crawler;
+
+import akka.actor.ActorSystem;
+import play.Configuration;
+import play.Logger;
+import scala.concurrent.duration.Duration;
+import services.IndexOutcome;
+import services.IndexResult;
+import services.ProductService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs product indexing through a bounded {@link CrawlQueue}.
+ *
+ * Submissions are rejected once the queue is full (backpressure for the caller), at most crawler.maxInFlight products
+ * are indexed at the same time and at most crawler.maxInFlightPerSite of them belong to the same site. Since pages are
+ * fetched without blocking, the in-flight caps bound open requests rather than threads.
+ *
+ * Tasks of a site are also only started while the {@link HostRateLimiter} has a token for it; the token itself is only
+ * taken by {@link ProductService} right before the page is requested. When every waiting site is out of tokens the
+ * next dispatch is scheduled for when the first of them gets one.
+ *
+ * Products whose retailer couldn't be reached are queued again up to crawler.retry.maxAttempts times, after an
+ * exponential backoff with jitter. Every site has a {@link CircuitBreaker}: once it opened the products of the site stay
+ * queued, leaving the workers to healthy sites, until a single probe shows that the site answers again.
+ *
+ * The crawl lease of a product(see {@link CrawlLeases}) is released once its last attempt finished, failures of the last
+ * attempt go to the {@link DeadLetterStore}.
+ *
+ * A task submitted while another one for the same page(same normalized URL, site, job and attempt) is still queued is
+ * merged into it, so the page is fetched once and its price stored for every product pointing at it.
+ */
+@Singleton
+public class CrawlScheduler {
+    private final CrawlQueue<CrawlTask> queue;
+    private final ProductService productService;
+    private final HostRateLimiter rateLimiter;
+    private final IndexingJobs jobs;
+    private final CrawlLeases leases;
+    private final DeadLetterStore deadLetters;
+    private final ActorSystem actorSystem;
+    private final int maxAttempts;
+    private final long retryBaseMillis;
+    private final long retryMaxMillis;
+    private final int failureThreshold;
+    private final long openMillis;
+    private final Map<Long, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    //Queued tasks by page URL, guarded by itself
+    private final Map<String, CrawlTask> queuedByUrl = new HashMap<>();
+    //When the next dispatch is scheduled to run, 0 if none is
+    private long scheduledDispatch = 0;
+
+    @Inject
+    public CrawlScheduler(ProductService productService, HostRateLimiter rateLimiter, IndexingJobs jobs,
+                          CrawlLeases leases, DeadLetterStore deadLetters, ActorSystem actorSystem, Configuration configuration) {
+        this.productService = productService;
+        this.rateLimiter = rateLimiter;
+        this.jobs = jobs;
+        this.leases = leases;
+        this.deadLetters = deadLetters;
+        this.actorSystem = actorSystem;
+        this.queue = new CrawlQueue<>(
+                configuration.getInt("crawler.queueCapacity", 50000),
+                configuration.getInt("crawler.maxInFlight", 256),
+                configuration.getInt("crawler.maxInFlightPerSite", 8));
+        this.maxAttempts = configuration.getInt("crawler.retry.maxAttempts", 3);
+        this.retryBaseMillis = configuration.getMilliseconds("crawler.retry.baseDelay", 5000L);
+        this.retryMaxMillis = configuration.getMilliseconds("crawler.retry.maxDelay", 300000L);
+        this.failureThreshold = configuration.getInt("crawler.circuitBreaker.failureThreshold", 5);
+        this.openMillis = configuration.getMilliseconds("crawler.circuitBreaker.openDuration", 120000L);
+    }
+
+    /**
+     * Queues a product for indexing, merging it with a queued task for the same page if there is one
+     * @param task
+     * @return false if the queue is full and the task was not accepted
+     */
+    public boolean submit(CrawlTask task) {
+        if (task.getUrl() == null) {
+            if (!queue.offer(task.getSiteId(), task)) {
+                return false;
+            }
+        } else {
+            synchronized (queuedByUrl) {
+                CrawlTask queued = queuedByUrl.get(task.getUrl());
+                if (queued != null && queued.canMerge(task)) {
+                    queued.merge(task);
+                    return true;
+                }
+                if (!queue.offer(task.getSiteId(), task)) {
+                    return false;
+                }
+                if (queued == null) queuedByUrl.put(task.getUrl(), task);
+            }
+        }
+        dispatch();
+        return true;
+    }
+
+    public int queued() {
+        return queue.size();
+    }
+
+    public int inFlight() {
+        return queue.inFlight();
+    }
+
+    /**
+     * Starts as many queued tasks as the concurrency caps allow
+     */
+    private void dispatch() {
+        long[] wait = {Long.MAX_VALUE};
+        CrawlTask task;
+        while ((task = queue.poll(siteId -> {
+            CircuitBreaker breaker = breaker(siteId);
+            long millis = breaker.blockedFor(System.currentTimeMillis());
+            if (millis == 0) millis = rateLimiter.available(siteId);
+            if (millis > 0) {
+                wait[0] = Math.min(wait[0], millis);
+                return false;
+            }
+            breaker.onDispatch();
+            return true;
+        })) != null) {
+            run(task);
+        }
+        if (wait[0] != Long.MAX_VALUE) {
+            scheduleDispatch(wait[0]);
+        }
+    }
+
+    /**
+     * Makes sure a dispatch runs in delay milliseconds at the latest
+     * @param delay
+     */
+    private synchronized void scheduleDispatch(long delay) {
+        long at = System.currentTimeMillis() + delay;
+        if (scheduledDispatch != 0 && scheduledDispatch <= at) {
+            return;
+        }
+        scheduledDispatch = at;
+        actorSystem.scheduler().scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), () -> {
+            synchronized (this) {
+                if (scheduledDispatch == at) scheduledDispatch = 0;
+            }
+            dispatch();
+        }, actorSystem.dispatcher());
+    }
+
+    private void run(CrawlTask task) {
+        //Nothing can be merged into the task once it left the queue
+        if (task.getUrl() != null) {
+            synchronized (queuedByUrl) {
+                queuedByUrl.remove(task.getUrl(), task);
+            }
+        }
+        List<Long> productIds = new ArrayList<>(task.getProductIds());
+        IndexingJob job = jobs.get(task.getJobId());
+        if (job != null) productIds.forEach(productId -> job.started());
+        productService.indexProducts(productIds)
+                .whenComplete((results, error) -> {
+                    if (error != null) {
+                        Logger.error("Unexpected error while indexing product(s) " + productIds + ": " + error.getMessage());
+                        results = new ArrayList<>();
+                        for (Long productId : productIds) {
+                            results.add(new IndexResult(productId, IndexOutcome.FAILED, 0, 0, 0));
+                        }
+                    }
+                    record(task, results);
+                    queue.complete(task.getSiteId());
+                    dispatch();
+                });
+    }
+
+    /**
+     * Updates the breaker of the site and the job of the task, schedules a retry of the products whose page couldn't
+     * be reached
+     * @param task
+     * @param results one per product of the task
+     */
+    private void record(CrawlTask task, List<IndexResult> results) {
+        IndexingJob job = jobs.get(task.getJobId());
+        CircuitBreaker breaker = breaker(task.getSiteId());
+        List<Long> unreachable = new ArrayList<>();
+        boolean answered = false;
+        for (IndexResult result : results) {
+            IndexOutcome outcome = result.getOutcome();
+            if (outcome == IndexOutcome.UNREACHABLE) {
+                unreachable.add(result.getProductId());
+            } else if (outcome == IndexOutcome.UPDATED || outcome == IndexOutcome.UNCHANGED || outcome == IndexOutcome.FAILED) {
+                //The site answered, even if the page couldn't be used
+                answered = true;
+            }
+        }
+        if (!unreachable.isEmpty()) {
+            breaker.onFailure(System.currentTimeMillis());
+            if (breaker.getState() == CircuitBreaker.State.OPEN) {
+                Logger.warn("Site " + task.getSiteId() + " is failing, pausing it for " + openMillis + "ms");
+            }
+        } else if (answered) {
+            breaker.onSuccess();
+        } else {
+            breaker.onSkipped();
+        }
+        boolean retrying = !unreachable.isEmpty() && task.getAttempt() + 1 < maxAttempts;
+        if (retrying) {
+            retry(task.retry(unreachable));
+        } else if (!unreachable.isEmpty()) {
+            Logger.info("Giving up on product(s) " + unreachable + " after " + maxAttempts + " attempt(s)");
+        }
+        for (IndexResult result : results) {
+            if (retrying && result.getOutcome() == IndexOutcome.UNREACHABLE) {
+                if (job != null) job.retrying();
+                continue;
+            }
+            leases.finished(result.getProductId(), result.getOutcome());
+            deadLetters.finished(task.getSiteId(), result);
+            if (job != null) job.finished(result);
+        }
+    }
+
+    /**
+     * Queues the task again after min(maxDelay, baseDelay * 2^attempt), half of it being random so retries of a site
+     * that failed at once don't come back together
+     * @param task
+     */
+    private void retry(CrawlTask task) {
+        long backoff = Math.min(retryMaxMillis, retryBaseMillis << Math.min(task.getAttempt() - 1, 20));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        actorSystem.scheduler().scheduleOnce(Duration.create(delay, TimeUnit.MILLISECONDS), () -> {
+            if (!submit(task)) {
+                Logger.warn("Crawl queue full, dropped retry of product(s) " + task.getProductIds());
+                IndexingJob job = jobs.get(task.getJobId());
+                for (Long productId : task.getProductIds()) {
+                    leases.finished(productId, IndexOutcome.UNREACHABLE);
+                    if (job != null) job.dropped();
+                }
+            }
+        }, actorSystem.dispatcher());
+    }
+
+    private CircuitBreaker breaker(Long siteId) {
+        return breakers.computeIfAbsent(siteId, id -> new CircuitBreaker(failureThreshold, openMillis));
+    }
+}
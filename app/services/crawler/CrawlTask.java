@@ -0,0 +1,102 @@
+package services.crawler;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A single unit of crawl work: one page of a site and the products pointing at it.
+ *
+ * Tasks of the same site, job and attempt whose pages have the same normalized URL(see utils.URLFixer#normalize) are
+ * merged by the {@link CrawlScheduler} while queued, so the page is fetched once for all of their products.
+ */
+public class CrawlTask {
+    private final Long siteId;
+    private final List<Long> productIds;
+    //Normalized URL of the page, null if unknown, tasks without one are never merged
+    private final String url;
+    //Indexing job the task belongs to, null for background refreshes
+    private final Long jobId;
+    //Number of earlier runs of this task that failed with a transient error
+    private final int attempt;
+
+    public CrawlTask(Long siteId, Long productId) {
+        this(siteId, productId, null);
+    }
+
+    public CrawlTask(Long siteId, Long productId, Long jobId) {
+        this(siteId, productId, jobId, null);
+    }
+
+    public CrawlTask(Long siteId, Long productId, Long jobId, String url) {
+        this(siteId, Collections.singletonList(productId), url, jobId, 0);
+    }
+
+    private CrawlTask(Long siteId, Collection<Long> productIds, String url, Long jobId, int attempt) {
+        this.siteId = siteId;
+        this.productIds = new ArrayList<>(productIds);
+        this.url = url;
+        this.jobId = jobId;
+        this.attempt = attempt;
+    }
+
+    /**
+     * @param productIds products of this task to try again
+     * @return the task for its next attempt
+     */
+    public CrawlTask retry(Collection<Long> productIds) {
+        return new CrawlTask(siteId, productIds, url, jobId, attempt + 1);
+    }
+
+    /**
+     * @param other
+     * @return true if both tasks fetch the same page and can run as one
+     */
+    boolean canMerge(CrawlTask other) {
+        return url != null && url.equals(other.url) && siteId.equals(other.siteId)
+                && (jobId == null ? other.jobId == null : jobId.equals(other.jobId)) && attempt == other.attempt;
+    }
+
+    /**
+     * Adds the products of other to this task, only while it is queued
+     * @param other
+     */
+    void merge(CrawlTask other) {
+        for (Long productId : other.productIds) {
+            if (!productIds.contains(productId)) productIds.add(productId);
+        }
+    }
+
+    public Long getSiteId() {
+        return siteId;
+    }
+
+    /**
+     * @return the first product of the task
+     */
+    public Long getProductId() {
+        return productIds.get(0);
+    }
+
+    public List<Long> getProductIds() {
+        return Collections.unmodifiableList(productIds);
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    @Override
+    public String toString() {
+        return "CrawlTask(site=" + siteId + ", products=" + productIds + ", attempt=" + attempt + ")";
+    }
+}
@@ -0,0 +1,61 @@
+package services.crawler;
+
+import akka.actor.ActorSystem;
+import models.DeadLetter;
+import models.dao.DeadLetterDAO;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import services.IndexOutcome;
+import services.IndexResult;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.Executor;
+
+/**
+ * Keeps the final result of index runs in the dead letters(see {@link DeadLetter}): failures are counted with their
+ * reason, a success clears the entry of the product. Writes run on the db pool, the crawl pipeline never waits on them.
+ */
+@Singleton
+public class DeadLetterStore {
+    private final JPAApi jpa;
+    private final Executor dbContext;
+    private final int quarantineAfter;
+
+    @Inject
+    public DeadLetterStore(JPAApi jpa, ActorSystem actorSystem, Configuration configuration) {
+        this.jpa = jpa;
+        this.dbContext = actorSystem.dispatchers().lookup("akka.actor.db-context");
+        this.quarantineAfter = configuration.getInt("crawler.deadLetter.quarantineAfter", 3);
+    }
+
+    /**
+     * Records the final result of the index run of a product
+     * @param siteId
+     * @param result
+     */
+    public void finished(Long siteId, IndexResult result) {
+        if (result.getFailure() != null) {
+            dbContext.execute(() -> {
+                try {
+                    DeadLetter deadLetter = jpa.withTransaction(() -> new DeadLetterDAO()
+                            .record(result.getProductId(), siteId, result.getFailure(), result.getError(), quarantineAfter));
+                    if (deadLetter.getQuarantined() && deadLetter.getAttempts() == quarantineAfter) {
+                        Logger.warn("Quarantined product " + result.getProductId() + " after " + quarantineAfter + " failed runs: " + result.getFailure());
+                    }
+                } catch (Exception e) {
+                    Logger.error("Could not record the failure of product " + result.getProductId() + ": " + e.getMessage());
+                }
+            });
+        } else if (result.getOutcome() == IndexOutcome.UPDATED || result.getOutcome() == IndexOutcome.UNCHANGED) {
+            dbContext.execute(() -> {
+                try {
+                    jpa.withTransaction(() -> new DeadLetterDAO().delete(result.getProductId()));
+                } catch (Exception e) {
+                    Logger.error("Could not clear the failures of product " + result.getProductId() + ": " + e.getMessage());
+                }
+            });
+        }
+    }
+}
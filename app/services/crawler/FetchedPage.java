@@ -0,0 +1,55 @@
+package services.crawler;
+
+import services.extraction.StreamingPriceScanner;
+
+/**
+ * Outcome of a page download: either the page was not modified since the validators we sent, or it holds the body
+ * (buffered mode) or the scanner that read it (streaming mode) along with the new validators.
+ */
+public class FetchedPage {
+    private final boolean notModified;
+    private final String body;
+    private final StreamingPriceScanner scanner;
+    private final String etag;
+    private final String lastModified;
+
+    private FetchedPage(boolean notModified, String body, StreamingPriceScanner scanner, String etag, String lastModified) {
+        this.notModified = notModified;
+        this.body = body;
+        this.scanner = scanner;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public static FetchedPage notModified() {
+        return new FetchedPage(true, null, null, null, null);
+    }
+
+    public static FetchedPage buffered(String body, String etag, String lastModified) {
+        return new FetchedPage(false, body, null, etag, lastModified);
+    }
+
+    public static FetchedPage streamed(StreamingPriceScanner scanner, String etag, String lastModified) {
+        return new FetchedPage(false, null, scanner, etag, lastModified);
+    }
+
+    public boolean isNotModified() {
+        return notModified;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public StreamingPriceScanner getScanner() {
+        return scanner;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,98 @@
+package services.crawler;
+
+import akka.actor.ActorSystem;
+import models.Site;
+import play.Configuration;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One {@link TokenBucket} per site: the budget is shared by every page of a site, whatever host(www., m., ...) the
+ * product links point to.
+ *
+ * A token is only taken right before a page is requested, so products that end up not being fetched(up to date,
+ * disallowed by robots.txt) don't use up the budget of their site.
+ *
+ * Sites start with the crawler.politeness defaults until their budget is known, it is then read from the site
+ * (max_requests_per_second, max_burst) and lowered further to the Crawl-delay of its robots.txt if there is one.
+ */
+@Singleton
+public class HostRateLimiter {
+    private final double defaultRate;
+    private final int defaultBurst;
+    private final Map<Long, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final ActorSystem actorSystem;
+
+    @Inject
+    public HostRateLimiter(Configuration configuration, ActorSystem actorSystem) {
+        this.actorSystem = actorSystem;
+        this.defaultRate = configuration.getDouble("crawler.politeness.requestsPerSecond", 2.0);
+        this.defaultBurst = configuration.getInt("crawler.politeness.burst", 4);
+    }
+
+    /**
+     * Takes a request token of a site
+     * @param siteId
+     * @return 0 if a request may be sent right away, otherwise the milliseconds to wait
+     */
+    public long acquire(Long siteId) {
+        return bucket(siteId).tryAcquire(now());
+    }
+
+    /**
+     * Looks whether a site has a request token left, without taking it
+     * @param siteId
+     * @return 0 if a token is available, otherwise the milliseconds until the next one
+     */
+    public long available(Long siteId) {
+        return bucket(siteId).available(now());
+    }
+
+    /**
+     * Waits for a request token of a site and takes it
+     * @param siteId
+     * @return completed once a request may be sent
+     */
+    public CompletionStage<Void> whenAllowed(Long siteId) {
+        long millis = acquire(siteId);
+        if (millis == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> allowed = new CompletableFuture<>();
+        actorSystem.scheduler().scheduleOnce(Duration.create(millis, TimeUnit.MILLISECONDS),
+                () -> whenAllowed(siteId).thenAccept(allowed::complete), actorSystem.dispatcher());
+        return allowed;
+    }
+
+    /**
+     * Applies the budget of a site
+     * @param site
+     * @param crawlDelaySeconds Crawl-delay from robots.txt, may be null
+     */
+    public void configure(Site site, Double crawlDelaySeconds) {
+        double rate = site.getMaxRequestsPerSecond() != null && site.getMaxRequestsPerSecond() > 0
+                ? site.getMaxRequestsPerSecond() : defaultRate;
+        int burst = site.getMaxBurst() != null && site.getMaxBurst() > 0 ? site.getMaxBurst() : defaultBurst;
+        if (crawlDelaySeconds != null && crawlDelaySeconds > 0) {
+            rate = Math.min(rate, 1 / crawlDelaySeconds);
+            //A crawl delay asks for evenly spaced requests
+            burst = 1;
+        }
+        bucket(site.getId()).setRate(rate, burst, now());
+    }
+
+    private TokenBucket bucket(Long siteId) {
+        return buckets.computeIfAbsent(siteId, id -> new TokenBucket(defaultRate, defaultBurst, now()));
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+}
@@ -0,0 +1,214 @@
+package services.crawler;
+
+import play.Logger;
+import services.IndexResult;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An indexing run of a site, serialized as is by the job endpoint.
+ *
+ * Products count as queued from their submission until their last attempt finished; a product being retried goes
+ * back from in flight to queued.
+ */
+public class IndexingJob {
+    private static final int LATENCY_SAMPLES = 4096;
+
+    private final Long id;
+    private final Long siteId;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt = 0;
+    private final AtomicBoolean claimed = new AtomicBoolean(false);
+    private volatile boolean submissionDone = false;
+    //Why submitting the products stopped early, null if all of them were submitted
+    private volatile String error;
+
+    private final AtomicInteger submitted = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+    private final AtomicInteger leasedElsewhere = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger pagesFetched = new AtomicInteger();
+    private final LatencySamples fetchLatency = new LatencySamples(LATENCY_SAMPLES);
+    private final LatencySamples extractLatency = new LatencySamples(LATENCY_SAMPLES);
+
+    IndexingJob(Long id, Long siteId) {
+        this.id = id;
+        this.siteId = siteId;
+    }
+
+    /**
+     * Makes the caller the one submitting the products of the job
+     * @return false if another caller already does, the job should only be reported then
+     */
+    public boolean claim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    public void submitted() {
+        submitted.incrementAndGet();
+    }
+
+    public void rejected() {
+        rejected.incrementAndGet();
+    }
+
+    /**
+     * A product already being indexed, by another node or by the refresh scheduler of this one
+     */
+    public void leasedElsewhere() {
+        leasedElsewhere.incrementAndGet();
+    }
+
+    /**
+     * Submitting the products stopped on an error, the job finishes once the products already submitted are done
+     * @param error
+     */
+    public void submissionFailed(String error) {
+        this.error = error;
+    }
+
+    /**
+     * All products were submitted, the job finishes once they are done
+     */
+    public void submissionDone() {
+        submissionDone = true;
+        checkFinished();
+    }
+
+    void started() {
+        inFlight.incrementAndGet();
+    }
+
+    void retrying() {
+        inFlight.decrementAndGet();
+    }
+
+    /**
+     * A product whose retry couldn't be queued
+     */
+    void dropped() {
+        failed.incrementAndGet();
+        checkFinished();
+    }
+
+    void finished(IndexResult result) {
+        inFlight.decrementAndGet();
+        if (result.isFetched()) {
+            pagesFetched.incrementAndGet();
+            fetchLatency.add(result.getFetchNanos());
+            extractLatency.add(result.getExtractNanos());
+        }
+        switch (result.getOutcome()) {
+            case UPDATED:
+            case UNCHANGED:
+                succeeded.incrementAndGet();
+                break;
+            case UP_TO_DATE:
+            case DISALLOWED:
+                skipped.incrementAndGet();
+                break;
+            default:
+                failed.incrementAndGet();
+        }
+        checkFinished();
+    }
+
+    private synchronized void checkFinished() {
+        if (finishedAt == 0 && submissionDone && getDone() >= submitted.get()) {
+            finishedAt = System.currentTimeMillis();
+            Logger.info("Indexing job " + id + " finished: " + succeeded.get() + " succeeded, " + failed.get() + " failed, "
+                    + skipped.get() + " skipped");
+        }
+    }
+
+    private int getDone() {
+        return succeeded.get() + failed.get() + skipped.get();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getSiteId() {
+        return siteId;
+    }
+
+    public String getStatus() {
+        return error != null ? "failed" : isFinished() ? "finished" : "running";
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    public Date getStartedAt() {
+        return new Date(startedAt);
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt == 0 ? null : new Date(finishedAt);
+    }
+
+    public int getSubmitted() {
+        return submitted.get();
+    }
+
+    public int getRejected() {
+        return rejected.get();
+    }
+
+    public int getLeasedElsewhere() {
+        return leasedElsewhere.get();
+    }
+
+    public int getQueued() {
+        return Math.max(0, submitted.get() - inFlight.get() - getDone());
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getSucceeded() {
+        return succeeded.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public double getPagesPerSecond() {
+        long end = finishedAt == 0 ? System.currentTimeMillis() : finishedAt;
+        double seconds = Math.max(1, end - startedAt) / 1000.0;
+        return pagesFetched.get() / seconds;
+    }
+
+    public long getFetchP50Millis() {
+        return fetchLatency.percentileMillis(50);
+    }
+
+    public long getFetchP99Millis() {
+        return fetchLatency.percentileMillis(99);
+    }
+
+    public long getExtractP50Millis() {
+        return extractLatency.percentileMillis(50);
+    }
+
+    public long getExtractP99Millis() {
+        return extractLatency.percentileMillis(99);
+    }
+}
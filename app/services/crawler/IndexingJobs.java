@@ -0,0 +1,61 @@
+package services.crawler;
+
+import play.Configuration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Indexing jobs of this node, at most one running per site. The last crawler.jobs.keep jobs can be looked up.
+ */
+@Singleton
+public class IndexingJobs {
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, IndexingJob> jobs;
+    private final Map<Long, IndexingJob> running = new ConcurrentHashMap<>();
+
+    @Inject
+    public IndexingJobs(Configuration configuration) {
+        int keep = configuration.getInt("crawler.jobs.keep", 1000);
+        this.jobs = new LinkedHashMap<Long, IndexingJob>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, IndexingJob> eldest) {
+                return size() > keep;
+            }
+        };
+    }
+
+    /**
+     * The running job of a site, a new one if there is none. Only the caller that gets true from
+     * {@link IndexingJob#claim()} should submit its products.
+     * @param siteId
+     * @return
+     */
+    public IndexingJob start(Long siteId) {
+        IndexingJob job = running.compute(siteId, (id, current) ->
+                current != null && !current.isFinished() ? current : new IndexingJob(ids.incrementAndGet(), siteId));
+        synchronized (jobs) {
+            jobs.putIfAbsent(job.getId(), job);
+        }
+        return job;
+    }
+
+    /**
+     * @param id
+     * @return the job or null if it is unknown or too old
+     */
+    public IndexingJob get(Long id) {
+        if (id == null) {
+            return null;
+        }
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+}
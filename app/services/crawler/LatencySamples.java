@@ -0,0 +1,40 @@
+package services.crawler;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The last samples of a latency, enough to estimate its percentiles without keeping every measure of a long job
+ */
+public class LatencySamples {
+    private final long[] samples;
+    private int count = 0;
+    private int next = 0;
+
+    public LatencySamples(int size) {
+        this.samples = new long[size];
+    }
+
+    public synchronized void add(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the percentile in milliseconds, 0 without samples
+     */
+    public long percentileMillis(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) {
+                return 0;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+}
@@ -0,0 +1,165 @@
+package services.crawler;
+
+import akka.stream.ActorAttributes;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import models.CrawlState;
+import play.Configuration;
+import play.libs.ws.WSRequest;
+import services.http.HttpStatusException;
+import services.http.OutboundHttpClient;
+import services.extraction.StreamingPriceScanner;
+import services.extraction.SiteExtractionRules;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking page downloads on top of the shared {@link OutboundHttpClient}, so pages of the same retailer reuse
+ * its pooled connections.
+ *
+ * No thread is held while a request waits on the network, the returned stage completes on the WS client's threads
+ * once the page has arrived. When the crawl state of the product holds validators from a previous fetch the request
+ * is conditional and a 304 answer comes back as {@link FetchedPage#notModified()}. No more than crawler.maxPageBytes
+ * of a page are downloaded in either mode.
+ */
+@Singleton
+public class PageFetcher {
+    private final OutboundHttpClient http;
+    private final Materializer materializer;
+    private final long timeoutMillis;
+    private final long maxPageBytes;
+
+    @Inject
+    public PageFetcher(OutboundHttpClient http, Materializer materializer, Configuration configuration) {
+        this.http = http;
+        this.materializer = materializer;
+        this.timeoutMillis = configuration.getMilliseconds("crawler.fetchTimeout", 30000L);
+        this.maxPageBytes = configuration.getBytes("crawler.maxPageBytes", 2097152L);
+    }
+
+    /**
+     * Downloads the page found at url, up to crawler.maxPageBytes of it: the download is cancelled once that much was
+     * read and the page is cut there
+     * @param url
+     * @param validators crawl state of the product, may be null
+     * @return the page, fails with an HttpStatusException for HTTP error statuses
+     */
+    public CompletionStage<FetchedPage> fetch(String url, CrawlState validators) {
+        return http.track(url, () -> request(url, validators)
+                .setMethod("GET")
+                .stream()
+                .thenCompose(response -> {
+                    int status = response.getHeaders().getStatus();
+                    Map<String, List<String>> headers = response.getHeaders().getHeaders();
+                    if (status == 304 || status >= 400) {
+                        return unread(response.getBody(), status, url);
+                    }
+                    Charset charset = charsetOf(header(headers, "Content-Type"));
+                    long[] read = {0};
+                    return response.getBody()
+                            .takeWhile(chunk -> {
+                                boolean needed = read[0] < maxPageBytes;
+                                read[0] += chunk.size();
+                                return needed;
+                            })
+                            .runFold(ByteString.empty(), ByteString::concat, materializer)
+                            .thenApply(body -> FetchedPage.buffered(body.take((int) Math.min(maxPageBytes, Integer.MAX_VALUE))
+                                    .decodeString(charset.name()), header(headers, "ETag"), header(headers, "Last-Modified")));
+                }));
+    }
+
+    /**
+     * Streams the page found at url through a {@link StreamingPriceScanner}. The download is cancelled as soon as the
+     * scanner found the price or read crawler.maxPageBytes, so the rest of the page is never transferred.
+     * @param url
+     * @param validators crawl state of the product, may be null
+     * @param rules
+     * @return the page holding the scanner after it stopped reading, fails with an HttpStatusException for HTTP error
+     * statuses
+     */
+    public CompletionStage<FetchedPage> stream(String url, CrawlState validators, SiteExtractionRules rules) {
+        return http.track(url, () -> request(url, validators)
+                .setMethod("GET")
+                .stream()
+                .thenCompose(response -> {
+                    int status = response.getHeaders().getStatus();
+                    Map<String, List<String>> headers = response.getHeaders().getHeaders();
+                    if (status == 304 || status >= 400) {
+                        return unread(response.getBody(), status, url);
+                    }
+                    StreamingPriceScanner scanner = new StreamingPriceScanner(rules, maxPageBytes, charsetOf(header(headers, "Content-Type")));
+                    return response.getBody()
+                            .takeWhile(chunk -> scanner.offer(chunk.asByteBuffer()))
+                            .withAttributes(ActorAttributes.dispatcher("akka.actor.crawler-extract-context"))
+                            .runWith(Sink.ignore(), materializer)
+                            .thenApply(done -> FetchedPage.streamed(scanner, header(headers, "ETag"), header(headers, "Last-Modified")));
+                }));
+    }
+
+    /**
+     * Outcome of a 304 or error answer, whose body is drained so the connection can be released
+     * @param body
+     * @param status
+     * @param url
+     * @return
+     */
+    private CompletionStage<FetchedPage> unread(Source<ByteString, ?> body, int status, String url) {
+        body.runWith(Sink.ignore(), materializer);
+        if (status == 304) {
+            return CompletableFuture.completedFuture(FetchedPage.notModified());
+        }
+        throw new CompletionException(new HttpStatusException(status, url));
+    }
+
+    private WSRequest request(String url, CrawlState validators) {
+        WSRequest request = http.url(url).setRequestTimeout(timeoutMillis);
+        if (validators != null && validators.getEtag() != null) {
+            request = request.setHeader("If-None-Match", validators.getEtag());
+        }
+        if (validators != null && validators.getLastModified() != null) {
+            request = request.setHeader("If-Modified-Since", validators.getLastModified());
+        }
+        return request;
+    }
+
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name) && !header.getValue().isEmpty()) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the charset of the Content-Type header, defaulting to UTF-8
+     * @param contentType
+     * @return
+     */
+    private static Charset charsetOf(String contentType) {
+        if (contentType == null) {
+            return StandardCharsets.UTF_8;
+        }
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (param.toLowerCase().startsWith("charset=")) {
+                try {
+                    return Charset.forName(param.substring("charset=".length()).replace("\"", ""));
+                } catch (IllegalArgumentException e) {
+                    return StandardCharsets.UTF_8;
+                }
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+}
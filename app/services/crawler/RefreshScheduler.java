@@ -0,0 +1,132 @@
+package services.crawler;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import models.dao.CrawlStateDAO;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.duration.Duration;
+import utils.URLFixer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps re-indexing products as they become due, instead of waiting for an admin to trigger a whole site.
+ *
+ * Products are leased from the next_due index in batches(see {@link CrawlLeases}) and kept in a priority queue ordered
+ * by due date. On every tick the due ones are handed to the {@link CrawlScheduler}, only as long as its queue stays
+ * below crawler.refresh.maxQueued, so the load on the database and on retailers stays steady. Every node of the
+ * application runs its own scheduler; the leases split the due products between them and keep a product from being
+ * pulled twice.
+ */
+@Singleton
+public class RefreshScheduler {
+    private static class DueProduct {
+        private final Long productId;
+        private final Long siteId;
+        private final Date due;
+        private final String url;
+
+        private DueProduct(Long productId, Long siteId, Date due, String url) {
+            this.productId = productId;
+            this.siteId = siteId;
+            this.due = due;
+            this.url = url;
+        }
+    }
+
+    private final CrawlScheduler crawlScheduler;
+    private final CrawlLeases leases;
+    private final JPAApi jpa;
+    private final int batchSize;
+    private final int maxQueued;
+    private final long lookaheadMillis;
+
+    private final PriorityQueue<DueProduct> due = new PriorityQueue<>(Comparator.comparing((DueProduct p) -> p.due));
+    private final Set<Long> dueIds = new HashSet<>();
+    private final AtomicBoolean ticking = new AtomicBoolean(false);
+    private boolean backfilled = false;
+    private Cancellable ticks;
+
+    @Inject
+    public RefreshScheduler(CrawlScheduler crawlScheduler, CrawlLeases leases, JPAApi jpa, ActorSystem actorSystem,
+                            Configuration configuration, ApplicationLifecycle lifecycle) {
+        this.crawlScheduler = crawlScheduler;
+        this.leases = leases;
+        this.jpa = jpa;
+        this.batchSize = configuration.getInt("crawler.refresh.batchSize", 500);
+        this.maxQueued = configuration.getInt("crawler.refresh.maxQueued", 1000);
+        this.lookaheadMillis = configuration.getMilliseconds("crawler.refresh.lookahead", 300000L);
+
+        if (configuration.getBoolean("crawler.refresh.enabled", true)) {
+            long interval = configuration.getMilliseconds("crawler.refresh.interval", 5000L);
+            ExecutionContext dbContext = actorSystem.dispatchers().lookup("akka.actor.db-context");
+            ticks = actorSystem.scheduler().schedule(
+                    Duration.create(interval, TimeUnit.MILLISECONDS),
+                    Duration.create(interval, TimeUnit.MILLISECONDS),
+                    this::tick, dbContext);
+            lifecycle.addStopHook(() -> {
+                ticks.cancel();
+                return CompletableFuture.completedFuture(null);
+            });
+        }
+    }
+
+    /**
+     * Tops up the in-memory queue from the database if needed and submits the products that are due, run every
+     * crawler.refresh.interval
+     */
+    public void tick() {
+        //A slow database must not pile up ticks
+        if (!ticking.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (!backfilled) {
+                int created = jpa.withTransaction(() -> new CrawlStateDAO().createMissing());
+                if (created > 0) Logger.info("Created crawl state for " + created + " product(s)");
+                backfilled = true;
+            }
+            if (due.size() < batchSize) {
+                pull();
+            }
+            feed();
+        } catch (Exception e) {
+            Logger.error("Error while scheduling due products: " + e.getMessage());
+        } finally {
+            ticking.set(false);
+        }
+    }
+
+    private void pull() {
+        for (Object[] row : leases.claimDue(new Date(System.currentTimeMillis() + lookaheadMillis), batchSize)) {
+            Long productId = (Long) row[0];
+            if (dueIds.add(productId)) {
+                due.add(new DueProduct(productId, (Long) row[1], (Date) row[2], URLFixer.normalize((String) row[3])));
+            }
+        }
+    }
+
+    private void feed() {
+        Date now = new Date();
+        int submitted = 0;
+        while (!due.isEmpty() && !due.peek().due.after(now) && crawlScheduler.queued() < maxQueued) {
+            DueProduct next = due.peek();
+            if (!crawlScheduler.submit(new CrawlTask(next.siteId, next.productId, null, next.url))) {
+                break;
+            }
+            due.poll();
+            dueIds.remove(next.productId);
+            submitted++;
+        }
+        if (submitted > 0) Logger.info("Submitted " + submitted + " due product(s) for indexing");
+    }
+}
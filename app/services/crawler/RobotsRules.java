@@ -0,0 +1,138 @@
+package services.crawler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The rules of a robots.txt that apply to this crawler: the group naming our agent token if there is one, otherwise
+ * the * group. Paths are matched in memory, the longest matching rule wins and Allow wins ties.
+ */
+public class RobotsRules {
+    private static final RobotsRules ALLOW_ALL = new RobotsRules(new ArrayList<>(), null);
+    private static final RobotsRules DISALLOW_ALL;
+
+    static {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule("/", false));
+        DISALLOW_ALL = new RobotsRules(rules, null);
+    }
+
+    private static class Rule {
+        private final int length;
+        private final boolean allow;
+        private final Pattern pattern;
+
+        private Rule(String path, boolean allow) {
+            this.length = path.length();
+            this.allow = allow;
+            //* matches anything, a trailing $ anchors the end of the path
+            boolean anchored = path.endsWith("$");
+            String body = anchored ? path.substring(0, path.length() - 1) : path;
+            StringBuilder regex = new StringBuilder();
+            for (String part : body.split("\\*", -1)) {
+                if (regex.length() > 0) regex.append(".*");
+                regex.append(Pattern.quote(part));
+            }
+            this.pattern = Pattern.compile(regex + (anchored ? "$" : ".*"), Pattern.DOTALL);
+        }
+    }
+
+    private final List<Rule> rules;
+    private final Double crawlDelay;
+
+    private RobotsRules(List<Rule> rules, Double crawlDelay) {
+        this.rules = rules;
+        this.crawlDelay = crawlDelay;
+    }
+
+    public static RobotsRules allowAll() {
+        return ALLOW_ALL;
+    }
+
+    public static RobotsRules disallowAll() {
+        return DISALLOW_ALL;
+    }
+
+    /**
+     * Parses a robots.txt
+     * @param body
+     * @param agent our agent token, matched case-insensitively against the User-agent lines
+     * @return
+     */
+    public static RobotsRules parse(String body, String agent) {
+        String token = agent.toLowerCase();
+        List<Rule> ownRules = new ArrayList<>(), anyRules = new ArrayList<>();
+        Double ownDelay = null, anyDelay = null;
+        boolean own = false, any = false, foundOwn = false;
+        boolean readingAgents = false;
+
+        for (String line : body.split("\r?\n|\r")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) line = line.substring(0, comment);
+            int colon = line.indexOf(':');
+            if (colon < 0) continue;
+            String field = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+
+            if (field.equals("user-agent")) {
+                //Consecutive User-agent lines share the rules that follow them
+                if (!readingAgents) {
+                    own = false;
+                    any = false;
+                    readingAgents = true;
+                }
+                String name = value.toLowerCase();
+                if (name.equals("*")) {
+                    any = true;
+                } else if (!name.isEmpty() && token.contains(name)) {
+                    own = true;
+                    foundOwn = true;
+                }
+                continue;
+            }
+            readingAgents = false;
+            if (!own && !any) continue;
+
+            if (field.equals("allow") || field.equals("disallow")) {
+                //An empty Disallow allows everything
+                if (value.isEmpty()) continue;
+                Rule rule = new Rule(value, field.equals("allow"));
+                if (own) ownRules.add(rule);
+                if (any) anyRules.add(rule);
+            } else if (field.equals("crawl-delay")) {
+                try {
+                    double delay = Double.parseDouble(value);
+                    if (own) ownDelay = delay;
+                    if (any) anyDelay = delay;
+                } catch (NumberFormatException e) {
+                    //Ignored like any other malformed line
+                }
+            }
+        }
+        return foundOwn ? new RobotsRules(ownRules, ownDelay) : new RobotsRules(anyRules, anyDelay);
+    }
+
+    /**
+     * @param path path and query of a URL
+     * @return
+     */
+    public boolean isAllowed(String path) {
+        if (path == null || path.isEmpty()) path = "/";
+        Rule best = null;
+        for (Rule rule : rules) {
+            if (rule.pattern.matcher(path).matches()
+                    && (best == null || rule.length > best.length || (rule.length == best.length && rule.allow))) {
+                best = rule;
+            }
+        }
+        return best == null || best.allow;
+    }
+
+    /**
+     * @return Crawl-delay in seconds, null if there is none
+     */
+    public Double getCrawlDelay() {
+        return crawlDelay;
+    }
+}
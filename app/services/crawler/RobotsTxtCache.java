@@ -0,0 +1,111 @@
+package services.crawler;
+
+import play.Configuration;
+import play.Logger;
+import play.libs.ws.WSResponse;
+import services.http.OutboundHttpClient;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * robots.txt of every retailer host, fetched once and kept for crawler.politeness.robotsTtl.
+ *
+ * Concurrent lookups of a host share the same download. A missing robots.txt(4xx) allows everything, a server error,
+ * an unreachable host or a robots.txt that can't be read disallows everything until crawler.politeness.robotsRetry
+ * has passed. A download still running after the request timeout is given up by the next lookup, which starts another.
+ */
+@Singleton
+public class RobotsTxtCache {
+    private static class Entry {
+        private final CompletableFuture<RobotsRules> rules = new CompletableFuture<>();
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        //Until the download completes, the end of its request timeout
+        private volatile long expires;
+
+        private Entry(long expires) {
+            this.expires = expires;
+        }
+    }
+
+    private final OutboundHttpClient http;
+    private final String agent;
+    private final long ttlMillis;
+    private final long retryMillis;
+    private final Map<String, Entry> hosts = new ConcurrentHashMap<>();
+
+    @Inject
+    public RobotsTxtCache(OutboundHttpClient http, Configuration configuration) {
+        this.http = http;
+        //Rules are read for the agent the requests are sent as
+        this.agent = http.getAgent();
+        this.ttlMillis = configuration.getMilliseconds("crawler.politeness.robotsTtl", 86400000L);
+        this.retryMillis = configuration.getMilliseconds("crawler.politeness.robotsRetry", 600000L);
+    }
+
+    /**
+     * Rules of the host of url
+     * @param url
+     * @return completed right away once the robots.txt of the host was read
+     */
+    public CompletionStage<RobotsRules> forUrl(URL url) {
+        String origin = url.getProtocol() + "://" + url.getAuthority();
+        Entry entry = hosts.compute(origin, (key, current) ->
+                current == null || current.expires < System.currentTimeMillis()
+                        ? new Entry(System.currentTimeMillis() + http.getTimeoutMillis()) : current);
+        //Only the first caller starts the download
+        if (entry.started.compareAndSet(false, true)) {
+            load(origin, entry);
+        }
+        return entry.rules;
+    }
+
+    private void load(String origin, Entry entry) {
+        String robotsUrl = origin + "/robots.txt";
+        CompletionStage<WSResponse> fetched;
+        try {
+            fetched = http.track(robotsUrl, () -> http.url(robotsUrl).get());
+        } catch (RuntimeException e) {
+            loaded(robotsUrl, entry, null, e);
+            return;
+        }
+        fetched.whenComplete((response, error) -> loaded(robotsUrl, entry, response, error));
+    }
+
+    /**
+     * Completes the entry whatever happens, with rules that disallow everything for a while if the robots.txt couldn't
+     * be read
+     * @param robotsUrl
+     * @param entry
+     * @param response
+     * @param error
+     */
+    private void loaded(String robotsUrl, Entry entry, WSResponse response, Throwable error) {
+        RobotsRules rules = null;
+        long ttl = retryMillis;
+        try {
+            if (error != null || response.getStatus() >= 500) {
+                Logger.info("Could not read " + robotsUrl + ", not crawling the host for now");
+            } else if (response.getStatus() >= 400) {
+                rules = RobotsRules.allowAll();
+                ttl = ttlMillis;
+            } else {
+                rules = RobotsRules.parse(response.getBody(), agent);
+                ttl = ttlMillis;
+            }
+        } catch (RuntimeException e) {
+            Logger.error("Could not parse " + robotsUrl + ", not crawling the host for now", e);
+            rules = null;
+            ttl = retryMillis;
+        } finally {
+            entry.expires = System.currentTimeMillis() + ttl;
+            entry.rules.complete(rules == null ? RobotsRules.disallowAll() : rules);
+        }
+    }
+}
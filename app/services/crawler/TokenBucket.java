@@ -0,0 +1,64 @@
+package services.crawler;
+
+/**
+ * Token bucket allowing requestsPerSecond on average with bursts of up to burst requests.
+ *
+ * Times are passed in by the caller, in milliseconds of a monotonic clock.
+ */
+public class TokenBucket {
+    private double tokensPerMilli;
+    private double capacity;
+    private double tokens;
+    private long last;
+
+    public TokenBucket(double requestsPerSecond, int burst, long now) {
+        this.tokensPerMilli = requestsPerSecond / 1000;
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.last = now;
+    }
+
+    /**
+     * Takes a token if one is available
+     * @param now
+     * @return 0 if a token was taken, otherwise the milliseconds until the next one is available
+     */
+    public synchronized long tryAcquire(long now) {
+        refill(now);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerMilli));
+    }
+
+    /**
+     * Looks for a token without taking it
+     * @param now
+     * @return 0 if a token is available, otherwise the milliseconds until the next one is available
+     */
+    public synchronized long available(long now) {
+        refill(now);
+        return tokens >= 1 ? 0 : Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerMilli));
+    }
+
+    /**
+     * Changes the budget, tokens already saved up are kept within the new burst
+     * @param requestsPerSecond
+     * @param burst
+     * @param now
+     */
+    public synchronized void setRate(double requestsPerSecond, int burst, long now) {
+        refill(now);
+        tokensPerMilli = requestsPerSecond / 1000;
+        capacity = Math.max(1, burst);
+        tokens = Math.min(tokens, capacity);
+    }
+
+    private void refill(long now) {
+        if (now > last) {
+            tokens = Math.min(capacity, tokens + (now - last) * tokensPerMilli);
+            last = now;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package services.currency;
+
+import akka.actor.ActorSystem;
+import akka.actor.Cancellable;
+import play.Configuration;
+import play.Logger;
+import play.inject.ApplicationLifecycle;
+import scala.concurrent.duration.Duration;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory table of exchange rates, refreshed for all known currencies in one bulk call to the {@link RateProvider}.
+ *
+ * The table is refreshed at startup(unless currency.refreshOnStart is false), every currency.refreshInterval and
+ * whenever it is read while older than currency.ttl. Lookups of known currencies never wait for the provider, they are
+ * answered from the table even while a refresh is running. A currency seen for the first time joins the known set and
+ * its lookup completes with the refresh that loads it. When the provider fails the last known rates stay in use.
+ *
+ * A currency the provider has no rate for fails right away for currency.missingTtl instead of triggering a refresh on
+ * every lookup, and after a failed refresh no other one is started by lookups for currency.retryDelay.
+ */
+@Singleton
+public class CurrencyRateService {
+    private static final String BASE = "EUR";
+
+    private final RateProvider provider;
+    private final long ttlMillis;
+    private final long missingTtlMillis;
+    private final long retryMillis;
+
+    //Value of one unit of each currency in EUR
+    private volatile Map<String, Float> rates = new HashMap<>();
+    private volatile long lastRefresh = 0;
+    private final Set<String> currencies = ConcurrentHashMap.newKeySet();
+    //Currencies missing from the answers of the provider, with the time until which they aren't asked for again
+    private final Map<String, Long> missing = new ConcurrentHashMap<>();
+    //Lookups don't start a refresh before this, set when one failed
+    private volatile long retryAt = 0;
+
+    private CompletableFuture<Void> refreshing;
+    private Set<String> refreshingCurrencies;
+    private Cancellable refreshes;
+
+    @Inject
+    public CurrencyRateService(RateProvider provider, ActorSystem actorSystem, Configuration configuration, ApplicationLifecycle lifecycle) {
+        this(provider, configuration.getMilliseconds("currency.ttl", 21600000L),
+                configuration.getMilliseconds("currency.missingTtl", 3600000L), configuration.getMilliseconds("currency.retryDelay", 60000L));
+        for (String currency : configuration.getStringList("currency.preload", new ArrayList<>())) {
+            currencies.add(normalize(currency));
+        }
+        long interval = configuration.getMilliseconds("currency.refreshInterval", 3600000L);
+        long delay = configuration.getBoolean("currency.refreshOnStart", true) ? 0 : interval;
+        refreshes = actorSystem.scheduler().schedule(
+                Duration.create(delay, TimeUnit.MILLISECONDS),
+                Duration.create(interval, TimeUnit.MILLISECONDS),
+                this::refresh, actorSystem.dispatcher());
+        lifecycle.addStopHook(() -> {
+            refreshes.cancel();
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Service without scheduled refreshes, the table is only refreshed when read
+     * @param provider
+     * @param ttlMillis
+     * @param missingTtlMillis
+     * @param retryMillis
+     */
+    public CurrencyRateService(RateProvider provider, long ttlMillis, long missingTtlMillis, long retryMillis) {
+        this.provider = provider;
+        this.ttlMillis = ttlMillis;
+        this.missingTtlMillis = missingTtlMillis;
+        this.retryMillis = retryMillis;
+    }
+
+    /**
+     * Converts value from a currency to another
+     * @param value
+     * @param currencyFrom
+     * @param currencyTo
+     * @return the converted value, fails with an IOException if no rate is known for either currency
+     */
+    public CompletionStage<Float> convert(Float value, String currencyFrom, String currencyTo) {
+        return rate(currencyFrom, currencyTo).thenApply(rate -> value * rate);
+    }
+
+    /**
+     * Exchange rate between two currencies
+     * @param currencyFrom
+     * @param currencyTo
+     * @return completed right away if both currencies are in the table, or one of them is known to be missing
+     */
+    public CompletionStage<Float> rate(String currencyFrom, String currencyTo) {
+        String from = normalize(currencyFrom);
+        String to = normalize(currencyTo);
+        long now = System.currentTimeMillis();
+        Float rate = cachedRate(from, to);
+        if (rate != null) {
+            if (now - lastRefresh > ttlMillis && now >= retryAt) {
+                refresh();
+            }
+            return CompletableFuture.completedFuture(rate);
+        }
+        currencies.add(from);
+        currencies.add(to);
+        if (isMissing(from, now) || isMissing(to, now) || now < retryAt) {
+            return failed(new IOException("No exchange rate for " + from + "/" + to));
+        }
+        return refresh().thenApply(done -> {
+            Float loaded = cachedRate(from, to);
+            if (loaded == null) {
+                throw new CompletionException(new IOException("No exchange rate for " + from + "/" + to));
+            }
+            return loaded;
+        });
+    }
+
+    /**
+     * Starts a bulk refresh of all known currencies, or joins the running one if it covers all of them
+     * @return completes when the refresh is over, whether the provider answered or not
+     */
+    public synchronized CompletionStage<Void> refresh() {
+        if (refreshing != null && !refreshing.isDone() && refreshingCurrencies.containsAll(currencies)) {
+            return refreshing;
+        }
+        Set<String> requested = new HashSet<>(currencies);
+        requested.remove(BASE);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        refreshing = done;
+        refreshingCurrencies = requested;
+        if (requested.isEmpty()) {
+            lastRefresh = System.currentTimeMillis();
+            done.complete(null);
+            return done;
+        }
+        CompletionStage<Map<String, Float>> fetched;
+        try {
+            fetched = provider.fetchRates(requested);
+        } catch (RuntimeException e) {
+            fetched = failed(e);
+        }
+        fetched.whenComplete((loaded, error) -> {
+            long now = System.currentTimeMillis();
+            if (error != null) {
+                Logger.error("Could not refresh exchange rates, keeping the last known ones: " + error.getMessage());
+                retryAt = now + retryMillis;
+            } else {
+                //Currencies missing from the answer keep their last known rate
+                Map<String, Float> merged = new HashMap<>(rates);
+                merged.putAll(loaded);
+                rates = merged;
+                for (String currency : requested) {
+                    if (merged.containsKey(currency)) missing.remove(currency);
+                    else missing.put(currency, now + missingTtlMillis);
+                }
+                lastRefresh = now;
+                retryAt = 0;
+                Logger.info("Refreshed " + loaded.size() + " exchange rate(s)");
+            }
+            done.complete(null);
+        });
+        return done;
+    }
+
+    private boolean isMissing(String currency, long now) {
+        Long until = missing.get(currency);
+        return until != null && until > now;
+    }
+
+    private Float cachedRate(String from, String to) {
+        Map<String, Float> table = rates;
+        Float fromRate = BASE.equals(from) ? Float.valueOf(1f) : table.get(from);
+        Float toRate = BASE.equals(to) ? Float.valueOf(1f) : table.get(to);
+        if (fromRate == null || toRate == null || toRate == 0) {
+            return null;
+        }
+        return fromRate / toRate;
+    }
+
+    /**
+     * Maps the currency names found on pages to ISO codes
+     * @param currency
+     * @return
+     */
+    private static String normalize(String currency) {
+        currency = currency.trim().toUpperCase();
+        switch (currency) {
+            case "LEI": {
+                return "RON";
+            }
+            default: {
+                return currency;
+            }
+        }
+    }
+
+    private static <T> CompletionStage<T> failed(Throwable error) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(error);
+        return future;
+    }
+}
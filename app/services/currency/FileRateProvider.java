@@ -0,0 +1,47 @@
+package services.currency;
+
+import play.Configuration;
+
+import javax.inject.Inject;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Reads the rates from a local properties file(currency.file) holding lines like RON=0.2215, for tests and offline use.
+ * The file is read again on every refresh so it can be edited while the application runs.
+ */
+public class FileRateProvider implements RateProvider {
+    private final String file;
+
+    @Inject
+    public FileRateProvider(Configuration configuration) {
+        this.file = configuration.getString("currency.file", "conf/rates.properties");
+    }
+
+    @Override
+    public CompletionStage<Map<String, Float>> fetchRates(Set<String> currencies) {
+        CompletableFuture<Map<String, Float>> result = new CompletableFuture<>();
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            Map<String, Float> rates = new HashMap<>();
+            for (String currency : currencies) {
+                String rate = properties.getProperty(currency);
+                if (rate != null) {
+                    rates.put(currency, Float.parseFloat(rate.trim()));
+                }
+            }
+            result.complete(rates);
+        } catch (IOException | NumberFormatException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,18 @@
+package services.currency;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Source of exchange rates for {@link CurrencyRateService}.
+ */
+public interface RateProvider {
+
+    /**
+     * Fetches the rates of all the given currencies in one go
+     * @param currencies ISO codes
+     * @return the value of one unit of each currency in EUR, currencies the provider doesn't know are left out
+     */
+    CompletionStage<Map<String, Float>> fetchRates(Set<String> currencies);
+}
@@ -0,0 +1,48 @@
+package services.currency;
+
+import services.http.OutboundHttpClient;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+import java.util.stream.Collectors;
+
+/**
+ * Reads the rates of all currencies with a single request to the Yahoo finance quotes API.
+ */
+public class YahooRateProvider implements RateProvider {
+    private static final String QUOTES_URL = "http://download.finance.yahoo.com/d/quotes.csv";
+
+    @Inject
+    private OutboundHttpClient http;
+
+    @Override
+    public CompletionStage<Map<String, Float>> fetchRates(Set<String> currencies) {
+        //One symbol per currency, e.g. RONEUR=X
+        String symbols = currencies.stream().map(c -> c + "EUR=X").collect(Collectors.joining(","));
+        return http.get(QUOTES_URL + "?s=" + symbols + "&f=sl1&e=.csv").thenApply(YahooRateProvider::parse);
+    }
+
+    /**
+     * Parses lines like "RONEUR=X",0.2215
+     * @param body
+     * @return
+     */
+    private static Map<String, Float> parse(String body) {
+        Map<String, Float> rates = new HashMap<>();
+        for (String line : body.split("\n")) {
+            String[] columns = line.trim().replace("\"", "").split(",");
+            if (columns.length < 2 || columns[0].length() < 3) {
+                continue;
+            }
+            try {
+                rates.put(columns[0].substring(0, 3), Float.parseFloat(columns[1]));
+            } catch (NumberFormatException e) {
+                //N/A for unknown symbols
+            }
+        }
+        return rates;
+    }
+}
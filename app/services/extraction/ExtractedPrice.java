@@ -0,0 +1,32 @@
+package services.extraction;
+
+/**
+ * Raw price value and currency code found on a product page, before any currency conversion.
+ */
+public class ExtractedPrice {
+    private final Float value;
+    private final String currency;
+    private final ExtractionPath path;
+
+    public ExtractedPrice(Float value, String currency) {
+        this(value, currency, ExtractionPath.SITE_RULES);
+    }
+
+    public ExtractedPrice(Float value, String currency, ExtractionPath path) {
+        this.value = value;
+        this.currency = currency;
+        this.path = path;
+    }
+
+    public Float getValue() {
+        return value;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public ExtractionPath getPath() {
+        return path;
+    }
+}
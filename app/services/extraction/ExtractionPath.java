@@ -0,0 +1,15 @@
+package services.extraction;
+
+/**
+ * Where the price of a page was read from, see {@link StructuredDataExtractor}
+ */
+public enum ExtractionPath {
+    //application/ld+json Product/Offer block
+    JSON_LD,
+    //product:price:amount/og:price:amount meta tags
+    META_TAGS,
+    //schema.org itemprop="price" attributes
+    MICRODATA,
+    //Regex rules of the site
+    SITE_RULES
+}
@@ -0,0 +1,63 @@
+package services.extraction;
+
+import javax.inject.Singleton;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts, by site, which {@link ExtractionPath} the prices were read from and how many extractions found nothing.
+ * A site that keeps falling back to its rules doesn't publish structured data, one failing on all paths needs its
+ * rules fixed.
+ */
+@Singleton
+public class ExtractionStats {
+
+    public static class SiteStats {
+        private final Map<ExtractionPath, AtomicLong> paths = new EnumMap<>(ExtractionPath.class);
+        private final AtomicLong failed = new AtomicLong();
+
+        private SiteStats() {
+            for (ExtractionPath path : ExtractionPath.values()) {
+                paths.put(path, new AtomicLong());
+            }
+        }
+
+        public Map<ExtractionPath, Long> getPaths() {
+            Map<ExtractionPath, Long> counts = new EnumMap<>(ExtractionPath.class);
+            paths.forEach((path, count) -> counts.put(path, count.get()));
+            return counts;
+        }
+
+        public long getFailed() {
+            return failed.get();
+        }
+    }
+
+    private final ConcurrentMap<Long, SiteStats> sites = new ConcurrentHashMap<>();
+
+    /**
+     * Records the outcome of an extraction
+     * @param siteId
+     * @param price the price found, null if none was
+     */
+    public void record(Long siteId, ExtractedPrice price) {
+        SiteStats stats = sites.computeIfAbsent(siteId, id -> new SiteStats());
+        if (price == null) {
+            stats.failed.incrementAndGet();
+        } else {
+            stats.paths.get(price.getPath()).incrementAndGet();
+        }
+    }
+
+    /**
+     * @param siteId
+     * @return the counters of the site, all zero if nothing was extracted for it yet
+     */
+    public SiteStats forSite(Long siteId) {
+        SiteStats stats = sites.get(siteId);
+        return stats != null ? stats : new SiteStats();
+    }
+}
@@ -0,0 +1,90 @@
+package services.extraction;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import utils.CurrencyCalculator;
+
+import java.util.Currency;
+import java.util.regex.Matcher;
+
+/**
+ * Finds the price and currency of a product page using the compiled rules of its site.
+ *
+ * Works by taking the closest parent(class, siteKeyword) of the element containing the price on which it tests the
+ * price pattern(priceElement) for finding the price value and the currency patterns(currencyElement) for finding the
+ * currency.
+ */
+public class PriceExtractor {
+
+    /**
+     * Returns the serialized html of the element holding the price, serialized only once per page
+     * @param document
+     * @param rules
+     * @return the html or null if the site element is missing from the page
+     */
+    public static String selectRegion(Document document, SiteExtractionRules rules) {
+        //If the site has a certain element containing the price & currency, use it to avoid duplicate price/currency elements
+        Element region = rules.getSiteKeyword() == null ? document : document.getElementsByClass(rules.getSiteKeyword()).first();
+        return region == null ? null : region.html();
+    }
+
+    /**
+     * Applies the price and currency patterns to the html of the price region
+     * @param html
+     * @param rules
+     * @return the price or null if the price or the currency couldn't be found
+     */
+    public static ExtractedPrice extract(String html, SiteExtractionRules rules) {
+        if (html == null) {
+            return null;
+        }
+        Float productPrice = null;
+        Matcher priceMatcher = rules.getPricePattern().matcher(html);
+        if (priceMatcher.find()) {
+            productPrice = Float.parseFloat(priceMatcher.group(3));
+        }
+
+        String productCurrency = null;
+        Matcher currencyMatcherTag = rules.getCurrencyTagPattern().matcher(html);
+        if (currencyMatcherTag.find() && isCurrency(currencyMatcherTag.group(2))) {
+            productCurrency = currencyMatcherTag.group(2);
+        }
+        //If there is no currency found, search using the second pattern
+        if (productCurrency == null) {
+            Matcher currencyMatcherProp = rules.getCurrencyPropPattern().matcher(html);
+            if (currencyMatcherProp.find() && isCurrency(currencyMatcherProp.group(2))) {
+                productCurrency = currencyMatcherProp.group(2);
+            }
+        }
+
+        if (productPrice == null || productCurrency == null) {
+            return null;
+        }
+        return new ExtractedPrice(productPrice, productCurrency);
+    }
+
+    /**
+     * Tells whether the price pattern matches the html of the price region, to know which value was missing when
+     * {@link #extract(String, SiteExtractionRules)} found nothing
+     * @param html
+     * @param rules
+     * @return
+     */
+    public static boolean hasPrice(String html, SiteExtractionRules rules) {
+        return html != null && rules.getPricePattern().matcher(html).find();
+    }
+
+    /**
+     * Checks if the found string is a currency because of the false matching sometimes
+     * @param currency
+     * @return
+     */
+    public static boolean isCurrency(String currency) {
+        try {
+            Currency.getInstance(CurrencyCalculator.solveBadCurrency(currency));
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package services.extraction;
+
+import models.Site;
+
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * Precompiled price and currency patterns of a site.
+ *
+ * The version is derived from the rule columns of the site, so an entry compiled from an older copy of the site is
+ * recognized as stale even when the update happened on another node.
+ */
+public class SiteExtractionRules {
+    private final Long siteId;
+    private final int version;
+    private final String siteKeyword;
+    private final Pattern regionStartPattern;
+    private final Pattern pricePattern;
+    private final Pattern priceAnchorPattern;
+    private final Pattern currencyTagPattern;
+    private final Pattern currencyPropPattern;
+    private final Pattern currencyAnchorPattern;
+
+    private SiteExtractionRules(Site site) {
+        this.siteId = site.getId();
+        this.version = versionOf(site);
+        this.siteKeyword = site.getSiteKeyword() == null || site.getSiteKeyword().equals("none") ? null : site.getSiteKeyword();
+        //class="... siteKeyword ...", used to find the site element in raw html while streaming
+        this.regionStartPattern = siteKeyword == null ? null : Pattern.compile("(?i)class\\s*=\\s*[\"']?[^\"'>]*?(?<![\\w-])" + Pattern.quote(siteKeyword) + "(?![\\w-])");
+
+        //Patterns for finding the price
+        //..."price"...ACTUAL_PRICE
+        String priceElement = site.getPriceElement();
+        this.pricePattern = Pattern.compile("(?is)((\"" + priceElement + "\"|" + priceElement + "\\s*=|" + priceElement + "\\s*>).*?)(([0-9]*[.])?[0-9]+)");
+        //Only the part before the value, the streaming mode looks for the value separately
+        this.priceAnchorPattern = Pattern.compile("(?is)\"" + priceElement + "\"|" + priceElement + "\\s*=|" + priceElement + "\\s*>");
+
+        //Patterns for finding the currency
+        String currencyElement = site.getCurrencyElement();
+        this.currencyTagPattern = Pattern.compile("(?is)(" + currencyElement + ".*?>)(\\w+)<");
+        this.currencyPropPattern = Pattern.compile("(?is)(" + currencyElement + ".*?)\"(\\w+)\"");
+        this.currencyAnchorPattern = Pattern.compile("(?is)" + currencyElement);
+    }
+
+    public static SiteExtractionRules compile(Site site) {
+        return new SiteExtractionRules(site);
+    }
+
+    /**
+     * Returns the version of the extraction rules currently stored in the site
+     * @param site
+     * @return
+     */
+    public static int versionOf(Site site) {
+        return Objects.hash(site.getSiteKeyword(), site.getPriceElement(), site.getCurrencyElement());
+    }
+
+    public Long getSiteId() {
+        return siteId;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the class of the element containing the price & currency or null if the whole page is used
+     */
+    public String getSiteKeyword() {
+        return siteKeyword;
+    }
+
+    /**
+     * @return pattern matching the class attribute of the site element or null if the whole page is used
+     */
+    public Pattern getRegionStartPattern() {
+        return regionStartPattern;
+    }
+
+    public Pattern getPricePattern() {
+        return pricePattern;
+    }
+
+    public Pattern getCurrencyTagPattern() {
+        return currencyTagPattern;
+    }
+
+    public Pattern getCurrencyPropPattern() {
+        return currencyPropPattern;
+    }
+
+    /**
+     * @return pattern matching what precedes the price in the price pattern
+     */
+    public Pattern getPriceAnchorPattern() {
+        return priceAnchorPattern;
+    }
+
+    /**
+     * @return pattern matching what precedes the currency in both currency patterns
+     */
+    public Pattern getCurrencyAnchorPattern() {
+        return currencyAnchorPattern;
+    }
+}
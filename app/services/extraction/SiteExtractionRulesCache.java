@@ -0,0 +1,35 @@
+package services.extraction;
+
+import models.Site;
+
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the compiled extraction rules of every site, keyed by site id and rule version.
+ */
+@Singleton
+public class SiteExtractionRulesCache {
+    private final Map<Long, SiteExtractionRules> rules = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the compiled rules for the site, compiling them again if the site changed since they were cached
+     * @param site
+     * @return
+     */
+    public SiteExtractionRules forSite(Site site) {
+        int version = SiteExtractionRules.versionOf(site);
+        SiteExtractionRules cached = rules.get(site.getId());
+        if (cached != null && cached.getVersion() == version) {
+            return cached;
+        }
+        SiteExtractionRules compiled = SiteExtractionRules.compile(site);
+        rules.put(site.getId(), compiled);
+        return compiled;
+    }
+
+    public void invalidate(Long siteId) {
+        rules.remove(siteId);
+    }
+}
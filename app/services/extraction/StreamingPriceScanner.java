@@ -0,0 +1,309 @@
+package services.extraction;
+
+import org.jsoup.Jsoup;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Looks for the price of a product while its page is still being downloaded.
+ *
+ * Chunks are decoded as they arrive. Until the site element(siteKeyword) shows up only a short tail of the page is
+ * kept, after that the text of the element is matched against the price and currency patterns and the scan stops as
+ * soon as both were found, the element was closed or the byte cap was reached. Like in the DOM mode only the site
+ * element is searched: its end is found by counting the opening and closing tags of its name. Each pattern is matched
+ * again only over the text that arrived since its last attempt.
+ * All the decoded text also goes through a {@link StructuredDataExtractor}; a structured price stops the scan before
+ * the site rules are tried, usually while still in the head of the page. A JSON-LD price stops it right away, a meta
+ * tag or microdata price only once the head was read, so that a JSON-LD block further in the head still wins over it
+ * as in the DOM mode. A JSON-LD block in the body after a microdata price is not waited for.
+ */
+public class StreamingPriceScanner {
+    //Chars kept before the site element is found, so a class attribute split between two chunks is still matched
+    private static final int KEYWORD_OVERLAP = 512;
+    //Chars searched again by a pattern that found nothing, for a match cut by the end of the chunk
+    private static final int MATCH_OVERLAP = 256;
+    private static final Pattern TAG_NAME = Pattern.compile("<([\\w-]+)");
+    //What follows the price and currency anchors, see SiteExtractionRules
+    private static final Pattern NUMBER = Pattern.compile("([0-9]*[.])?[0-9]+");
+    private static final Pattern TAG_VALUE = Pattern.compile(">(\\w+)<");
+    private static final Pattern PROP_VALUE = Pattern.compile("\"(\\w+)\"");
+
+    private final SiteExtractionRules rules;
+    private final long maxBytes;
+    private final CharsetDecoder decoder;
+    private final StringBuilder text = new StringBuilder();
+    private final StructuredDataExtractor structured = new StructuredDataExtractor();
+    private final AnchoredSearch price;
+    private final AnchoredSearch currencyTag;
+    private final AnchoredSearch currencyProp;
+    private ByteBuffer leftover = ByteBuffer.allocate(0);
+    private long bytesRead = 0;
+    private boolean regionFound;
+    private boolean complete = false;
+    private ExtractedPrice found;
+    //End of the last value matched, the region used for fingerprinting stops there
+    private int regionEnd = -1;
+    //Opening and closing tags of the site element, null if the whole page is the region
+    private Pattern regionTags;
+    private int regionDepth = 0;
+    private int regionTagsFrom = 0;
+    //Content of the site element, the text is only searched from the end of its opening tag up to its closing tag
+    private int contentStart = -1;
+    private int regionClose = -1;
+
+    public StreamingPriceScanner(SiteExtractionRules rules, long maxBytes, Charset charset) {
+        this.rules = rules;
+        this.maxBytes = maxBytes;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.price = new AnchoredSearch(rules.getPriceAnchorPattern(), NUMBER);
+        this.currencyTag = new AnchoredSearch(rules.getCurrencyAnchorPattern(), TAG_VALUE);
+        this.currencyProp = new AnchoredSearch(rules.getCurrencyAnchorPattern(), PROP_VALUE);
+        //Without a site element the whole page is the region
+        this.regionFound = rules.getSiteKeyword() == null;
+    }
+
+    /**
+     * Scans a page that was downloaded whole, the same way as one read in chunks so both modes find the same price
+     * @param page
+     * @param rules
+     * @return the scanner after it read the page
+     */
+    public static StreamingPriceScanner scan(String page, SiteExtractionRules rules) {
+        StreamingPriceScanner scanner = new StreamingPriceScanner(rules, Long.MAX_VALUE, StandardCharsets.UTF_8);
+        scanner.offer(StandardCharsets.UTF_8.encode(page));
+        return scanner;
+    }
+
+    /**
+     * Consumes the next chunk of the page
+     * @param chunk
+     * @return true if more input is needed, false once the price was found or the byte cap was reached
+     */
+    public boolean offer(ByteBuffer chunk) {
+        if (complete) {
+            return false;
+        }
+        bytesRead += chunk.remaining();
+        int decodedFrom = text.length();
+        decode(chunk);
+        structured.feed(text.subSequence(decodedFrom, text.length()));
+        ExtractedPrice structuredPrice = structured.result();
+        if (structuredPrice != null && (structuredPrice.getPath() == ExtractionPath.JSON_LD || structured.isPastHead())) {
+            found = structuredPrice;
+            complete = true;
+            return false;
+        }
+
+        if (!regionFound) {
+            Matcher regionMatcher = rules.getRegionStartPattern().matcher(text);
+            if (regionMatcher.find()) {
+                //Drop everything before the opening tag of the site element
+                int tagStart = text.lastIndexOf("<", regionMatcher.start());
+                text.delete(0, Math.max(tagStart, 0));
+                regionFound = true;
+                Matcher tagName = TAG_NAME.matcher(text);
+                if (tagStart >= 0 && tagName.lookingAt()) {
+                    regionTags = Pattern.compile("(?i)<(/?)" + Pattern.quote(tagName.group(1)) + "(?=[\\s/>])");
+                }
+            } else if (text.length() > KEYWORD_OVERLAP) {
+                text.delete(0, text.length() - KEYWORD_OVERLAP);
+            }
+        }
+
+        if (regionFound && contentStart < 0) {
+            int tagEnd = regionTags == null ? -1 : text.indexOf(">");
+            contentStart = regionTags == null ? 0 : tagEnd < 0 ? -1 : tagEnd + 1;
+        }
+        if (contentStart >= 0) {
+            findRegionClose();
+            found = extractComplete();
+            //Structured data wins over the site rules even before it is final
+            if (found != null && structuredPrice != null) found = structuredPrice;
+        }
+        complete = found != null || regionClose >= 0 || bytesRead >= maxBytes;
+        return !complete;
+    }
+
+    /**
+     * Returns the price found while scanning. If the stream ended before both values were matched, the retained text
+     * is parsed and given to the regular DOM extraction as a last attempt.
+     * @return the price or null if the price or the currency couldn't be found
+     */
+    public ExtractedPrice result() {
+        if (found != null) {
+            return found;
+        }
+        if (structured.result() != null) {
+            return structured.result();
+        }
+        if (!regionFound) {
+            return null;
+        }
+        return PriceExtractor.extract(PriceExtractor.selectRegion(Jsoup.parse(retained()), rules), rules);
+    }
+
+    /**
+     * Returns the price published as structured data, see {@link StructuredDataExtractor}
+     * @return the price or null if the page had none before the scan stopped
+     */
+    public ExtractedPrice getStructuredPrice() {
+        return structured.result();
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Returns the part of the page the price was read from, from the site element up to the last matched value, or
+     * the whole site element(as much of it as was read) if the values weren't found while streaming
+     * @return the region or null if the site element never showed up
+     */
+    public String getRegion() {
+        if (!regionFound) {
+            return null;
+        }
+        return regionEnd >= 0 ? text.substring(0, regionEnd) : retained();
+    }
+
+    /**
+     * @return the text of the site element, up to its end if it was read
+     */
+    private String retained() {
+        return regionClose >= 0 ? text.substring(0, regionClose) : text.toString();
+    }
+
+    /**
+     * Follows the nesting of the tags named like the site element over the new text, until the one closing it
+     */
+    private void findRegionClose() {
+        if (regionTags == null || regionClose >= 0) {
+            return;
+        }
+        Matcher tags = regionTags.matcher(text);
+        tags.region(regionTagsFrom, text.length());
+        int scanned = regionTagsFrom;
+        while (tags.find()) {
+            regionDepth += tags.group(1).isEmpty() ? 1 : -1;
+            scanned = tags.end();
+            if (regionDepth == 0) {
+                regionClose = tags.start();
+                return;
+            }
+        }
+        //A tag name cut by the end of the chunk is matched on the next call
+        regionTagsFrom = Math.max(scanned, text.length() - regionTags.pattern().length());
+    }
+
+    /**
+     * Only accepts matches that cannot change when more of the page arrives
+     * @return
+     */
+    private ExtractedPrice extractComplete() {
+        boolean last = regionClose >= 0;
+        int end = last ? regionClose : text.length();
+        Matcher priceMatcher = price.find(text, contentStart, end, last);
+        //A number touching the end of the text may still be cut in half, unless the region ends there
+        if (priceMatcher == null || (priceMatcher.end() >= end && !last)) {
+            return null;
+        }
+        String currency = null;
+        int currencyEnd = -1;
+        Matcher currencyMatcherTag = currencyTag.find(text, contentStart, end, last);
+        if (currencyMatcherTag != null && PriceExtractor.isCurrency(currencyMatcherTag.group(1))) {
+            currency = currencyMatcherTag.group(1);
+            currencyEnd = currencyMatcherTag.end();
+        }
+        if (currency == null) {
+            Matcher currencyMatcherProp = currencyProp.find(text, contentStart, end, last);
+            if (currencyMatcherProp != null && PriceExtractor.isCurrency(currencyMatcherProp.group(1))) {
+                currency = currencyMatcherProp.group(1);
+                currencyEnd = currencyMatcherProp.end();
+            }
+        }
+        if (currency == null) {
+            return null;
+        }
+        regionEnd = Math.max(priceMatcher.end(), currencyEnd);
+        return new ExtractedPrice(Float.parseFloat(priceMatcher.group()), currency);
+    }
+
+    /**
+     * Decodes the chunk, keeping the bytes of a character split between two chunks for the next call
+     * @param chunk
+     */
+    private void decode(ByteBuffer chunk) {
+        ByteBuffer in;
+        if (leftover.hasRemaining()) {
+            in = ByteBuffer.allocate(leftover.remaining() + chunk.remaining());
+            in.put(leftover).put(chunk);
+            in.flip();
+        } else {
+            in = chunk;
+        }
+        CharBuffer out = CharBuffer.allocate((int) (in.remaining() * decoder.maxCharsPerByte()) + 1);
+        decoder.decode(in, out, false);
+        out.flip();
+        text.append(out);
+        leftover = ByteBuffer.allocate(in.remaining());
+        leftover.put(in);
+        leftover.flip();
+    }
+
+    /**
+     * The first value following the first anchor, which is what the lazy "anchor.*?value" patterns of the site rules
+     * match. Both parts are searched incrementally: the text before the position of a failed attempt(less an overlap)
+     * is never searched again.
+     */
+    private static class AnchoredSearch {
+        private final Pattern anchor;
+        private final Pattern value;
+        private int anchorFrom = -1;
+        private int anchorEnd = -1;
+        private int valueFrom = -1;
+
+        private AnchoredSearch(Pattern anchor, Pattern value) {
+            this.anchor = anchor;
+            this.value = value;
+        }
+
+        /**
+         * @param text
+         * @param start the text is searched from there
+         * @param end and up to there
+         * @param last true if no more text will be searched
+         * @return the matcher positioned on the value or null if it wasn't found yet
+         */
+        private Matcher find(CharSequence text, int start, int end, boolean last) {
+            if (anchorEnd < 0) {
+                Matcher anchorMatcher = anchor.matcher(text).region(Math.max(anchorFrom, start), end);
+                //A match ending with the text could still grow, e.g. the whitespace of price\s*=
+                if (!anchorMatcher.find() || (anchorMatcher.end() >= end && !last)) {
+                    anchorFrom = Math.max(anchorFrom, end - MATCH_OVERLAP);
+                    return null;
+                }
+                anchorEnd = anchorMatcher.end();
+                valueFrom = anchorEnd;
+            }
+            Matcher valueMatcher = value.matcher(text).region(valueFrom, end);
+            if (!valueMatcher.find()) {
+                valueFrom = Math.max(valueFrom, end - MATCH_OVERLAP);
+                return null;
+            }
+            //A match touching the end is searched again from its start, it may still grow
+            if (valueMatcher.end() >= end) {
+                valueFrom = valueMatcher.start();
+            }
+            return valueMatcher;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package services.extraction;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import play.libs.Json;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the price a retailer publishes for machines, so the site rules only have to be run on pages without one:
+ * JSON-LD Product/Offer blocks first, then the product:price meta tags(OpenGraph), then schema.org microdata.
+ *
+ * The page is read as plain text, tag by tag, and nothing is parsed into a DOM. Text can be fed in chunks as it is
+ * downloaded(see {@link StreamingPriceScanner}); a tag or a script block cut by the end of a chunk is kept until the
+ * rest of it arrives.
+ */
+public class StructuredDataExtractor {
+    //Text kept for an incomplete tag or script block, a bigger block is skipped
+    private static final int MAX_PENDING = 262144;
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)'|([^\\s\"'>]+))");
+
+    private final StringBuilder pending = new StringBuilder();
+    private ExtractedPrice jsonLd;
+    private String metaAmount;
+    private String metaCurrency;
+    private Float itemPrice;
+    private String itemCurrency;
+    private boolean pastHead = false;
+
+    /**
+     * Reads the structured price of a whole page
+     * @param html
+     * @return the price or null if the page doesn't publish a complete one
+     */
+    public static ExtractedPrice extract(String html) {
+        if (html == null) {
+            return null;
+        }
+        StructuredDataExtractor extractor = new StructuredDataExtractor();
+        extractor.feed(html);
+        return extractor.result();
+    }
+
+    /**
+     * Consumes the next part of the page
+     * @param text
+     */
+    public void feed(CharSequence text) {
+        pending.append(text);
+        int pos = 0;
+        while (true) {
+            int tagStart = pending.indexOf("<", pos);
+            if (tagStart < 0) {
+                pos = pending.length();
+                break;
+            }
+            int tagEnd = pending.indexOf(">", tagStart);
+            if (tagEnd < 0) {
+                pos = tagStart;
+                break;
+            }
+            String tag = pending.substring(tagStart, tagEnd + 1);
+            if (tag.regionMatches(true, 0, "</head", 0, 6) || tag.regionMatches(true, 0, "<body", 0, 5)) {
+                pastHead = true;
+            }
+            if (tag.regionMatches(true, 0, "<script", 0, 7)) {
+                //Scripts are skipped as a whole, they may hold anything looking like a tag
+                int close = indexOfIgnoreCase(pending, "</script", tagEnd + 1);
+                if (close < 0) {
+                    pos = tagStart;
+                    break;
+                }
+                if (jsonLd == null && "application/ld+json".equalsIgnoreCase(attributes(tag).get("type"))) {
+                    jsonLd = parseJsonLd(pending.substring(tagEnd + 1, close));
+                }
+                pos = close + 8;
+                continue;
+            }
+            //Only tags mentioning a price are worth reading the attributes of
+            if (tag.contains("rice")) {
+                int textEnd = pending.indexOf("<", tagEnd + 1);
+                if (!readTag(tag, textEnd < 0 ? null : pending.substring(tagEnd + 1, textEnd))) {
+                    pos = tagStart;
+                    break;
+                }
+            }
+            pos = tagEnd + 1;
+        }
+        pending.delete(0, pos);
+        if (pending.length() > MAX_PENDING) {
+            pending.setLength(0);
+        }
+    }
+
+    /**
+     * Returns the most reliable complete price found so far
+     * @return the price or null
+     */
+    public ExtractedPrice result() {
+        if (jsonLd != null) {
+            return jsonLd;
+        }
+        ExtractedPrice meta = price(metaAmount == null ? null : parseAmount(metaAmount), metaCurrency, ExtractionPath.META_TAGS);
+        if (meta != null) {
+            return meta;
+        }
+        return price(itemPrice, itemCurrency, ExtractionPath.MICRODATA);
+    }
+
+    /**
+     * Tells whether the end of the head was read. JSON-LD blocks are usually in the head, so a price from the meta
+     * tags or microdata is only final from there on.
+     * @return
+     */
+    public boolean isPastHead() {
+        return pastHead;
+    }
+
+    /**
+     * Reads the meta and microdata attributes of a tag
+     * @param tag
+     * @param text text following the tag up to the next one, null if it didn't arrive yet
+     * @return false if the value is the text of the element and it didn't arrive yet
+     */
+    private boolean readTag(String tag, String text) {
+        Map<String, String> attributes = attributes(tag);
+        String property = attributes.containsKey("property") ? attributes.get("property") : attributes.get("name");
+        String content = attributes.get("content");
+        if (property != null && content != null) {
+            property = property.toLowerCase();
+            if (metaAmount == null && (property.equals("product:price:amount") || property.equals("og:price:amount"))) {
+                metaAmount = content;
+            } else if (metaCurrency == null && (property.equals("product:price:currency") || property.equals("og:price:currency"))) {
+                metaCurrency = content;
+            }
+        }
+        String itemprop = attributes.get("itemprop");
+        if (itemprop == null || !(itemprop.equals("price") || itemprop.equals("priceCurrency"))) {
+            return true;
+        }
+        String value = content;
+        if (value == null) {
+            if (text == null) {
+                return false;
+            }
+            value = text.trim();
+        }
+        if (value.isEmpty()) {
+            return true;
+        }
+        if (itemprop.equals("price") && itemPrice == null) {
+            //The content attribute is the machine readable value, the text is written for people
+            itemPrice = content != null ? parseDecimal(value) : parseAmount(value);
+        } else if (itemprop.equals("priceCurrency") && itemCurrency == null) {
+            itemCurrency = value;
+        }
+        return true;
+    }
+
+    /**
+     * Looks for the first offer holding a price and a currency in a JSON-LD block
+     * @param json
+     * @return the price or null if the block is invalid or has no complete offer
+     */
+    private static ExtractedPrice parseJsonLd(String json) {
+        try {
+            return findOffer(Json.parse(json.trim()), false);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ExtractedPrice findOffer(JsonNode node, boolean inOffer) {
+        if (node == null) {
+            return null;
+        }
+        if (node.isArray()) {
+            for (JsonNode element : node) {
+                ExtractedPrice price = findOffer(element, inOffer);
+                if (price != null) return price;
+            }
+            return null;
+        }
+        if (!node.isObject()) {
+            return null;
+        }
+        if (node.has("@graph")) {
+            return findOffer(node.get("@graph"), false);
+        }
+        if (inOffer || isType(node, "Offer") || isType(node, "AggregateOffer")) {
+            JsonNode amount = node.has("price") ? node.get("price") : node.get("lowPrice");
+            ExtractedPrice price = price(amount(amount), text(node.get("priceCurrency")), ExtractionPath.JSON_LD);
+            if (price != null) return price;
+            price = findOffer(node.get("priceSpecification"), true);
+            if (price != null) return price;
+        }
+        return findOffer(node.get("offers"), true);
+    }
+
+    private static boolean isType(JsonNode node, String type) {
+        JsonNode types = node.get("@type");
+        if (types == null) {
+            return false;
+        }
+        if (types.isArray()) {
+            for (JsonNode t : types) {
+                if (type.equals(t.asText())) return true;
+            }
+            return false;
+        }
+        return type.equals(types.asText());
+    }
+
+    private static String text(JsonNode node) {
+        return node == null || node.isNull() ? null : node.asText();
+    }
+
+    private static Float amount(JsonNode node) {
+        if (node == null || node.isNull()) {
+            return null;
+        }
+        return node.isNumber() ? (float) node.asDouble() : parseDecimal(node.asText());
+    }
+
+    private static ExtractedPrice price(Float value, String currency, ExtractionPath path) {
+        if (value == null || currency == null) {
+            return null;
+        }
+        currency = currency.trim();
+        if (!PriceExtractor.isCurrency(currency)) {
+            return null;
+        }
+        return new ExtractedPrice(value, currency, path);
+    }
+
+    /**
+     * Parses a machine readable amount(JSON-LD, microdata content), which schema.org requires to use a dot as the
+     * decimal separator: 12.500 is 12.5. Commas are dropped as grouping separators.
+     * @param amount
+     * @return the value or null if it isn't a number
+     */
+    static Float parseDecimal(String amount) {
+        String digits = amount.replaceAll("[^0-9.]", "");
+        if (digits.isEmpty()) {
+            return null;
+        }
+        try {
+            return Float.parseFloat(digits);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Parses an amount written for people(meta tags, microdata text) with either decimal separator, e.g. 1299.99, 1,299.99 or 1.299,99. When both are used
+     * the last one is the decimal separator. A single kind of separator is a grouping one if it appears more than once,
+     * or once followed by exactly three digits after a non zero integer part: 1,299 and 1.299 are both 1299, while
+     * 12,5, 12.50 and 0.500 are decimal.
+     * @param amount
+     * @return the value or null if it isn't a number
+     */
+    static Float parseAmount(String amount) {
+        String digits = amount.replaceAll("[^0-9.,]", "");
+        if (digits.isEmpty()) {
+            return null;
+        }
+        int comma = digits.lastIndexOf(',');
+        int dot = digits.lastIndexOf('.');
+        if (comma >= 0 && dot >= 0) {
+            //The last separator is the decimal one
+            digits = comma > dot ? digits.replace(".", "").replace(',', '.') : digits.replace(",", "");
+        } else if (comma >= 0 || dot >= 0) {
+            char separator = comma >= 0 ? ',' : '.';
+            int last = Math.max(comma, dot);
+            String integer = digits.substring(0, last);
+            boolean grouping = digits.indexOf(separator) != last
+                    || (digits.length() - last - 1 == 3 && !integer.replace("0", "").isEmpty());
+            digits = grouping ? digits.replace(String.valueOf(separator), "") : digits.replace(separator, '.');
+        }
+        try {
+            return Float.parseFloat(digits);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, String> attributes(String tag) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(tag);
+        while (matcher.find()) {
+            String value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3) != null ? matcher.group(3) : matcher.group(4);
+            attributes.putIfAbsent(matcher.group(1).toLowerCase(), value);
+        }
+        return attributes;
+    }
+
+    private static int indexOfIgnoreCase(StringBuilder text, String needle, int from) {
+        for (int i = from; i <= text.length() - needle.length(); i++) {
+            if (text.charAt(i) == '<' && text.substring(i, i + needle.length()).equalsIgnoreCase(needle)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
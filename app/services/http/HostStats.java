@@ -0,0 +1,50 @@
+package services.http;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request counters of a single host, serialized as is by the metrics endpoint
+ */
+public class HostStats {
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    void started() {
+        requests.incrementAndGet();
+        peakInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+    }
+
+    void finished(boolean success, long nanos) {
+        inFlight.decrementAndGet();
+        totalNanos.addAndGet(nanos);
+        if (!success) {
+            failures.incrementAndGet();
+        }
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getFailures() {
+        return failures.get();
+    }
+
+    public long getAverageMillis() {
+        long done = requests.get() - inFlight.get();
+        return done <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.get() / done);
+    }
+}
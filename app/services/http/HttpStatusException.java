@@ -0,0 +1,28 @@
+package services.http;
+
+import java.io.IOException;
+
+/**
+ * An HTTP error status answered by a remote server
+ */
+public class HttpStatusException extends IOException {
+    private static final long serialVersionUID = 1L;
+    private final int status;
+
+    public HttpStatusException(int status, String url) {
+        super("HTTP " + status + " for " + url);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * Server errors and throttling are expected to go away, other statuses are not
+     * @return
+     */
+    public boolean isTransient() {
+        return status >= 500 || status == 429 || status == 408;
+    }
+}
@@ -0,0 +1,125 @@
+package services.http;
+
+import play.Configuration;
+import play.Logger;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSRequest;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.net.URI;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The single outbound HTTP client of the application, used for product pages, keyword parsing and exchange rates.
+ *
+ * Requests go through the Play WS client, whose AsyncHttpClient keeps a connection pool per host with keep-alive,
+ * TLS session reuse and gzip/deflate decoding, all configured under play.ws. How long host names are cached is a JVM
+ * setting, see the start options in build.sbt. The WS client doesn't expose the open and idle connections of its pool,
+ * so every request is counted per host instead and the load on each retailer can be watched, see {@link #stats()}.
+ */
+@Singleton
+public class OutboundHttpClient {
+    private final WSClient ws;
+    //Product token of the crawler, the one looked for in robots.txt
+    private final String agent;
+    private final String userAgent;
+    private final long timeoutMillis;
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+
+    @Inject
+    public OutboundHttpClient(WSClient ws, Configuration configuration) {
+        this.ws = ws;
+        this.agent = configuration.getString("crawler.politeness.agent", "priceindexer");
+        this.userAgent = "Mozilla/5.0 (compatible; " + agent + ")";
+        this.timeoutMillis = configuration.getMilliseconds("http.requestTimeout", 30000L);
+    }
+
+    /**
+     * Prepares a request with the crawler user agent, timeout and redirect handling
+     * @param url
+     * @return
+     */
+    public WSRequest url(String url) {
+        return ws.url(url)
+                .setHeader("User-Agent", userAgent)
+                .setFollowRedirects(true)
+                .setRequestTimeout(timeoutMillis);
+    }
+
+    /**
+     * Downloads the body of url, for callers that only need the text of a page
+     * @param url
+     * @return the body, fails for HTTP error statuses
+     */
+    public CompletionStage<String> get(String url) {
+        return track(url, () -> url(url).get().thenApply(response -> {
+            if (response.getStatus() >= 400) {
+                throw new CompletionException(new HttpStatusException(response.getStatus(), url));
+            }
+            return response.getBody();
+        }));
+    }
+
+    /**
+     * Counts the exchange started by request against the host of url until the returned stage completes. The stage
+     * should only complete once the body was read, so streamed responses are counted for as long as they hold the
+     * connection.
+     * @param url
+     * @param request
+     * @return the stage returned by request
+     */
+    public <T> CompletionStage<T> track(String url, Supplier<CompletionStage<T>> request) {
+        HostStats stats = hosts.computeIfAbsent(hostOf(url), host -> new HostStats());
+        stats.started();
+        long start = System.nanoTime();
+        CompletionStage<T> stage;
+        try {
+            stage = request.get();
+        } catch (RuntimeException e) {
+            stats.finished(false, System.nanoTime() - start);
+            CompletableFuture<T> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return stage.whenComplete((result, error) -> stats.finished(error == null, System.nanoTime() - start));
+    }
+
+    /**
+     * Request counters, they tell how busy each host is but not how many pooled connections are open
+     * @return stats by host, sorted by host name
+     */
+    public Map<String, HostStats> stats() {
+        return new TreeMap<>(hosts);
+    }
+
+    /**
+     * @return default timeout of a whole request in milliseconds, see http.requestTimeout
+     */
+    public long getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * @return product token sent in the User-Agent header of every request, see crawler.politeness.agent
+     */
+    public String getAgent() {
+        return agent;
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "unknown" : host.toLowerCase();
+        } catch (IllegalArgumentException e) {
+            Logger.info("Could not read host of " + url);
+            return "unknown";
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package services.onboarding;
+
+/**
+ * Formats of a bulk product import, one product per line
+ */
+public enum ImportFormat {
+    //One JSON object per line: {"prodName": "..", "linkAddress": ".."}
+    NDJSON,
+    //A header line naming the prodName and linkAddress columns, then one product per line
+    CSV;
+
+    /**
+     * @param contentType Content-Type header of the upload, may be null
+     * @return the format, null if it isn't supported
+     */
+    public static ImportFormat fromContentType(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        String mediaType = contentType.split(";", 2)[0].trim().toLowerCase();
+        switch (mediaType) {
+            case "application/x-ndjson":
+            case "application/ndjson":
+                return NDJSON;
+            case "text/csv":
+                return CSV;
+            default:
+                return null;
+        }
+    }
+}
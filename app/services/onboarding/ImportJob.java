@@ -0,0 +1,139 @@
+package services.onboarding;
+
+import play.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bulk product import, serialized as is by the import job endpoint.
+ *
+ * Every row of the upload ends up either imported or failed; only the first MAX_ERRORS errors are kept.
+ */
+public class ImportJob {
+    private static final int MAX_ERRORS = 1000;
+
+    /**
+     * Why a row of the upload wasn't imported
+     */
+    public static class RowError {
+        private final long line;
+        private final String error;
+
+        RowError(long line, String error) {
+            this.line = line;
+            this.error = error;
+        }
+
+        public long getLine() {
+            return line;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final Long id;
+    private final ImportFormat format;
+    private final int rows;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt = 0;
+    private volatile String error;
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger imported = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final List<RowError> errors = new ArrayList<>();
+
+    ImportJob(Long id, ImportFormat format, int rows) {
+        this.id = id;
+        this.format = format;
+        this.rows = rows;
+    }
+
+    /**
+     * The page of a product was read
+     */
+    void fetched() {
+        fetched.incrementAndGet();
+    }
+
+    void imported(int count) {
+        imported.addAndGet(count);
+    }
+
+    void rowFailed(long line, String error) {
+        failed.incrementAndGet();
+        synchronized (errors) {
+            if (errors.size() < MAX_ERRORS) errors.add(new RowError(line, error));
+        }
+    }
+
+    void finished() {
+        finishedAt = System.currentTimeMillis();
+        Logger.info("Import job " + id + " finished: " + imported.get() + " imported, " + failed.get() + " failed");
+    }
+
+    /**
+     * The import stopped before all rows were done, e.g. because the database was unavailable
+     * @param error
+     */
+    void failed(String error) {
+        this.error = error;
+        finishedAt = System.currentTimeMillis();
+        Logger.error("Import job " + id + " failed: " + error);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public ImportFormat getFormat() {
+        return format;
+    }
+
+    public String getStatus() {
+        return finishedAt == 0 ? "running" : error == null ? "finished" : "failed";
+    }
+
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    public Date getStartedAt() {
+        return new Date(startedAt);
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt == 0 ? null : new Date(finishedAt);
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getFetched() {
+        return fetched.get();
+    }
+
+    public int getImported() {
+        return imported.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public List<RowError> getErrors() {
+        synchronized (errors) {
+            return Collections.unmodifiableList(new ArrayList<>(errors));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package services.onboarding;
+
+import models.Category;
+import models.Site;
+
+/**
+ * A product of a bulk import while it goes through the import pipeline
+ */
+class ImportRow {
+    final long line;
+    final String prodName;
+    final String linkAddress;
+    Site site;
+    String[] keywords;
+    Category category;
+
+    ImportRow(long line, String prodName, String linkAddress) {
+        this.line = line;
+        this.prodName = prodName;
+        this.linkAddress = linkAddress;
+    }
+}
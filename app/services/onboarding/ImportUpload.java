@@ -0,0 +1,154 @@
+package services.onboarding;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import play.libs.Json;
+import utils.URLFixer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rows of a bulk import upload, read line by line while the request body streams in. Only valid products are
+ * kept, each invalid row is kept as an error for the {@link ImportJob}.
+ *
+ * CSV fields may be quoted("" inside quotes being a quote), quoted fields can't span lines. A CSV upload without a
+ * prodName and a linkAddress column in its header is rejected as a whole.
+ */
+public class ImportUpload {
+    private final ImportFormat format;
+    private final int maxRows;
+    private final List<ImportRow> rows = new ArrayList<>();
+    private final List<ImportJob.RowError> errors = new ArrayList<>();
+    private long line = 0;
+    private int nameColumn = -1;
+    private int linkColumn = -1;
+
+    public ImportUpload(ImportFormat format, int maxRows) {
+        this.format = format;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * Reads the next line of the upload
+     * @param text without its line break
+     * @throws IllegalArgumentException if the CSV header lacks a column
+     */
+    public void read(String text) {
+        line++;
+        if (text.endsWith("\r")) {
+            text = text.substring(0, text.length() - 1);
+        }
+        if (text.trim().isEmpty()) {
+            return;
+        }
+        if (format == ImportFormat.CSV && nameColumn < 0) {
+            header(parseCsv(text));
+            return;
+        }
+        if (rows.size() + errors.size() >= maxRows) {
+            if (rows.size() + errors.size() == maxRows) {
+                errors.add(new ImportJob.RowError(line, "More than " + maxRows + " rows, the rest of the upload was skipped"));
+            }
+            return;
+        }
+        String prodName;
+        String linkAddress;
+        if (format == ImportFormat.CSV) {
+            List<String> fields = parseCsv(text);
+            prodName = nameColumn < fields.size() ? fields.get(nameColumn) : null;
+            linkAddress = linkColumn < fields.size() ? fields.get(linkColumn) : null;
+        } else {
+            JsonNode json;
+            try {
+                json = Json.parse(text);
+            } catch (RuntimeException e) {
+                errors.add(new ImportJob.RowError(line, "Invalid JSON"));
+                return;
+            }
+            prodName = json.hasNonNull("prodName") ? json.get("prodName").asText() : null;
+            linkAddress = json.hasNonNull("linkAddress") ? json.get("linkAddress").asText() : null;
+        }
+        String error = validate(prodName, linkAddress);
+        if (error != null) {
+            errors.add(new ImportJob.RowError(line, error));
+        } else {
+            rows.add(new ImportRow(line, prodName.trim(), URLFixer.fixURL(linkAddress.trim())));
+        }
+    }
+
+    public ImportFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return number of valid rows read so far
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    public List<ImportJob.RowError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    List<ImportRow> getRows() {
+        return rows;
+    }
+
+    private void header(List<String> columns) {
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).trim().equalsIgnoreCase("prodName")) nameColumn = i;
+            if (columns.get(i).trim().equalsIgnoreCase("linkAddress")) linkColumn = i;
+        }
+        if (nameColumn < 0 || linkColumn < 0) {
+            throw new IllegalArgumentException("The CSV header needs a prodName and a linkAddress column");
+        }
+    }
+
+    /**
+     * Same constraints as the product form, see models.Product
+     * @param prodName
+     * @param linkAddress
+     * @return the error, null if the row is valid
+     */
+    private static String validate(String prodName, String linkAddress) {
+        if (prodName == null || prodName.trim().isEmpty()) return "Missing prodName";
+        if (prodName.trim().length() < 4 || prodName.trim().length() > 128) return "prodName must have 4 to 128 characters";
+        if (linkAddress == null || linkAddress.trim().isEmpty()) return "Missing linkAddress";
+        if (linkAddress.trim().length() < 20 || linkAddress.trim().length() > 512) return "linkAddress must have 20 to 512 characters";
+        return null;
+    }
+
+    /**
+     * @param text a CSV line
+     * @return its fields, unquoted
+     */
+    static List<String> parseCsv(String text) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
@@ -0,0 +1,65 @@
+package services.onboarding;
+
+import models.Site;
+import services.crawler.FetchedPage;
+import services.crawler.HostRateLimiter;
+import services.crawler.PageFetcher;
+import services.crawler.RobotsTxtCache;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Fetches the pages of products that are being added, following the robots.txt and the request budget of their site
+ * like every other crawl
+ */
+@Singleton
+public class OnboardingFetcher {
+    private final PageFetcher pageFetcher;
+    private final RobotsTxtCache robots;
+    private final HostRateLimiter rateLimiter;
+
+    @Inject
+    public OnboardingFetcher(PageFetcher pageFetcher, RobotsTxtCache robots, HostRateLimiter rateLimiter) {
+        this.pageFetcher = pageFetcher;
+        this.robots = robots;
+        this.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Downloads the whole page found at link, once robots.txt allows it and the site has a request token left
+     * @param site
+     * @param link
+     * @return the page, fails if the site wasn't saved, if robots.txt disallows it or with an HttpStatusException for
+     * HTTP error statuses
+     */
+    public CompletionStage<FetchedPage> fetch(Site site, String link) {
+        CompletableFuture<FetchedPage> failed = new CompletableFuture<>();
+        //The request budget is kept by site id
+        if (site == null || site.getId() == null) {
+            failed.completeExceptionally(new IllegalArgumentException("No saved site for " + link));
+            return failed;
+        }
+        URL url;
+        try {
+            url = new URL(link);
+        } catch (MalformedURLException e) {
+            failed.completeExceptionally(new IllegalArgumentException("Invalid link " + link));
+            return failed;
+        }
+        return robots.forUrl(url)
+                .thenCompose(robotsRules -> {
+                    rateLimiter.configure(site, robotsRules.getCrawlDelay());
+                    if (!robotsRules.isAllowed(url.getFile())) {
+                        throw new CompletionException(new IllegalStateException("robots.txt disallows fetching " + link));
+                    }
+                    return rateLimiter.whenAllowed(site.getId());
+                })
+                .thenCompose(allowed -> pageFetcher.fetch(link, null));
+    }
+}
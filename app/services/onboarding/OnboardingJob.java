@@ -0,0 +1,117 @@
+package services.onboarding;
+
+import services.IndexOutcome;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Progress of adding a product, serialized as is by the onboarding endpoint
+ */
+public class OnboardingJob {
+    public enum Step {
+        //Waiting on robots.txt and the download of the page
+        FETCHING,
+        //Reading keywords from the parsed page
+        EXTRACTING,
+        //Storing the product with its keywords and category
+        SAVING,
+        //Extracting and storing the first price from the same page
+        PRICING,
+        DONE,
+        FAILED
+    }
+
+    private final Long id;
+    private final String productName;
+    private final String link;
+    private final long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt = 0;
+    private volatile Step step = Step.FETCHING;
+    private volatile Long productId;
+    private volatile List<String> keywords = Collections.emptyList();
+    private volatile String category;
+    private volatile IndexOutcome priceOutcome;
+    private volatile String error;
+
+    OnboardingJob(Long id, String productName, String link) {
+        this.id = id;
+        this.productName = productName;
+        this.link = link;
+    }
+
+    void step(Step step) {
+        this.step = step;
+    }
+
+    void saved(Long productId, String[] keywords, String category) {
+        this.productId = productId;
+        this.keywords = Arrays.asList(keywords);
+        this.category = category;
+    }
+
+    void finished(IndexOutcome priceOutcome) {
+        this.priceOutcome = priceOutcome;
+        this.step = Step.DONE;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    void failed(String error) {
+        this.error = error;
+        this.step = Step.FAILED;
+        this.finishedAt = System.currentTimeMillis();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public String getLink() {
+        return link;
+    }
+
+    public Step getStep() {
+        return step;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    public Long getProductId() {
+        return productId;
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * @return outcome of the first price extraction, null until the product was saved
+     */
+    public IndexOutcome getPriceOutcome() {
+        return priceOutcome;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Date getStartedAt() {
+        return new Date(startedAt);
+    }
+
+    public Date getFinishedAt() {
+        return finishedAt == 0 ? null : new Date(finishedAt);
+    }
+}
@@ -0,0 +1,228 @@
+package services.onboarding;
+
+import akka.actor.ActorSystem;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Framing;
+import akka.stream.javadsl.FramingTruncation;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import models.Category;
+import models.Product;
+import models.Site;
+import models.dao.CategoryDAO;
+import models.dao.ProductDAO;
+import models.dao.SiteDAO;
+import org.jsoup.Jsoup;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import services.search.SearchCache;
+import utils.KeywordAnalysis;
+import utils.LinkParser;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bulk product imports.
+ *
+ * The upload is read line by line while it streams in(see {@link ImportUpload}), only the parsed rows are kept. The
+ * import then runs in the background: sites and categories are loaded once and resolved in memory, the pages of up to
+ * productImport.fetchConcurrency products are fetched at once for their keywords(see {@link OnboardingFetcher}), and
+ * products, keywords and crawl states are inserted in JDBC batches of productImport.batchSize, one transaction per
+ * batch. Imported products are due for indexing right away, their prices come with the next crawl.
+ */
+@Singleton
+public class ProductImport {
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, ImportJob> jobs;
+    private final JPAApi jpa;
+    private final OnboardingFetcher fetcher;
+    private final Materializer materializer;
+    private final Executor dbContext;
+    private final Executor extractContext;
+    private final KeywordAnalysis keywordAnalysis;
+    private final SearchCache searchCache;
+    private final int batchSize;
+    private final int fetchConcurrency;
+    private final int maxLineBytes;
+    private final int maxRows;
+
+    /**
+     * Sites by URL and all categories, loaded once per import
+     */
+    private static class Catalog {
+        private final Map<String, Site> sites = new HashMap<>();
+        private final List<Category> categories;
+
+        private Catalog(List<Site> sites, List<Category> categories) {
+            for (Site site : sites) this.sites.put(site.getSiteURL(), site);
+            this.categories = categories == null ? new ArrayList<>() : categories;
+        }
+    }
+
+    @Inject
+    public ProductImport(JPAApi jpa, OnboardingFetcher fetcher, KeywordAnalysis keywordAnalysis, SearchCache searchCache,
+                         Materializer materializer, ActorSystem actorSystem, Configuration configuration) {
+        this.jpa = jpa;
+        this.fetcher = fetcher;
+        this.keywordAnalysis = keywordAnalysis;
+        this.searchCache = searchCache;
+        this.materializer = materializer;
+        this.dbContext = actorSystem.dispatchers().lookup("akka.actor.db-context");
+        this.extractContext = actorSystem.dispatchers().lookup("akka.actor.crawler-extract-context");
+        this.batchSize = configuration.getInt("productImport.batchSize", 500);
+        this.fetchConcurrency = configuration.getInt("productImport.fetchConcurrency", 16);
+        this.maxLineBytes = configuration.getBytes("productImport.maxLineBytes", 8192L).intValue();
+        this.maxRows = configuration.getInt("productImport.maxRows", 100000);
+        int keep = configuration.getInt("crawler.jobs.keep", 1000);
+        this.jobs = new LinkedHashMap<Long, ImportJob>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ImportJob> eldest) {
+                return size() > keep;
+            }
+        };
+    }
+
+    /**
+     * Reads an upload line by line as it arrives
+     * @param format
+     * @return completes with the rows once the whole upload was read, fails if a line is longer than
+     * productImport.maxLineBytes or the CSV header is invalid
+     */
+    public Sink<ByteString, CompletionStage<ImportUpload>> reader(ImportFormat format) {
+        ImportUpload upload = new ImportUpload(format, maxRows);
+        return Framing.delimiter(ByteString.fromString("\n"), maxLineBytes, FramingTruncation.ALLOW)
+                .map(ByteString::utf8String)
+                .toMat(Sink.fold(upload, (read, line) -> {
+                    read.read(line);
+                    return read;
+                }), Keep.right());
+    }
+
+    /**
+     * Starts importing the rows of an upload
+     * @param upload
+     * @return the job following its progress
+     */
+    public ImportJob start(ImportUpload upload) {
+        ImportJob job = new ImportJob(ids.incrementAndGet(), upload.getFormat(), upload.getRowCount() + upload.getErrors().size());
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+        for (ImportJob.RowError error : upload.getErrors()) {
+            job.rowFailed(error.getLine(), error.getError());
+        }
+        CompletableFuture.supplyAsync(() -> jpa.withTransaction(() ->
+                new Catalog(new SiteDAO().getAllSites(), new CategoryDAO().getAllCategories())), dbContext)
+                .thenCompose(catalog -> Source.from(upload.getRows())
+                        .filter(row -> resolveSite(row, catalog, job))
+                        .mapAsyncUnordered(fetchConcurrency, row -> readKeywords(row, catalog, job))
+                        .filter(row -> row.category != null)
+                        .grouped(batchSize)
+                        .mapAsync(1, batch -> CompletableFuture.supplyAsync(() -> insert(batch, job), dbContext))
+                        .runWith(Sink.ignore(), materializer))
+                .whenComplete((done, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        job.failed(cause.getMessage());
+                    } else {
+                        job.finished();
+                    }
+                });
+        return job;
+    }
+
+    /**
+     * @param id
+     * @return the job or null if it is unknown or too old
+     */
+    public ImportJob get(Long id) {
+        if (id == null) {
+            return null;
+        }
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    private static boolean resolveSite(ImportRow row, Catalog catalog, ImportJob job) {
+        try {
+            row.site = catalog.sites.get(LinkParser.parseSite(row.linkAddress));
+        } catch (RuntimeException e) {
+            job.rowFailed(row.line, "Invalid link");
+            return false;
+        }
+        if (row.site == null) {
+            job.rowFailed(row.line, "No such site");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Fetches the page of the product for its keywords and determines its category; failures are reported on the job
+     * @param row
+     * @param catalog
+     * @param job
+     * @return the row, without a category if it failed
+     */
+    private CompletionStage<ImportRow> readKeywords(ImportRow row, Catalog catalog, ImportJob job) {
+        return fetcher.fetch(row.site, row.linkAddress)
+                .thenApplyAsync(page -> {
+                    job.fetched();
+                    row.keywords = ProductOnboarding.keywords(keywordAnalysis, Jsoup.parse(page.getBody(), row.linkAddress), row.linkAddress, row.prodName);
+                    row.category = CategoryDAO.determineCategory(row.keywords, catalog.categories);
+                    if (row.category == null) {
+                        job.rowFailed(row.line, "No category found");
+                    }
+                    return row;
+                }, extractContext)
+                .exceptionally(error -> {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                    job.rowFailed(row.line, "Could not read the page: " + cause.getMessage());
+                    return row;
+                });
+    }
+
+    /**
+     * Inserts a batch of products in one transaction, a failed batch fails all of its rows
+     * @param batch
+     * @param job
+     * @return number of products imported
+     */
+    private int insert(List<ImportRow> batch, ImportJob job) {
+        List<Product> products = new ArrayList<>(batch.size());
+        List<String[]> keywords = new ArrayList<>(batch.size());
+        for (ImportRow row : batch) {
+            Product product = new Product();
+            product.setProdName(row.prodName);
+            product.setLinkAddress(row.linkAddress);
+            product.setSite(row.site);
+            product.setCategory(row.category);
+            products.add(product);
+            keywords.add(row.keywords);
+        }
+        try {
+            jpa.withTransaction(() -> new ProductDAO(searchCache).createAll(products, keywords));
+        } catch (RuntimeException e) {
+            for (ImportRow row : batch) job.rowFailed(row.line, "Could not save the product: " + e.getMessage());
+            return 0;
+        }
+        job.imported(batch.size());
+        return batch.size();
+    }
+}
@@ -0,0 +1,166 @@
+package services.onboarding;
+
+import akka.actor.ActorSystem;
+import models.Category;
+import models.Keyword;
+import models.Product;
+import models.dao.CategoryDAO;
+import models.dao.ProductDAO;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import play.Configuration;
+import play.Logger;
+import play.db.jpa.JPAApi;
+import services.ProductService;
+import services.crawler.DeadLetterStore;
+import services.crawler.FetchedPage;
+import utils.KeywordAnalysis;
+import utils.LinkParser;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adds products in the background: the page of a new product is fetched once and parsed once, its keywords, category
+ * and first price all come from that same document. The caller gets an {@link OnboardingJob} right away.
+ *
+ * The page is fetched by the {@link OnboardingFetcher}. The last crawler.jobs.keep jobs can be looked up.
+ */
+@Singleton
+public class ProductOnboarding {
+    private final AtomicLong ids = new AtomicLong();
+    private final Map<Long, OnboardingJob> jobs;
+    private final JPAApi jpa;
+    private final OnboardingFetcher fetcher;
+    private final ProductService productService;
+    private final DeadLetterStore deadLetters;
+    private final Executor dbContext;
+    private final Executor extractContext;
+    private final KeywordAnalysis keywordAnalysis;
+    //Taken inside each transaction, a DAO holds the entity manager of the transaction it was created in
+    private final Provider<ProductDAO> productDAO;
+
+    @Inject
+    public ProductOnboarding(JPAApi jpa, OnboardingFetcher fetcher, ProductService productService, DeadLetterStore deadLetters,
+                             KeywordAnalysis keywordAnalysis, Provider<ProductDAO> productDAO, ActorSystem actorSystem,
+                             Configuration configuration) {
+        this.jpa = jpa;
+        this.fetcher = fetcher;
+        this.productService = productService;
+        this.deadLetters = deadLetters;
+        this.keywordAnalysis = keywordAnalysis;
+        this.productDAO = productDAO;
+        this.dbContext = actorSystem.dispatchers().lookup("akka.actor.db-context");
+        this.extractContext = actorSystem.dispatchers().lookup("akka.actor.crawler-extract-context");
+        int keep = configuration.getInt("crawler.jobs.keep", 1000);
+        this.jobs = new LinkedHashMap<Long, OnboardingJob>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, OnboardingJob> eldest) {
+                return size() > keep;
+            }
+        };
+    }
+
+    /**
+     * Starts adding a product whose link and site are set
+     * @param product not saved yet
+     * @return the job following its progress
+     */
+    public OnboardingJob start(Product product) {
+        OnboardingJob job = new OnboardingJob(ids.incrementAndGet(), product.getProdName(), product.getLinkAddress());
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+        }
+        Long siteId = product.getSite().getId();
+        String link = product.getLinkAddress();
+        FetchedPage[] fetched = new FetchedPage[1];
+        fetcher.fetch(product.getSite(), link)
+                .thenApplyAsync(page -> {
+                    job.step(OnboardingJob.Step.EXTRACTING);
+                    fetched[0] = page;
+                    return keywords(keywordAnalysis, Jsoup.parse(page.getBody(), link), link, product.getProdName());
+                }, extractContext)
+                .thenApplyAsync(keywords -> {
+                    job.step(OnboardingJob.Step.SAVING);
+                    Category category = jpa.withTransaction(() -> save(product, keywords));
+                    job.saved(product.getId(), keywords, category == null ? null : category.getCatName());
+                    Logger.info("Added product: " + product.getProdName() + " " + String.join(" ", keywords));
+                    return product.getId();
+                }, dbContext)
+                .thenCompose(productId -> {
+                    job.step(OnboardingJob.Step.PRICING);
+                    return productService.indexPage(productId, fetched[0]);
+                })
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                        Logger.error("Could not add product " + product.getProdName() + ": " + cause.getMessage());
+                        job.failed(cause.getMessage());
+                        return;
+                    }
+                    deadLetters.finished(siteId, result);
+                    job.finished(result.getOutcome());
+                });
+        return job;
+    }
+
+    /**
+     * @param id
+     * @return the job or null if it is unknown or too old
+     */
+    public OnboardingJob get(Long id) {
+        if (id == null) {
+            return null;
+        }
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    /**
+     * Keywords of a product, from the meta tag of its page or else from its name
+     * @param analysis
+     * @param document
+     * @param link
+     * @param prodName
+     * @return
+     */
+    static String[] keywords(KeywordAnalysis analysis, Document document, String link, String prodName) {
+        String[] keywords = LinkParser.parseKeywordsFromDocument(analysis, document, link);
+        if (keywords.length == 1 && keywords[0].equals("getFromName")) {
+            keywords = LinkParser.parseKeywordsFromName(analysis, prodName);
+        }
+        return keywords;
+    }
+
+    /**
+     * Stores the product with its keywords, inside a transaction
+     * @param product
+     * @param keywords
+     * @return the category given to the product
+     */
+    private Category save(Product product, String[] keywords) {
+        Set<Keyword> keywordSet = new HashSet<>();
+        for (String keyword : keywords) {
+            Keyword temp = new Keyword();
+            temp.setId(null);
+            temp.setProduct(product);
+            temp.setKeyword(keyword);
+            keywordSet.add(temp);
+        }
+        product.setKeywords(keywordSet);
+        product.setCategory(new CategoryDAO().determineCategory(keywords));
+        productDAO.get().create(product);
+        return product.getCategory();
+    }
+}
@@ -0,0 +1,305 @@
+package services.search;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalListener;
+import org.hibernate.Session;
+import play.Configuration;
+import utils.KeywordAnalysis;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ids of the products found by recent searches, keyed by the analyzed terms of the query, its filters and its page.
+ *
+ * Entries are bounded by search.cache.maxEntries and expire after search.cache.ttl. An entry is invalidated as soon
+ * as a product it holds changes, or a product gets keywords one of its terms could match: a new product, new keywords
+ * or a new price(see models.dao.ProductDAO and models.dao.KeywordDAO). Invalidations run right away and once more when
+ * the transaction of the change completes, so that a search running in between can't keep the old result: the last
+ * invalidations are remembered and a result is only stored if none of them since its search started was about one of
+ * its terms or one of the products it found.
+ */
+@Singleton
+public class SearchCache {
+    //Query string parameters that change the result, the others don't take part in the key
+    private static final List<String> PARAMETERS = Arrays.asList("min-price", "max-price", "category", "offset", "limit");
+    //Invalidations remembered, a search that started before the oldest of them isn't stored
+    private static final int RECENT_INVALIDATIONS = 1000;
+
+    /**
+     * Cache key of a search
+     */
+    public static class Key {
+        private final String value;
+        private final Set<String> terms;
+
+        private Key(String value, Set<String> terms) {
+            this.value = value;
+            this.terms = terms;
+        }
+    }
+
+    private static class Entry {
+        private final List<Long> productIds;
+        private final Set<String> terms;
+
+        private Entry(List<Long> productIds, Set<String> terms) {
+            this.productIds = productIds;
+            this.terms = terms;
+        }
+    }
+
+    /**
+     * Products and analyzed terms of an invalidation, both null if everything was invalidated
+     */
+    private static class Invalidation {
+        private final long version;
+        private final Set<Long> productIds;
+        private final Set<String> terms;
+
+        private Invalidation(long version, Set<Long> productIds, Set<String> terms) {
+            this.version = version;
+            this.productIds = productIds;
+            this.terms = terms;
+        }
+
+        private boolean concerns(Set<String> terms, Collection<Long> productIds) {
+            return this.terms == null || !Collections.disjoint(this.terms, terms) || !Collections.disjoint(this.productIds, productIds);
+        }
+    }
+
+    private final Cache<String, Entry> cache;
+    //Keys of the entries holding a product, and of the entries searching for a term
+    private final Map<Long, Set<String>> byProduct = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> byTerm = new ConcurrentHashMap<>();
+    //Bumped by every invalidation, recent ones are kept oldest first; both only change while holding recent
+    private final AtomicLong version = new AtomicLong();
+    private final Deque<Invalidation> recent = new ArrayDeque<>();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final KeywordAnalysis keywordAnalysis;
+
+    @Inject
+    public SearchCache(Configuration configuration, KeywordAnalysis keywordAnalysis) {
+        this(configuration.getInt("search.cache.maxEntries", 1000), configuration.getMilliseconds("search.cache.ttl", 600000L),
+                keywordAnalysis);
+    }
+
+    public SearchCache(int maxEntries, long ttlMillis, KeywordAnalysis keywordAnalysis) {
+        this.keywordAnalysis = keywordAnalysis;
+        RemovalListener<String, Entry> unindex = removal -> {
+            Entry entry = removal.getValue();
+            if (entry == null) return;
+            for (Long productId : entry.productIds) unindex(byProduct, productId, removal.getKey());
+            for (String term : entry.terms) unindex(byTerm, term, removal.getKey());
+        };
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .removalListener(unindex)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param productName
+     * @param queryString
+     * @return the key of the search, null if it can't be cached
+     */
+    public Key key(String productName, Set<Map.Entry<String, String[]>> queryString) {
+        Set<String> terms = new TreeSet<>(Arrays.asList(keywordAnalysis.analyze(productName)));
+        return key(terms, queryString);
+    }
+
+    /**
+     * @param terms analyzed terms of the query
+     * @param queryString
+     * @return the key of the search, null if it can't be cached
+     */
+    public static Key key(Set<String> terms, Set<Map.Entry<String, String[]>> queryString) {
+        Map<String, String> parameters = new TreeMap<>();
+        try {
+            for (Map.Entry<String, String[]> entry : queryString) {
+                if (!PARAMETERS.contains(entry.getKey()) || entry.getValue().length == 0) continue;
+                String value = entry.getValue()[0];
+                switch (entry.getKey()) {
+                    case "min-price":
+                    case "max-price":
+                        value = Float.toString(Float.parseFloat(value));
+                        break;
+                    case "category":
+                        value = value.toUpperCase();
+                        break;
+                    default:
+                        value = Integer.toString(Integer.parseInt(value));
+                }
+                parameters.put(entry.getKey(), value);
+            }
+        } catch (NumberFormatException e) {
+            //Rejected by the search itself
+            return null;
+        }
+        return new Key(String.join(" ", new TreeSet<>(terms)) + "|" + parameters, new TreeSet<>(terms));
+    }
+
+    /**
+     * @param key
+     * @return the ids of the products found, best first, null if the search isn't cached
+     */
+    public List<Long> get(Key key) {
+        Entry entry = cache.getIfPresent(key.value);
+        return entry == null ? null : entry.productIds;
+    }
+
+    /**
+     * Version to pass to put, read before searching
+     * @return
+     */
+    public long version() {
+        return version.get();
+    }
+
+    /**
+     * Stores the result of a search unless one of its terms or products was invalidated since version was read
+     * @param key
+     * @param productIds
+     * @param version
+     */
+    public void put(Key key, List<Long> productIds, long version) {
+        if (invalidatedSince(version, key.terms, productIds)) {
+            return;
+        }
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<>(productIds)), key.terms);
+        //Indexed before being visible, an invalidation racing with the put still finds it
+        for (Long productId : entry.productIds) index(byProduct, productId, key.value);
+        for (String term : entry.terms) index(byTerm, term, key.value);
+        cache.put(key.value, entry);
+        if (invalidatedSince(version, key.terms, productIds)) {
+            cache.invalidate(key.value);
+        }
+    }
+
+    /**
+     * @param version
+     * @param terms
+     * @param productIds
+     * @return true if an invalidation since version concerns the terms or products, or may have been forgotten
+     */
+    private boolean invalidatedSince(long version, Set<String> terms, Collection<Long> productIds) {
+        synchronized (recent) {
+            if (this.version.get() == version) {
+                return false;
+            }
+            if (recent.isEmpty() || recent.peekFirst().version > version + 1) {
+                return true;
+            }
+            for (Iterator<Invalidation> it = recent.descendingIterator(); it.hasNext(); ) {
+                Invalidation invalidation = it.next();
+                if (invalidation.version <= version) {
+                    return false;
+                }
+                if (invalidation.concerns(terms, productIds)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Remembers an invalidation, before looking for the entries it drops
+     * @param productIds
+     * @param terms
+     */
+    private void record(Set<Long> productIds, Set<String> terms) {
+        synchronized (recent) {
+            recent.addLast(new Invalidation(version.incrementAndGet(), productIds, terms));
+            if (recent.size() > RECENT_INVALIDATIONS) {
+                recent.removeFirst();
+            }
+        }
+    }
+
+    /**
+     * Drops the searches holding one of the products or searching for one of the keywords
+     * @param productIds
+     * @param keywords as stored, they are analyzed again
+     */
+    public void invalidate(Collection<Long> productIds, Collection<String> keywords) {
+        Set<String> terms = keywords.isEmpty() ? Collections.emptySet()
+                : new HashSet<>(Arrays.asList(keywordAnalysis.analyze(String.join(" ", keywords))));
+        record(new HashSet<>(productIds), terms);
+        Set<String> keys = new HashSet<>();
+        for (Long productId : productIds) keys.addAll(byProduct.getOrDefault(productId, Collections.emptySet()));
+        for (String term : terms) keys.addAll(byTerm.getOrDefault(term, Collections.emptySet()));
+        if (!keys.isEmpty()) {
+            invalidations.addAndGet(keys.size());
+            cache.invalidateAll(keys);
+        }
+    }
+
+    /**
+     * Drops every search, e.g. when the whole index is rebuilt
+     */
+    public void invalidateAll() {
+        record(null, null);
+        invalidations.addAndGet(cache.size());
+        cache.invalidateAll();
+    }
+
+    /**
+     * Same as invalidate, right away and once more when the transaction of em completes
+     * @param em
+     * @param productIds
+     * @param keywords
+     */
+    public void invalidateOnCommit(EntityManager em, Collection<Long> productIds, Collection<String> keywords) {
+        List<Long> ids = new ArrayList<>(productIds);
+        List<String> words = new ArrayList<>(keywords);
+        invalidate(ids, words);
+        em.unwrap(Session.class).getTransaction().registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) invalidate(ids, words);
+            }
+        });
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    /**
+     * @return number of entries dropped because of changes
+     */
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    private static <K> void index(Map<K, Set<String>> index, K value, String key) {
+        index.computeIfAbsent(value, v -> ConcurrentHashMap.newKeySet()).add(key);
+    }
+
+    private static <K> void unindex(Map<K, Set<String>> index, K value, String key) {
+        index.computeIfPresent(value, (v, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+}
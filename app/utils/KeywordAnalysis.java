@@ -0,0 +1,76 @@
+package utils;
+
+import models.Keyword;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.hibernate.search.jpa.Search;
+import play.db.jpa.JPAApi;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Turns text into keywords with the analyzer of Keyword.keyword(see models.Keyword), the same one the search index
+ * uses for keywords and for queries on them
+ */
+@Singleton
+public class KeywordAnalysis {
+	private final JPAApi jpaApi;
+	private volatile Analyzer analyzer;
+
+	@Inject
+	public KeywordAnalysis(JPAApi jpaApi) {
+		this.jpaApi = jpaApi;
+	}
+
+	/**
+	 * Analysis with an analyzer that was already built, e.g. in tests
+	 * @param analyzer
+	 */
+	public KeywordAnalysis(Analyzer analyzer) {
+		this.jpaApi = null;
+		this.analyzer = analyzer;
+	}
+
+	/**
+	 * @param text
+	 * @return the distinct keywords of text, in order
+	 */
+	public String[] analyze(String text) {
+		Set<String> keywords = new LinkedHashSet<>();
+		try (TokenStream stream = analyzer().tokenStream("keyword", text)) {
+			CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				keywords.add(term.toString());
+			}
+			stream.end();
+		} catch (IOException e) {
+			//Never thrown while reading a String
+			throw new IllegalStateException(e);
+		}
+		return keywords.toArray(new String[0]);
+	}
+
+	/* The analyzer is built by Hibernate Search from the definition on Keyword, it is thread safe */
+	private Analyzer analyzer() {
+		if (analyzer == null) {
+			synchronized (this) {
+				if (analyzer == null) {
+					EntityManager em = jpaApi.em("default");
+					try {
+						analyzer = Search.getFullTextEntityManager(em).getSearchFactory().getAnalyzer(Keyword.ANALYZER);
+					} finally {
+						em.close();
+					}
+				}
+			}
+		}
+		return analyzer;
+	}
+}
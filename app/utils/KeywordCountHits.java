@@ -0,0 +1,56 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Keeps the best k of the hits matching at least the highest number of keywords found minus one, holding no more than
+ * k hits per number of keywords. The highest number is only known once all the hits were offered, so the best k are
+ * kept for each number that may still be in range.
+ * @param <T>
+ */
+public class KeywordCountHits<T> {
+    private final int k;
+    private final Comparator<T> bestFirst;
+    private final TreeMap<Integer, TopHits<T>> byCount = new TreeMap<>();
+    private int maxCount;
+
+    /**
+     * @param k number of hits kept
+     * @param bestFirst order of the hits, see TopHits
+     * @param maxCount highest number of keywords if known beforehand, e.g. from the hits of a broader search, else 0
+     */
+    public KeywordCountHits(int k, Comparator<T> bestFirst, int maxCount) {
+        this.k = k;
+        this.bestFirst = bestFirst;
+        this.maxCount = maxCount;
+    }
+
+    public void offer(T hit, int count) {
+        if (count > maxCount) {
+            maxCount = count;
+            //Numbers out of range for good
+            byCount.headMap(maxCount - 1).clear();
+        }
+        if (count < maxCount - 1) {
+            return;
+        }
+        byCount.computeIfAbsent(count, c -> new TopHits<>(k, bestFirst)).offer(hit);
+    }
+
+    /**
+     * @param offset number of best hits skipped
+     * @return the hits kept from offset on, best first
+     */
+    public List<T> page(int offset) {
+        List<T> hits = new ArrayList<>();
+        for (TopHits<T> top : byCount.values()) {
+            hits.addAll(top.page(0));
+        }
+        hits.sort(bestFirst);
+        int end = Math.min(k, hits.size());
+        return offset >= end ? new ArrayList<>() : new ArrayList<>(hits.subList(offset, end));
+    }
+}
@@ -0,0 +1,51 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Keeps the best k of any number of hits, holding no more than k of them at any time
+ * @param <T>
+ */
+public class TopHits<T> {
+    //The heap grows as hits come, k may be much more than the hits there are
+    private static final int INITIAL_CAPACITY = 128;
+    private final int k;
+    private final Comparator<T> bestFirst;
+    //The worst hit kept is at the head
+    private final PriorityQueue<T> heap;
+
+    /**
+     * @param k number of hits kept
+     * @param bestFirst order of the hits, it should never find two of them equal so that the order is stable
+     */
+    public TopHits(int k, Comparator<T> bestFirst) {
+        this.k = k;
+        this.bestFirst = bestFirst;
+        this.heap = new PriorityQueue<>(Math.max(1, k < INITIAL_CAPACITY ? k + 1 : INITIAL_CAPACITY), bestFirst.reversed());
+    }
+
+    public void offer(T hit) {
+        if (k <= 0) {
+            return;
+        }
+        if (heap.size() < k) {
+            heap.add(hit);
+        } else if (bestFirst.compare(hit, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(hit);
+        }
+    }
+
+    /**
+     * @param offset number of best hits skipped
+     * @return the hits kept from offset on, best first
+     */
+    public List<T> page(int offset) {
+        List<T> hits = new ArrayList<>(heap);
+        hits.sort(bestFirst);
+        return offset >= hits.size() ? new ArrayList<>() : new ArrayList<>(hits.subList(offset, hits.size()));
+    }
+}
@@ -1,4 +1,7 @@
 package utils;
+
+import java.net.MalformedURLException;
+
 /**
  * Created by octavian.salcianu on 8/3/2016.
  */
@@ -21,4 +24,33 @@ public class URLFixer {
 		}
 		return URL;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Key identifying the page an URL points to, so products listed with slightly different links share one fetch:
+	 * the fixed URL with a lower case host, without default port, fragment or trailing slash
+	 * @param URL
+	 * @return String
+	 */
+	public static String normalize(String URL) {
+		String trimmed = URL.trim();
+		//fixURL only recognizes a lower case scheme and www.
+		int scheme = trimmed.indexOf("://");
+		int hostEnd = scheme < 0 ? 0 : scheme + 3;
+		while (hostEnd < trimmed.length() && "/?#".indexOf(trimmed.charAt(hostEnd)) < 0) {
+			hostEnd++;
+		}
+		String fixed = fixURL(trimmed.substring(0, hostEnd).toLowerCase() + trimmed.substring(hostEnd));
+		try {
+			java.net.URL url = new java.net.URL(fixed);
+			String path = url.getPath();
+			while (path.endsWith("/")) {
+				path = path.substring(0, path.length() - 1);
+			}
+			int port = url.getPort() == url.getDefaultPort() ? -1 : url.getPort();
+			return url.getProtocol() + "://" + url.getHost().toLowerCase() + (port == -1 ? "" : ":" + port) + path
+					+ (url.getQuery() == null ? "" : "?" + url.getQuery());
+		} catch (MalformedURLException e) {
+			return fixed;
+		}
+	}
+}
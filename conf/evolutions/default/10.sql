@@ -0,0 +1,21 @@
+# Dead letters: products whose index runs keep failing
+
+# --- !Ups
+
+CREATE TABLE `db`.`dead_letters` (
+  `product_id` BIGINT(20) NOT NULL,
+  `site_id` BIGINT(20) NULL DEFAULT NULL,
+  `reason` VARCHAR(32) NOT NULL,
+  `attempts` INT(11) NOT NULL DEFAULT 0,
+  `last_error` VARCHAR(1024) NULL DEFAULT NULL,
+  `first_failed` TIMESTAMP NULL DEFAULT NULL,
+  `last_failed` TIMESTAMP NULL DEFAULT NULL,
+  `quarantined` TINYINT(1) NOT NULL DEFAULT 0,
+  PRIMARY KEY (`product_id`),
+  INDEX `dead_letters_site_idx` (`site_id`, `reason`),
+  CONSTRAINT `dead_letter_product_id` FOREIGN KEY (`product_id`) REFERENCES `products` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+# --- !Downs
+
+DROP TABLE `db`.`dead_letters`;
@@ -0,0 +1,19 @@
+# Product crawl state
+
+# --- !Ups
+
+CREATE TABLE `db`.`product_crawl_state` (
+  `product_id` BIGINT(20) NOT NULL,
+  `etag` VARCHAR(255) NULL DEFAULT NULL,
+  `last_modified` VARCHAR(64) NULL DEFAULT NULL,
+  `content_hash` CHAR(40) NULL DEFAULT NULL,
+  `last_fetched` TIMESTAMP NULL DEFAULT NULL,
+  `last_unchanged` TIMESTAMP NULL DEFAULT NULL,
+  `unchanged_count` INT(11) NULL DEFAULT 0,
+  PRIMARY KEY (`product_id`),
+  CONSTRAINT `crawl_state_product_id` FOREIGN KEY (`product_id`) REFERENCES `products` (`id`) ON DELETE CASCADE ON UPDATE CASCADE
+);
+
+# --- !Downs
+
+DROP TABLE `db`.`product_crawl_state`;
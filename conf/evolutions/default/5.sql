@@ -0,0 +1,13 @@
+# Next due date of products, used by the refresh scheduler
+
+# --- !Ups
+
+ALTER TABLE `db`.`product_crawl_state`
+ADD COLUMN `next_due` TIMESTAMP NULL DEFAULT NULL AFTER `unchanged_count`,
+ADD INDEX `next_due_idx` (`next_due`);
+
+# --- !Downs
+
+ALTER TABLE `db`.`product_crawl_state`
+DROP INDEX `next_due_idx`,
+DROP COLUMN `next_due`;
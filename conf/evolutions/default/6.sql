@@ -0,0 +1,13 @@
+# Per site crawl budget
+
+# --- !Ups
+
+ALTER TABLE `db`.`websites`
+ADD COLUMN `max_requests_per_second` FLOAT NULL DEFAULT NULL,
+ADD COLUMN `max_burst` INT NULL DEFAULT NULL;
+
+# --- !Downs
+
+ALTER TABLE `db`.`websites`
+DROP COLUMN `max_burst`,
+DROP COLUMN `max_requests_per_second`;
@@ -0,0 +1,15 @@
+# Crawl leases, so several nodes share the crawl work
+
+# --- !Ups
+
+ALTER TABLE `db`.`product_crawl_state`
+ADD COLUMN `lease_owner` VARCHAR(64) NULL DEFAULT NULL,
+ADD COLUMN `lease_expires` TIMESTAMP NULL DEFAULT NULL,
+ADD INDEX `lease_expires_idx` (`lease_expires`);
+
+# --- !Downs
+
+ALTER TABLE `db`.`product_crawl_state`
+DROP INDEX `lease_expires_idx`,
+DROP COLUMN `lease_expires`,
+DROP COLUMN `lease_owner`;
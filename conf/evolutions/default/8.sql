@@ -0,0 +1,9 @@
+# Latest price of a product, used when selecting the products due for indexing
+
+# --- !Ups
+
+CREATE INDEX `prices_product_date_idx` ON `db`.`prices` (`product_id`, `input_date`);
+
+# --- !Downs
+
+DROP INDEX `prices_product_date_idx` ON `db`.`prices`;
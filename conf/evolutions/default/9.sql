@@ -0,0 +1,11 @@
+# Re-crawl interval learned per product
+
+# --- !Ups
+
+ALTER TABLE `db`.`product_crawl_state`
+ADD COLUMN `crawl_interval` BIGINT NULL DEFAULT NULL;
+
+# --- !Downs
+
+ALTER TABLE `db`.`product_crawl_state`
+DROP COLUMN `crawl_interval`;
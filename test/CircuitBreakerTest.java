@@ -0,0 +1,55 @@
+import org.junit.Test;
+import services.crawler.CircuitBreaker;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertEquals(0, breaker.blockedFor(0));
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1000, breaker.blockedFor(0));
+        assertEquals(400, breaker.blockedFor(600));
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 1000);
+        breaker.onFailure(0);
+        breaker.onSuccess();
+        breaker.onFailure(0);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testHalfOpenLetsOneProbeThrough() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.onFailure(0);
+
+        assertEquals(0, breaker.blockedFor(1000));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.onDispatch();
+        assertEquals(Long.MAX_VALUE, breaker.blockedFor(1000));
+
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.blockedFor(1000));
+    }
+
+    @Test
+    public void testFailedProbeOpensAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.onFailure(0);
+        breaker.blockedFor(1000);
+        breaker.onDispatch();
+        breaker.onFailure(1500);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1000, breaker.blockedFor(1500));
+    }
+}
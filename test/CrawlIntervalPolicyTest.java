@@ -0,0 +1,62 @@
+import models.Price;
+import org.junit.Test;
+import services.crawler.CrawlIntervalPolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CrawlIntervalPolicyTest {
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    private final CrawlIntervalPolicy policy = new CrawlIntervalPolicy(6 * HOUR, 30 * DAY, 7 * DAY, 0.01);
+
+    private Price price(int daysAgo, float value) {
+        Price price = new Price();
+        price.setInputDate(new Date(System.currentTimeMillis() - daysAgo * DAY));
+        price.setValue(value);
+        return price;
+    }
+
+    @Test
+    public void testHalvesOnChangeAndDoublesOtherwise() {
+        assertEquals(7 * DAY, policy.next(null, true));
+        assertEquals(2 * DAY, policy.next(4 * DAY, true));
+        assertEquals(8 * DAY, policy.next(4 * DAY, false));
+    }
+
+    @Test
+    public void testStaysWithinBounds() {
+        long interval = 7 * DAY;
+        for (int i = 0; i < 20; i++) interval = policy.next(interval, true);
+        assertEquals(6 * HOUR, interval);
+        for (int i = 0; i < 20; i++) interval = policy.next(interval, false);
+        assertEquals(30 * DAY, interval);
+    }
+
+    @Test
+    public void testIgnoresExchangeRateNoise() {
+        assertFalse(policy.isChange(100f, 100.5f));
+        assertTrue(policy.isChange(100f, 95f));
+        assertTrue(policy.isChange(null, 95f));
+    }
+
+    @Test
+    public void testLearnsFromHistory() {
+        assertEquals(7 * DAY, policy.fromHistory(Collections.emptyList()));
+
+        //Changed 4 times in 8 days, looked at twice per change
+        List<Price> moving = Arrays.asList(price(8, 10), price(6, 12), price(4, 11), price(2, 13), price(0, 12));
+        assertEquals(DAY, policy.fromHistory(moving), HOUR);
+
+        List<Price> stable = new ArrayList<>();
+        for (int i = 20; i >= 0; i -= 5) stable.add(price(i, 10));
+        assertEquals(20 * DAY, policy.fromHistory(stable), HOUR);
+    }
+}
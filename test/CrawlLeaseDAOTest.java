@@ -0,0 +1,153 @@
+import models.dao.CrawlLeaseDAO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.db.Database;
+import play.db.Databases;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Several nodes sharing one database, each node being a CrawlLeaseDAO with its own owner id
+ */
+public class CrawlLeaseDAOTest {
+    private static final int PRODUCTS = 200;
+
+    private Database db;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, String> urlOptions = new HashMap<>();
+        urlOptions.put("MODE", "MYSQL");
+        urlOptions.put("DB_CLOSE_DELAY", "-1");
+        db = Databases.inMemory("leases", urlOptions, new HashMap<>());
+        try (Connection connection = db.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE products (id BIGINT PRIMARY KEY, site_id BIGINT, link_address VARCHAR(255), deleted BOOLEAN)");
+            statement.execute("CREATE TABLE product_crawl_state (product_id BIGINT PRIMARY KEY, next_due TIMESTAMP, " +
+                    "lease_owner VARCHAR(64), lease_expires TIMESTAMP)");
+            statement.execute("CREATE TABLE dead_letters (product_id BIGINT PRIMARY KEY, quarantined BOOLEAN)");
+            for (int i = 1; i <= PRODUCTS; i++) {
+                statement.execute("INSERT INTO products VALUES (" + i + ", " + (i % 3) + ", 'http://www.site" + (i % 3) + ".com/p/" + i + "', FALSE)");
+                statement.execute("INSERT INTO product_crawl_state (product_id, next_due) VALUES (" + i + ", DATEADD('MINUTE', -1, NOW()))");
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        db.shutdown();
+    }
+
+    @Test
+    public void testNodesSplitDueProducts() throws Exception {
+        int nodes = 4;
+        ExecutorService pool = Executors.newFixedThreadPool(nodes);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<List<Long>>> claims = new ArrayList<>();
+        for (int n = 0; n < nodes; n++) {
+            String owner = "node-" + n;
+            claims.add(pool.submit(() -> {
+                CrawlLeaseDAO node = new CrawlLeaseDAO(db);
+                start.await();
+                List<Long> mine = new ArrayList<>();
+                List<Object[]> batch;
+                while (!(batch = node.claimDue(owner, new Date(), 25, minutes(2))).isEmpty()) {
+                    for (Object[] row : batch) mine.add((Long) row[0]);
+                }
+                return mine;
+            }));
+        }
+        start.countDown();
+
+        Set<Long> all = new HashSet<>();
+        int total = 0;
+        for (Future<List<Long>> claim : claims) {
+            List<Long> mine = claim.get(30, TimeUnit.SECONDS);
+            total += mine.size();
+            all.addAll(mine);
+        }
+        pool.shutdown();
+        assertEquals("every product leased once", PRODUCTS, total);
+        assertEquals(PRODUCTS, all.size());
+    }
+
+    @Test
+    public void testExpiredLeaseIsTakenOver() {
+        CrawlLeaseDAO first = new CrawlLeaseDAO(db);
+        CrawlLeaseDAO second = new CrawlLeaseDAO(db);
+
+        assertEquals(Collections.singletonList(1L), first.claim("first", Collections.singletonList(1L), minutes(-1)));
+        assertEquals(Collections.singletonList(1L), second.claim("second", Collections.singletonList(1L), minutes(2)));
+        assertTrue(first.claim("first", Collections.singletonList(1L), minutes(2)).isEmpty());
+        assertEquals(0, first.renew("first", Collections.singletonList(1L), minutes(2)));
+    }
+
+    @Test
+    public void testLeaseExpiryFollowsDatabaseClock() throws Exception {
+        CrawlLeaseDAO node = new CrawlLeaseDAO(db);
+        try (Connection connection = db.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("UPDATE product_crawl_state SET lease_owner = 'other', lease_expires = DATEADD('SECOND', 30, NOW()) WHERE product_id = 1");
+            statement.execute("UPDATE product_crawl_state SET lease_owner = 'other', lease_expires = DATEADD('SECOND', -1, NOW()) WHERE product_id = 2");
+        }
+        assertEquals(Collections.singletonList(2L), node.claim("first", Arrays.asList(1L, 2L), minutes(2)));
+
+        //The new expiry is the time of the database plus the lease duration
+        try (Connection connection = db.getConnection(); Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT DATEDIFF('SECOND', NOW(), lease_expires) FROM product_crawl_state WHERE product_id = 2")) {
+            rows.next();
+            assertTrue(Math.abs(rows.getLong(1) - 120) <= 1);
+        }
+    }
+
+    @Test
+    public void testRenewAndRelease() throws Exception {
+        CrawlLeaseDAO first = new CrawlLeaseDAO(db);
+        CrawlLeaseDAO second = new CrawlLeaseDAO(db);
+        List<Long> ids = Arrays.asList(1L, 2L, 3L);
+
+        assertEquals(ids, first.claim("first", ids, minutes(2)));
+        assertEquals(3, first.renew("first", ids, minutes(5)));
+        assertTrue(second.claim("second", ids, minutes(2)).isEmpty());
+
+        assertEquals(0, second.release("second", ids, null));
+        assertEquals(3, first.release("first", ids, inMinutes(60)));
+        assertEquals(ids, second.claim("second", ids, minutes(2)));
+
+        //Released with a later due date, so they are not due anymore
+        second.release("second", ids, inMinutes(60));
+        List<Object[]> due = second.claimDue("second", new Date(), PRODUCTS, minutes(2));
+        assertEquals(PRODUCTS - 3, due.size());
+        try (Connection connection = db.getConnection(); Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM product_crawl_state WHERE lease_owner = 'second'")) {
+            rows.next();
+            assertEquals(PRODUCTS - 3, rows.getInt(1));
+        }
+    }
+
+    @Test
+    public void testQuarantinedProductsAreNotClaimed() throws Exception {
+        try (Connection connection = db.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("INSERT INTO dead_letters VALUES (1, TRUE)");
+            statement.execute("INSERT INTO dead_letters VALUES (2, FALSE)");
+        }
+        Set<Long> due = new HashSet<>();
+        for (Object[] row : new CrawlLeaseDAO(db).claimDue("first", new Date(), PRODUCTS, minutes(2))) due.add((Long) row[0]);
+        assertEquals(PRODUCTS - 1, due.size());
+        assertFalse(due.contains(1L));
+        assertTrue(due.contains(2L));
+    }
+
+    private static long minutes(int minutes) {
+        return TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    private static Date inMinutes(int minutes) {
+        return new Date(System.currentTimeMillis() + minutes(minutes));
+    }
+}
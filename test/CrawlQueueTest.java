@@ -0,0 +1,77 @@
+import org.junit.Test;
+import services.crawler.CrawlQueue;
+
+import static org.junit.Assert.*;
+
+public class CrawlQueueTest {
+
+    @Test
+    public void testRejectsWhenFull() {
+        CrawlQueue<String> queue = new CrawlQueue<>(2, 10, 10);
+        assertTrue(queue.offer(1L, "a"));
+        assertTrue(queue.offer(1L, "b"));
+        assertFalse(queue.offer(2L, "c"));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void testRoundRobinAcrossSites() {
+        CrawlQueue<String> queue = new CrawlQueue<>(100, 10, 10);
+        queue.offer(1L, "a1");
+        queue.offer(1L, "a2");
+        queue.offer(1L, "a3");
+        queue.offer(2L, "b1");
+        queue.offer(3L, "c1");
+
+        assertEquals("a1", queue.poll());
+        assertEquals("b1", queue.poll());
+        assertEquals("c1", queue.poll());
+        assertEquals("a2", queue.poll());
+        assertEquals("a3", queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testPerSiteCap() {
+        CrawlQueue<String> queue = new CrawlQueue<>(100, 10, 1);
+        queue.offer(1L, "a1");
+        queue.offer(1L, "a2");
+        queue.offer(2L, "b1");
+
+        assertEquals("a1", queue.poll());
+        assertEquals("b1", queue.poll());
+        //Site 1 already has a task in flight
+        assertNull(queue.poll());
+
+        queue.complete(1L);
+        assertEquals("a2", queue.poll());
+    }
+
+    @Test
+    public void testGlobalCap() {
+        CrawlQueue<String> queue = new CrawlQueue<>(100, 2, 10);
+        queue.offer(1L, "a1");
+        queue.offer(2L, "b1");
+        queue.offer(3L, "c1");
+
+        assertNotNull(queue.poll());
+        assertNotNull(queue.poll());
+        assertNull(queue.poll());
+        assertEquals(2, queue.inFlight());
+
+        queue.complete(2L);
+        assertEquals("c1", queue.poll());
+    }
+
+    @Test
+    public void testSkipsSitesThatAreNotReady() {
+        CrawlQueue<String> queue = new CrawlQueue<>(100, 10, 10);
+        queue.offer(1L, "a1");
+        queue.offer(2L, "b1");
+
+        assertEquals("b1", queue.poll(siteId -> siteId != 1L));
+        assertNull(queue.poll(siteId -> siteId != 1L));
+        assertEquals(1, queue.size());
+        assertEquals("a1", queue.poll());
+    }
+}
@@ -0,0 +1,149 @@
+import akka.actor.ActorSystem;
+import akka.actor.Scheduler;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import play.Configuration;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.duration.FiniteDuration;
+import services.IndexOutcome;
+import services.IndexResult;
+import services.ProductService;
+import services.crawler.*;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.*;
+
+/**
+ * One task of a site runs at a time, so the tasks submitted meanwhile stay queued and can be merged
+ */
+public class CrawlSchedulerTest {
+    private static final Long SITE = 1L;
+    private static final String PAGE = "http://www.site.com/p/1";
+
+    private ProductService productService;
+    private Scheduler akkaScheduler;
+    private CrawlLeases leases;
+    private DeadLetterStore deadLetters;
+    private IndexingJobs jobs;
+    private CrawlScheduler scheduler;
+    //Runs started by the scheduler, by order of start
+    private List<List<Long>> runs;
+    private List<CompletableFuture<List<IndexResult>>> pending;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        productService = mock(ProductService.class);
+        runs = new ArrayList<>();
+        pending = new ArrayList<>();
+        when(productService.indexProducts(any(List.class))).thenAnswer(invocation -> {
+            runs.add(new ArrayList<>((List<Long>) invocation.getArguments()[0]));
+            CompletableFuture<List<IndexResult>> results = new CompletableFuture<>();
+            pending.add(results);
+            return results;
+        });
+        ActorSystem actorSystem = mock(ActorSystem.class);
+        akkaScheduler = mock(Scheduler.class);
+        when(actorSystem.scheduler()).thenReturn(akkaScheduler);
+        leases = mock(CrawlLeases.class);
+        deadLetters = mock(DeadLetterStore.class);
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("crawler.maxInFlightPerSite", 1);
+        config.put("crawler.retry.maxAttempts", 2);
+        jobs = new IndexingJobs(new Configuration(config));
+        HostRateLimiter rateLimiter = mock(HostRateLimiter.class);
+        when(rateLimiter.available(anyLong())).thenReturn(0L);
+        scheduler = new CrawlScheduler(productService, rateLimiter, jobs, leases, deadLetters, actorSystem, new Configuration(config));
+    }
+
+    private static List<IndexResult> results(IndexOutcome outcome, Long... productIds) {
+        List<IndexResult> results = new ArrayList<>();
+        for (Long productId : productIds) results.add(new IndexResult(productId, outcome, 1000, 1000, 2000));
+        return results;
+    }
+
+    @Test
+    public void testSamePageTasksAreMerged() {
+        assertTrue(scheduler.submit(new CrawlTask(SITE, 1L, null, "http://www.site.com/other")));
+        assertTrue(scheduler.submit(new CrawlTask(SITE, 2L, null, PAGE)));
+        assertTrue(scheduler.submit(new CrawlTask(SITE, 3L, null, PAGE)));
+        //Already part of the task
+        assertTrue(scheduler.submit(new CrawlTask(SITE, 3L, null, PAGE)));
+        //Another job, fetched separately
+        assertTrue(scheduler.submit(new CrawlTask(SITE, 4L, 99L, PAGE)));
+        assertEquals(2, scheduler.queued());
+
+        pending.get(0).complete(results(IndexOutcome.UPDATED, 1L));
+        assertEquals(Arrays.asList(Arrays.asList(1L), Arrays.asList(2L, 3L)), runs);
+        pending.get(1).complete(results(IndexOutcome.UPDATED, 2L, 3L));
+        assertEquals(Arrays.asList(4L), runs.get(2));
+    }
+
+    @Test
+    public void testTasksWithoutUrlAreNotMerged() {
+        scheduler.submit(new CrawlTask(SITE, 1L));
+        scheduler.submit(new CrawlTask(SITE, 2L));
+        scheduler.submit(new CrawlTask(SITE, 3L));
+        assertEquals(2, scheduler.queued());
+    }
+
+    @Test
+    public void testMergedOutcomeReachesEveryProduct() {
+        IndexingJob job = jobs.start(SITE);
+        scheduler.submit(new CrawlTask(SITE, 1L, job.getId(), "http://www.site.com/other"));
+        scheduler.submit(new CrawlTask(SITE, 2L, job.getId(), PAGE));
+        scheduler.submit(new CrawlTask(SITE, 3L, job.getId(), PAGE));
+        job.submitted();
+        job.submitted();
+        job.submitted();
+        pending.get(0).complete(results(IndexOutcome.UPDATED, 1L));
+        pending.get(1).complete(results(IndexOutcome.UNCHANGED, 2L, 3L));
+
+        verify(leases).finished(2L, IndexOutcome.UNCHANGED);
+        verify(leases).finished(3L, IndexOutcome.UNCHANGED);
+        ArgumentCaptor<IndexResult> recorded = ArgumentCaptor.forClass(IndexResult.class);
+        verify(deadLetters, times(3)).finished(eq(SITE), recorded.capture());
+        Set<Long> products = new HashSet<>();
+        for (IndexResult result : recorded.getAllValues()) products.add(result.getProductId());
+        assertEquals(new HashSet<>(Arrays.asList(1L, 2L, 3L)), products);
+        assertEquals(3, job.getSucceeded());
+        assertEquals(0, job.getInFlight());
+    }
+
+    @Test
+    public void testRetryRequeuesEveryProduct() {
+        IndexingJob job = jobs.start(SITE);
+        scheduler.submit(new CrawlTask(SITE, 1L, job.getId(), "http://www.site.com/other"));
+        scheduler.submit(new CrawlTask(SITE, 2L, job.getId(), PAGE));
+        scheduler.submit(new CrawlTask(SITE, 3L, job.getId(), PAGE));
+        job.submitted();
+        job.submitted();
+        job.submitted();
+        pending.get(0).complete(results(IndexOutcome.UPDATED, 1L));
+        pending.get(1).complete(results(IndexOutcome.UNREACHABLE, 2L, 3L));
+
+        //Nothing is released while the products wait for their retry
+        verify(leases, never()).finished(2L, IndexOutcome.UNREACHABLE);
+        verify(leases, never()).finished(3L, IndexOutcome.UNREACHABLE);
+        assertEquals(2, job.getQueued());
+
+        ArgumentCaptor<Runnable> retry = ArgumentCaptor.forClass(Runnable.class);
+        verify(akkaScheduler).scheduleOnce(any(FiniteDuration.class), retry.capture(), any(ExecutionContext.class));
+        retry.getValue().run();
+        assertEquals(Arrays.asList(2L, 3L), runs.get(2));
+
+        //Last attempt
+        pending.get(2).complete(results(IndexOutcome.UNREACHABLE, 2L, 3L));
+        verify(leases).finished(2L, IndexOutcome.UNREACHABLE);
+        verify(leases).finished(3L, IndexOutcome.UNREACHABLE);
+        assertEquals(2, job.getFailed());
+        assertEquals(0, job.getQueued());
+    }
+}
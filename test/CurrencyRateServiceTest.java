@@ -0,0 +1,120 @@
+import org.junit.Test;
+import services.currency.CurrencyRateService;
+import services.currency.RateProvider;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CurrencyRateServiceTest {
+
+    private static class StubProvider implements RateProvider {
+        private final Map<String, Float> rates = new HashMap<>();
+        private final AtomicInteger calls = new AtomicInteger();
+        private boolean failing = false;
+
+        @Override
+        public CompletableFuture<Map<String, Float>> fetchRates(Set<String> currencies) {
+            calls.incrementAndGet();
+            CompletableFuture<Map<String, Float>> result = new CompletableFuture<>();
+            if (failing) {
+                result.completeExceptionally(new IOException("provider down"));
+                return result;
+            }
+            Map<String, Float> found = new HashMap<>();
+            for (String currency : currencies) {
+                if (rates.containsKey(currency)) {
+                    found.put(currency, rates.get(currency));
+                }
+            }
+            result.complete(found);
+            return result;
+        }
+    }
+
+    @Test
+    public void testLoadsUnknownCurrencyAndServesItFromTable() throws Exception {
+        StubProvider provider = new StubProvider();
+        provider.rates.put("RON", 0.25f);
+        CurrencyRateService service = new CurrencyRateService(provider, 60000L, 60000L, 60000L);
+
+        assertEquals(25f, service.convert(100f, "lei", "EUR").toCompletableFuture().get(), 0.001f);
+        assertEquals(25f, service.convert(100f, "RON", "EUR").toCompletableFuture().get(), 0.001f);
+        assertEquals(1, provider.calls.get());
+    }
+
+    @Test
+    public void testCrossRateThroughBase() throws Exception {
+        StubProvider provider = new StubProvider();
+        provider.rates.put("RON", 0.25f);
+        provider.rates.put("USD", 0.5f);
+        CurrencyRateService service = new CurrencyRateService(provider, 60000L, 60000L, 60000L);
+
+        assertEquals(0.5f, service.rate("RON", "USD").toCompletableFuture().get(), 0.001f);
+        assertEquals(1f, service.rate("EUR", "EUR").toCompletableFuture().get(), 0.001f);
+    }
+
+    @Test
+    public void testKeepsLastKnownRatesWhenProviderFails() throws Exception {
+        StubProvider provider = new StubProvider();
+        provider.rates.put("RON", 0.25f);
+        CurrencyRateService service = new CurrencyRateService(provider, 0L, 60000L, 60000L);
+        service.rate("RON", "EUR").toCompletableFuture().get();
+
+        provider.failing = true;
+        provider.rates.put("RON", 0.5f);
+        service.refresh().toCompletableFuture().get();
+
+        assertEquals(0.25f, service.rate("RON", "EUR").toCompletableFuture().get(), 0.001f);
+    }
+
+    @Test
+    public void testUnknownRateFails() throws InterruptedException {
+        CurrencyRateService service = new CurrencyRateService(new StubProvider(), 60000L, 60000L, 60000L);
+        try {
+            service.rate("XYZ", "EUR").toCompletableFuture().get();
+            fail("Expected no rate for XYZ");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testMissingCurrencyIsNotAskedForAgain() throws InterruptedException {
+        StubProvider provider = new StubProvider();
+        CurrencyRateService service = new CurrencyRateService(provider, 60000L, 60000L, 60000L);
+        for (int i = 0; i < 3; i++) {
+            try {
+                service.rate("XYZ", "EUR").toCompletableFuture().get();
+                fail("Expected no rate for XYZ");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+        }
+        assertEquals(1, provider.calls.get());
+    }
+
+    @Test
+    public void testFailedRefreshIsNotRetriedRightAway() throws Exception {
+        StubProvider provider = new StubProvider();
+        provider.rates.put("RON", 0.25f);
+        CurrencyRateService service = new CurrencyRateService(provider, 0L, 60000L, 60000L);
+        service.rate("RON", "EUR").toCompletableFuture().get();
+
+        provider.failing = true;
+        Thread.sleep(5);
+        service.rate("RON", "EUR").toCompletableFuture().get();
+        int calls = provider.calls.get();
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(5);
+            assertEquals(0.25f, service.rate("RON", "EUR").toCompletableFuture().get(), 0.001f);
+        }
+        assertEquals(calls, provider.calls.get());
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.Test;
+import services.onboarding.ImportFormat;
+import services.onboarding.ImportUpload;
+
+import static org.junit.Assert.*;
+
+public class ImportUploadTest {
+    private static final String LINK = "http://www.emag.ro/memorie-kingston-8gb/pd/EMQRDBBBM";
+
+    @Test
+    public void testReadsNdjsonRows() {
+        ImportUpload upload = new ImportUpload(ImportFormat.NDJSON, 100);
+        upload.read("{\"prodName\": \"Kingston 8GB\", \"linkAddress\": \"" + LINK + "\"}");
+        upload.read("");
+        upload.read("{\"prodName\": \"abc\", \"linkAddress\": \"" + LINK + "\"}");
+        upload.read("not json");
+
+        assertEquals(1, upload.getRowCount());
+        assertEquals(2, upload.getErrors().size());
+        assertEquals(3, upload.getErrors().get(0).getLine());
+        assertEquals("Invalid JSON", upload.getErrors().get(1).getError());
+    }
+
+    @Test
+    public void testReadsCsvColumnsFromHeader() {
+        ImportUpload upload = new ImportUpload(ImportFormat.CSV, 100);
+        upload.read("linkAddress,prodName\r");
+        upload.read(LINK + ",\"Kingston, 8GB \"\"SODIMM\"\"\"\r");
+        upload.read(LINK);
+
+        assertEquals(1, upload.getRowCount());
+        assertEquals(1, upload.getErrors().size());
+        assertEquals("Missing prodName", upload.getErrors().get(0).getError());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsCsvWithoutLinkColumn() {
+        new ImportUpload(ImportFormat.CSV, 100).read("prodName,link");
+    }
+
+    @Test
+    public void testStopsAtMaxRows() {
+        ImportUpload upload = new ImportUpload(ImportFormat.NDJSON, 2);
+        for (int i = 0; i < 5; i++) {
+            upload.read("{\"prodName\": \"Product " + i + "\", \"linkAddress\": \"" + LINK + "\"}");
+        }
+        assertEquals(2, upload.getRowCount());
+        assertEquals(1, upload.getErrors().size());
+    }
+
+    @Test
+    public void testFormatFromContentType() {
+        assertEquals(ImportFormat.CSV, ImportFormat.fromContentType("text/csv; charset=utf-8"));
+        assertEquals(ImportFormat.NDJSON, ImportFormat.fromContentType("application/x-ndjson"));
+        assertNull(ImportFormat.fromContentType("application/json"));
+    }
+}
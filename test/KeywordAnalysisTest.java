@@ -0,0 +1,108 @@
+import models.Keyword;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.util.ClasspathResourceLoader;
+import org.apache.lucene.analysis.util.ResourceLoaderAware;
+import org.apache.lucene.analysis.util.TokenFilterFactory;
+import org.apache.lucene.analysis.util.TokenizerFactory;
+import org.apache.lucene.util.Version;
+import org.hibernate.search.annotations.AnalyzerDef;
+import org.hibernate.search.annotations.Parameter;
+import org.hibernate.search.annotations.TokenFilterDef;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.Test;
+import services.search.SearchCache;
+import utils.KeywordAnalysis;
+import utils.LinkParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Keywords parsed from pages and names must be the terms queries are analyzed into, or searches miss them
+ */
+public class KeywordAnalysisTest {
+    private static final String LINK = "http://www.emag.ro/televizor-samsung/pd/EMQRDBBBM";
+
+    /**
+     * The analyzer of models.Keyword built from its definition, the way Hibernate Search builds it
+     */
+    static KeywordAnalysis analysis() {
+        try {
+            AnalyzerDef definition = Keyword.class.getAnnotation(AnalyzerDef.class);
+            ClasspathResourceLoader loader = new ClasspathResourceLoader(KeywordAnalysisTest.class.getClassLoader());
+            TokenizerFactory tokenizer = definition.tokenizer().factory()
+                    .getConstructor(Map.class).newInstance(args(definition.tokenizer().params()));
+            List<TokenFilterFactory> filters = new ArrayList<>();
+            for (TokenFilterDef filterDef : definition.filters()) {
+                TokenFilterFactory filter = filterDef.factory().getConstructor(Map.class).newInstance(args(filterDef.params()));
+                if (filter instanceof ResourceLoaderAware) ((ResourceLoaderAware) filter).inform(loader);
+                filters.add(filter);
+            }
+            return new KeywordAnalysis(new Analyzer() {
+                @Override
+                protected TokenStreamComponents createComponents(String fieldName, Reader reader) {
+                    Tokenizer source = tokenizer.create(reader);
+                    TokenStream result = source;
+                    for (TokenFilterFactory filter : filters) result = filter.create(result);
+                    return new TokenStreamComponents(source, result);
+                }
+            });
+        } catch (ReflectiveOperationException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, String> args(Parameter[] params) {
+        Map<String, String> args = new HashMap<>();
+        args.put("luceneMatchVersion", Version.LATEST.toString());
+        for (Parameter param : params) args.put(param.name(), param.value());
+        return args;
+    }
+
+    private static Document page(String keywords) {
+        return Jsoup.parse("<html><head><meta name=\"keywords\" content=\"" + keywords + "\"></head><body></body></html>", LINK);
+    }
+
+    @Test
+    public void testFoldsCaseAndDiacritics() {
+        KeywordAnalysis analysis = analysis();
+        assertArrayEquals(new String[]{"televizor", "smart", "incalzire", "stiri"},
+                analysis.analyze("Televizor SMART încălzire Știri"));
+    }
+
+    @Test
+    public void testDropsStopwordsWithOrWithoutDiacritics() {
+        KeywordAnalysis analysis = analysis();
+        assertArrayEquals(new String[]{"televizor", "samsung"}, analysis.analyze("Televizor și pentru Samsung"));
+        assertArrayEquals(new String[]{"televizor", "samsung"}, analysis.analyze("televizor si pentru the samsung"));
+    }
+
+    @Test
+    public void testParsedKeywordsMatchQueryTerms() {
+        KeywordAnalysis analysis = analysis();
+        String[] parsed = LinkParser.parseKeywordsFromDocument(analysis, page("Televizor, Samsung, și, Încălzire"), LINK);
+        assertArrayEquals(new String[]{"televizor", "samsung", "incalzire"}, parsed);
+        assertArrayEquals(parsed, LinkParser.parseKeywordsFromName(analysis, "Televizor Samsung si incalzire"));
+
+        //A search for the same words, however they are written, is analyzed into the stored keywords
+        SearchCache cache = new SearchCache(10, 60000, analysis);
+        cache.put(SearchCache.key(new TreeSet<>(Arrays.asList(parsed)), Collections.emptySet()),
+                Collections.singletonList(1L), cache.version());
+        for (String query : Arrays.asList("televizor samsung și încălzire", "ÎNCĂLZIRE the TELEVIZOR SAMSUNG")) {
+            assertArrayEquals(new TreeSet<>(Arrays.asList(parsed)).toArray(), new TreeSet<>(Arrays.asList(analysis.analyze(query))).toArray());
+            assertEquals(Collections.singletonList(1L), cache.get(cache.key(query, Collections.emptySet())));
+        }
+    }
+
+    @Test
+    public void testOnlyStopwordsFallsBackToName() {
+        KeywordAnalysis analysis = analysis();
+        assertArrayEquals(new String[]{"getFromName"}, LinkParser.parseKeywordsFromDocument(analysis, page("și, the, of"), LINK));
+    }
+}
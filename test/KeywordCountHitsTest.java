@@ -0,0 +1,41 @@
+import org.junit.Test;
+import utils.KeywordCountHits;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+
+import static org.junit.Assert.*;
+
+public class KeywordCountHitsTest {
+    private static final Comparator<Integer> DESCENDING = Comparator.reverseOrder();
+
+    @Test
+    public void testKeepsHitsWithTheMostKeywordsOrOneLess() {
+        KeywordCountHits<Integer> top = new KeywordCountHits<>(10, DESCENDING, 0);
+        top.offer(90, 1);
+        top.offer(10, 2);
+        top.offer(80, 1);
+        top.offer(20, 3);
+        top.offer(30, 2);
+        top.offer(5, 1);
+        assertEquals(Arrays.asList(30, 20, 10), top.page(0));
+    }
+
+    @Test
+    public void testKeepsBestHitsAcrossCounts() {
+        KeywordCountHits<Integer> top = new KeywordCountHits<>(3, DESCENDING, 0);
+        for (int hit = 0; hit < 100; hit++) top.offer(hit, hit % 2 == 0 ? 4 : 3);
+        assertEquals(Arrays.asList(99, 98, 97), top.page(0));
+        assertEquals(Collections.singletonList(97), top.page(2));
+        assertEquals(Collections.emptyList(), top.page(3));
+    }
+
+    @Test
+    public void testMaxCountKnownBeforehand() {
+        KeywordCountHits<Integer> top = new KeywordCountHits<>(10, DESCENDING, 3);
+        top.offer(50, 1);
+        top.offer(40, 2);
+        assertEquals(Collections.singletonList(40), top.page(0));
+    }
+}
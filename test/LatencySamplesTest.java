@@ -0,0 +1,54 @@
+import org.junit.Test;
+import services.crawler.LatencySamples;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class LatencySamplesTest {
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    public void testPercentilesOfKnownSample() {
+        LatencySamples samples = new LatencySamples(100);
+        //1..100ms, added out of order
+        for (int i = 100; i >= 1; i--) {
+            samples.add(millis(i));
+        }
+        assertEquals(50, samples.percentileMillis(50));
+        assertEquals(95, samples.percentileMillis(95));
+        assertEquals(100, samples.percentileMillis(100));
+        assertEquals(1, samples.percentileMillis(0));
+    }
+
+    @Test
+    public void testSmallSample() {
+        LatencySamples samples = new LatencySamples(10);
+        samples.add(millis(30));
+        samples.add(millis(10));
+        samples.add(millis(20));
+        assertEquals(20, samples.percentileMillis(50));
+        assertEquals(30, samples.percentileMillis(95));
+    }
+
+    @Test
+    public void testOnlyLastSamplesAreKept() {
+        LatencySamples samples = new LatencySamples(10);
+        for (int i = 0; i < 10; i++) {
+            samples.add(millis(1000));
+        }
+        for (int i = 1; i <= 10; i++) {
+            samples.add(millis(i));
+        }
+        assertEquals(5, samples.percentileMillis(50));
+        assertEquals(10, samples.percentileMillis(95));
+    }
+
+    @Test
+    public void testNoSamples() {
+        assertEquals(0, new LatencySamples(10).percentileMillis(50));
+    }
+}
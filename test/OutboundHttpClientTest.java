@@ -0,0 +1,68 @@
+import org.junit.Before;
+import org.junit.Test;
+import play.Configuration;
+import play.libs.ws.WSClient;
+import services.http.HostStats;
+import services.http.OutboundHttpClient;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class OutboundHttpClientTest {
+    private OutboundHttpClient http;
+
+    @Before
+    public void setUp() {
+        http = new OutboundHttpClient(mock(WSClient.class), new Configuration(new HashMap<>()));
+    }
+
+    @Test
+    public void testCountsRequestsInFlightByHost() {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        http.track("http://www.Site.com/a", () -> first);
+        http.track("http://www.site.com/b", () -> second);
+        http.track("http://other.com/c", () -> CompletableFuture.completedFuture("done"));
+
+        HostStats site = http.stats().get("www.site.com");
+        assertEquals(2, site.getRequests());
+        assertEquals(2, site.getInFlight());
+        assertEquals(2, site.getPeakInFlight());
+        assertEquals(0, http.stats().get("other.com").getInFlight());
+
+        first.complete("done");
+        second.complete("done");
+        assertEquals(0, site.getInFlight());
+        assertEquals(2, site.getPeakInFlight());
+        assertEquals(0, site.getFailures());
+    }
+
+    @Test
+    public void testCountsFailures() {
+        CompletableFuture<String> failing = new CompletableFuture<>();
+        CompletionStage<String> tracked = http.track("http://www.site.com/a", () -> failing);
+        failing.completeExceptionally(new IOException("connection reset"));
+        assertTrue(tracked.toCompletableFuture().isCompletedExceptionally());
+
+        CompletionStage<String> thrown = http.track("http://www.site.com/b", () -> {
+            throw new IllegalArgumentException("bad url");
+        });
+        assertTrue(thrown.toCompletableFuture().isCompletedExceptionally());
+
+        HostStats site = http.stats().get("www.site.com");
+        assertEquals(2, site.getRequests());
+        assertEquals(2, site.getFailures());
+        assertEquals(0, site.getInFlight());
+    }
+
+    @Test
+    public void testUnreadableHost() {
+        http.track("not a url", () -> CompletableFuture.completedFuture("done"));
+        assertEquals(1, http.stats().get("unknown").getRequests());
+    }
+}
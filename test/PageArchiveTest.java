@@ -0,0 +1,97 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import play.Configuration;
+import services.archive.PageArchive;
+import services.archive.PageSnapshot;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PageArchiveTest {
+    private File dir;
+    private List<Callable<? extends CompletionStage<?>>> stopHooks;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("archive").toFile();
+        stopHooks = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        dir.delete();
+    }
+
+    private PageArchive archive(long maxSegmentBytes) {
+        Map<String, Object> config = new HashMap<>();
+        config.put("archive.enabled", true);
+        config.put("archive.dir", dir.getPath());
+        config.put("archive.maxSegmentBytes", maxSegmentBytes);
+        return new PageArchive(new Configuration(config), stopHooks::add);
+    }
+
+    /**
+     * Runs the stop hooks, which wait for the queued snapshots to be written
+     */
+    private void stop() throws Exception {
+        for (Callable<? extends CompletionStage<?>> hook : stopHooks) {
+            hook.call().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void testWriteThenRead() throws Exception {
+        PageArchive archive = archive(67108864L);
+        archive.store(new PageSnapshot(1L, 10L, 1000L, "http://www.site.com/p/1", PageSnapshot.Kind.REGION, "<div class=\"price\">12.99 €</div>"));
+        archive.store(new PageSnapshot(2L, 10L, 1000L, "http://www.site.com/p/2", PageSnapshot.Kind.PAGE, "<html><body>ăîșț</body></html>"));
+        archive.store(new PageSnapshot(1L, 10L, 2000L, "http://www.site.com/p/1", PageSnapshot.Kind.REGION, "<div class=\"price\">10.99 €</div>"));
+        archive.store(new PageSnapshot(3L, 20L, 1000L, "http://www.other.com/p/3", PageSnapshot.Kind.REGION, "other site"));
+        stop();
+
+        Map<Long, PageSnapshot> read = new HashMap<>();
+        for (PageArchive.Entry entry : archive.latestBySite(10L)) {
+            read.put(entry.getProductId(), archive.read(entry));
+        }
+        assertEquals(2, read.size());
+
+        PageSnapshot first = read.get(1L);
+        assertEquals(Long.valueOf(10L), first.getSiteId());
+        assertEquals(2000L, first.getFetchedAt());
+        assertEquals("http://www.site.com/p/1", first.getUrl());
+        assertEquals(PageSnapshot.Kind.REGION, first.getKind());
+        assertEquals("<div class=\"price\">10.99 €</div>", first.getContent());
+
+        PageSnapshot second = read.get(2L);
+        assertEquals(PageSnapshot.Kind.PAGE, second.getKind());
+        assertEquals("<html><body>ăîșț</body></html>", second.getContent());
+        assertEquals(0, archive.getDropped());
+    }
+
+    @Test
+    public void testSnapshotsSpanSegments() throws Exception {
+        //Every snapshot gets its own segment
+        PageArchive archive = archive(1L);
+        for (long id = 1; id <= 5; id++) {
+            archive.store(new PageSnapshot(id, 10L, 1000L, "http://www.site.com/p/" + id, PageSnapshot.Kind.REGION, "price " + id));
+        }
+        stop();
+
+        assertEquals(5, dir.listFiles((parent, name) -> name.endsWith(".gz")).length);
+        Collection<PageArchive.Entry> entries = archive.latestBySite(10L);
+        assertEquals(5, entries.size());
+        for (PageArchive.Entry entry : entries) {
+            assertEquals("price " + entry.getProductId(), archive.read(entry).getContent());
+        }
+    }
+}
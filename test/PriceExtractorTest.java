@@ -0,0 +1,70 @@
+import models.Site;
+import org.jsoup.Jsoup;
+import org.junit.Test;
+import services.extraction.ExtractedPrice;
+import services.extraction.PriceExtractor;
+import services.extraction.SiteExtractionRules;
+import services.extraction.SiteExtractionRulesCache;
+
+import static org.junit.Assert.*;
+
+public class PriceExtractorTest {
+
+    private static final String PAGE = "<html><body>"
+            + "<div class=\"other\"><span class=\"price\">1.00</span><span class=\"currency\">USD</span></div>"
+            + "<div class=\"product-box\"><meta itemprop=\"price\" content=\"2499.99\">"
+            + "<span class=\"currency\">RON</span></div>"
+            + "</body></html>";
+
+    private Site site(String keyword) {
+        Site site = new Site();
+        site.setId(1L);
+        site.setSiteKeyword(keyword);
+        site.setPriceElement("price");
+        site.setCurrencyElement("currency");
+        return site;
+    }
+
+    @Test
+    public void testExtractFromSiteElement() {
+        SiteExtractionRules rules = SiteExtractionRules.compile(site("product-box"));
+        ExtractedPrice price = PriceExtractor.extract(PriceExtractor.selectRegion(Jsoup.parse(PAGE), rules), rules);
+
+        assertNotNull(price);
+        assertEquals(2499.99f, price.getValue(), 0.001f);
+        assertEquals("RON", price.getCurrency());
+    }
+
+    @Test
+    public void testExtractFromWholePage() {
+        SiteExtractionRules rules = SiteExtractionRules.compile(site("none"));
+        ExtractedPrice price = PriceExtractor.extract(PriceExtractor.selectRegion(Jsoup.parse(PAGE), rules), rules);
+
+        assertNotNull(price);
+        assertEquals(1.00f, price.getValue(), 0.001f);
+        assertEquals("USD", price.getCurrency());
+    }
+
+    @Test
+    public void testMissingSiteElement() {
+        SiteExtractionRules rules = SiteExtractionRules.compile(site("missing"));
+        assertNull(PriceExtractor.selectRegion(Jsoup.parse(PAGE), rules));
+        assertNull(PriceExtractor.extract(null, rules));
+    }
+
+    @Test
+    public void testCacheRecompilesChangedSite() {
+        SiteExtractionRulesCache cache = new SiteExtractionRulesCache();
+        Site site = site("product-box");
+        SiteExtractionRules first = cache.forSite(site);
+        assertSame(first, cache.forSite(site));
+
+        site.setPriceElement("amount");
+        SiteExtractionRules second = cache.forSite(site);
+        assertNotSame(first, second);
+        assertTrue(second.getPricePattern().pattern().contains("amount"));
+
+        cache.invalidate(site.getId());
+        assertNotSame(second, cache.forSite(site));
+    }
+}
@@ -33,10 +33,12 @@ import play.mvc.Http;
 import play.mvc.Result;
 import play.test.Helpers;
 import play.test.WithApplication;
+import services.onboarding.OnboardingFetcher;
 import utils.LinkParser;
 
 import java.net.MalformedURLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 public class ProductTest extends WithApplication {
 
@@ -45,6 +47,7 @@ public class ProductTest extends WithApplication {
 	private SiteDAO sd = mock(SiteDAO.class);
 	private KeywordDAO kd = mock(KeywordDAO.class);
 	private UserDAO ud = mock(UserDAO.class);
+	private OnboardingFetcher of = mock(OnboardingFetcher.class);
 
 	@Before
 	public void setUp() throws Exception {
@@ -56,6 +59,9 @@ public class ProductTest extends WithApplication {
 		doNothing().when(pd).delete(any());
 		doNothing().when(pd).softDelete(any());
 		doNothing().when(pd).update(any());
+
+		/* Pages of added products are never downloaded */
+		when(of.fetch(any(), anyString())).thenReturn(new CompletableFuture<>());
 	}
 
 	@Override
@@ -66,6 +72,7 @@ public class ProductTest extends WithApplication {
 				.overrides(bind(SiteDAO.class).toInstance(sd))
 				.overrides(bind(KeywordDAO.class).toInstance(kd))
 				.overrides(bind(UserDAO.class).toInstance(ud))
+				.overrides(bind(OnboardingFetcher.class).toInstance(of))
 				.build();
 	}
 
@@ -0,0 +1,97 @@
+import akka.actor.ActorSystem;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import play.Configuration;
+import play.db.jpa.JPAApi;
+import play.inject.ApplicationLifecycle;
+import services.crawler.CrawlLeases;
+import services.crawler.CrawlScheduler;
+import services.crawler.CrawlTask;
+import services.crawler.RefreshScheduler;
+
+import java.util.*;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class RefreshSchedulerTest {
+    private CrawlScheduler crawlScheduler;
+    private CrawlLeases leases;
+    private RefreshScheduler refreshScheduler;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        crawlScheduler = mock(CrawlScheduler.class);
+        leases = mock(CrawlLeases.class);
+        JPAApi jpa = mock(JPAApi.class);
+        //No crawl state is missing
+        when(jpa.withTransaction(any(Supplier.class))).thenReturn(0);
+        when(crawlScheduler.submit(any(CrawlTask.class))).thenReturn(true);
+
+        Map<String, Object> config = new HashMap<>();
+        config.put("crawler.refresh.enabled", false);
+        config.put("crawler.refresh.batchSize", 10);
+        config.put("crawler.refresh.maxQueued", 2);
+        refreshScheduler = new RefreshScheduler(crawlScheduler, leases, jpa, mock(ActorSystem.class),
+                new Configuration(config), mock(ApplicationLifecycle.class));
+    }
+
+    private static Object[] row(long productId, long dueInMillis) {
+        return new Object[]{productId, 1L, new Date(System.currentTimeMillis() + dueInMillis), "http://www.site.com/p/" + productId};
+    }
+
+    private List<Long> submitted(int times) {
+        ArgumentCaptor<CrawlTask> tasks = ArgumentCaptor.forClass(CrawlTask.class);
+        verify(crawlScheduler, times(times)).submit(tasks.capture());
+        List<Long> ids = new ArrayList<>();
+        for (CrawlTask task : tasks.getAllValues()) ids.add(task.getProductId());
+        return ids;
+    }
+
+    @Test
+    public void testSubmitsOnlyDueProductsInDueOrder() {
+        when(leases.claimDue(any(Date.class), anyInt())).thenReturn(Arrays.asList(row(2, -1000), row(1, -5000), row(3, 60000)));
+        refreshScheduler.tick();
+
+        assertEquals(Arrays.asList(1L, 2L), submitted(2));
+    }
+
+    @Test
+    public void testClaimsInBatchesOnlyWhenRunningLow() {
+        List<Object[]> rows = new ArrayList<>();
+        for (long id = 1; id <= 10; id++) rows.add(row(id, 60000));
+        when(leases.claimDue(any(Date.class), anyInt())).thenReturn(rows);
+        refreshScheduler.tick();
+        refreshScheduler.tick();
+
+        //The second tick still holds a full batch of products that aren't due yet
+        verify(leases, times(1)).claimDue(any(Date.class), eq(10));
+        verify(crawlScheduler, never()).submit(any(CrawlTask.class));
+    }
+
+    @Test
+    public void testStopsAtMaxQueued() {
+        when(leases.claimDue(any(Date.class), anyInt())).thenReturn(Arrays.asList(row(1, -1000), row(2, -1000), row(3, -1000)));
+        when(crawlScheduler.queued()).thenReturn(0, 1, 2);
+        refreshScheduler.tick();
+
+        assertEquals(Arrays.asList(1L, 2L), submitted(2));
+    }
+
+    @Test
+    public void testRejectedProductIsSubmittedAgain() {
+        when(leases.claimDue(any(Date.class), anyInt()))
+                .thenReturn(Collections.singletonList(row(1, -1000)))
+                .thenReturn(Collections.emptyList());
+        when(crawlScheduler.submit(any(CrawlTask.class))).thenReturn(false, true);
+        refreshScheduler.tick();
+        refreshScheduler.tick();
+
+        assertEquals(Arrays.asList(1L, 1L), submitted(2));
+    }
+}
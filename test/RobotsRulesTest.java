@@ -0,0 +1,46 @@
+import org.junit.Test;
+import services.crawler.RobotsRules;
+
+import static org.junit.Assert.*;
+
+public class RobotsRulesTest {
+
+    private static final String ROBOTS =
+            "# robots.txt\n" +
+            "User-agent: googlebot\n" +
+            "Disallow: /\n" +
+            "\n" +
+            "User-agent: *\n" +
+            "Disallow: /cart\n" +
+            "Disallow: /*?sort=\n" +
+            "Disallow: /*.pdf$\n" +
+            "Allow: /cart/help\n" +
+            "Crawl-delay: 2\n";
+
+    @Test
+    public void testAnyAgentGroup() {
+        RobotsRules rules = RobotsRules.parse(ROBOTS, "priceindexer");
+        assertTrue(rules.isAllowed("/laptop-x/pd/123"));
+        assertFalse(rules.isAllowed("/cart/checkout"));
+        assertTrue(rules.isAllowed("/cart/help"));
+        assertFalse(rules.isAllowed("/laptops?sort=price"));
+        assertFalse(rules.isAllowed("/manual.pdf"));
+        assertTrue(rules.isAllowed("/manual.pdf.html"));
+        assertEquals(2.0, rules.getCrawlDelay(), 0.001);
+    }
+
+    @Test
+    public void testOwnGroupWins() {
+        RobotsRules rules = RobotsRules.parse(ROBOTS + "\nUser-agent: PriceIndexer\nDisallow: /private\n", "priceindexer");
+        assertTrue(rules.isAllowed("/cart"));
+        assertFalse(rules.isAllowed("/private/a"));
+        assertNull(rules.getCrawlDelay());
+    }
+
+    @Test
+    public void testEmptyDisallowAllowsAll() {
+        RobotsRules rules = RobotsRules.parse("User-agent: *\nDisallow:\n", "priceindexer");
+        assertTrue(rules.isAllowed("/"));
+        assertFalse(RobotsRules.disallowAll().isAllowed("/anything"));
+    }
+}
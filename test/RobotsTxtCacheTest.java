@@ -0,0 +1,86 @@
+import org.junit.Test;
+import play.Configuration;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSResponse;
+import services.crawler.RobotsRules;
+import services.crawler.RobotsTxtCache;
+import services.http.OutboundHttpClient;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * A lookup must never wait forever on a robots.txt download that failed or hangs
+ */
+public class RobotsTxtCacheTest {
+    private static final String PAGE = "http://www.site.com/p/1";
+
+    /* Answers every robots.txt request with the same stage, or throws if it is null */
+    private static class StubClient extends OutboundHttpClient {
+        private final AtomicInteger requests = new AtomicInteger();
+        private final CompletionStage<WSResponse> answer;
+
+        private StubClient(long timeoutMillis, CompletionStage<WSResponse> answer) {
+            super(mock(WSClient.class), configuration(timeoutMillis));
+            this.answer = answer;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> CompletionStage<T> track(String url, Supplier<CompletionStage<T>> request) {
+            requests.incrementAndGet();
+            if (answer == null) {
+                throw new IllegalStateException("client closed");
+            }
+            return (CompletionStage<T>) answer;
+        }
+    }
+
+    private static Configuration configuration(long timeoutMillis) {
+        Map<String, Object> settings = new HashMap<>();
+        settings.put("http.requestTimeout", timeoutMillis);
+        return new Configuration(settings);
+    }
+
+    private static RobotsRules rules(RobotsTxtCache robots) throws Exception {
+        CompletableFuture<RobotsRules> rules = robots.forUrl(new URL(PAGE)).toCompletableFuture();
+        assertTrue(rules.isDone());
+        return rules.get();
+    }
+
+    @Test
+    public void testRequestThrowingDisallowsForNow() throws Exception {
+        StubClient http = new StubClient(30000L, null);
+        RobotsTxtCache robots = new RobotsTxtCache(http, new Configuration(new HashMap<>()));
+        assertFalse(rules(robots).isAllowed("/p/1"));
+        assertEquals(1, http.requests.get());
+    }
+
+    @Test
+    public void testUnreadableBodyDisallowsForNow() throws Exception {
+        WSResponse response = mock(WSResponse.class);
+        when(response.getStatus()).thenReturn(200);
+        when(response.getBody()).thenThrow(new IllegalStateException("bad charset"));
+        StubClient http = new StubClient(30000L, CompletableFuture.completedFuture(response));
+        RobotsTxtCache robots = new RobotsTxtCache(http, new Configuration(new HashMap<>()));
+        assertFalse(rules(robots).isAllowed("/p/1"));
+    }
+
+    @Test
+    public void testHangingDownloadIsGivenUpAfterTimeout() throws Exception {
+        StubClient http = new StubClient(0L, new CompletableFuture<>());
+        RobotsTxtCache robots = new RobotsTxtCache(http, new Configuration(new HashMap<>()));
+        robots.forUrl(new URL(PAGE));
+        Thread.sleep(5);
+        robots.forUrl(new URL(PAGE));
+        assertEquals(2, http.requests.get());
+    }
+}
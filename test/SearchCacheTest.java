@@ -0,0 +1,96 @@
+import org.junit.Test;
+import services.search.SearchCache;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SearchCacheTest {
+    private static Set<Map.Entry<String, String[]>> params(String... pairs) {
+        Map<String, String[]> params = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) params.put(pairs[i], new String[]{pairs[i + 1]});
+        return params.entrySet();
+    }
+
+    private static Set<String> terms(String... terms) {
+        return new LinkedHashSet<>(Arrays.asList(terms));
+    }
+
+    @Test
+    public void testEquivalentSearchesShareEntry() {
+        SearchCache cache = new SearchCache(10, 60000, KeywordAnalysisTest.analysis());
+        SearchCache.Key key = SearchCache.key(terms("samsung", "tv"), params("limit", "20", "category", "tv"));
+        cache.put(key, Arrays.asList(1L, 2L), cache.version());
+        SearchCache.Key same = SearchCache.key(terms("tv", "samsung"), params("category", "TV", "limit", "020", "other", "x"));
+        assertEquals(Arrays.asList(1L, 2L), cache.get(same));
+        assertNull(cache.get(SearchCache.key(terms("tv", "samsung"), params("limit", "10"))));
+    }
+
+    @Test
+    public void testInvalidParametersAreNotCached() {
+        assertNull(SearchCache.key(terms("tv"), params("offset", "first")));
+    }
+
+    @Test
+    public void testChangedProductDropsOnlyItsSearches() {
+        SearchCache cache = new SearchCache(10, 60000, KeywordAnalysisTest.analysis());
+        SearchCache.Key tv = SearchCache.key(terms("tv"), params());
+        SearchCache.Key phone = SearchCache.key(terms("phone"), params());
+        cache.put(tv, Arrays.asList(1L, 2L), cache.version());
+        cache.put(phone, Collections.singletonList(3L), cache.version());
+        cache.invalidate(Collections.singletonList(2L), Collections.emptyList());
+        assertNull(cache.get(tv));
+        assertEquals(Collections.singletonList(3L), cache.get(phone));
+        assertEquals(1, cache.getInvalidations());
+    }
+
+    @Test
+    public void testResultComputedBeforeInvalidationOfItsProductIsNotStored() {
+        SearchCache cache = new SearchCache(10, 60000, KeywordAnalysisTest.analysis());
+        SearchCache.Key key = SearchCache.key(terms("tv"), params());
+        long version = cache.version();
+        cache.invalidate(Collections.singletonList(1L), Collections.emptyList());
+        cache.put(key, Collections.singletonList(1L), version);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testResultComputedBeforeInvalidationOfItsTermIsNotStored() {
+        SearchCache cache = new SearchCache(10, 60000, KeywordAnalysisTest.analysis());
+        SearchCache.Key key = SearchCache.key(terms("tv"), params());
+        long version = cache.version();
+        //A new product the search could have found
+        cache.invalidate(Collections.singletonList(7L), Collections.singletonList("TV"));
+        cache.put(key, Collections.singletonList(1L), version);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testUnrelatedInvalidationKeepsResult() {
+        SearchCache cache = new SearchCache(10, 60000, KeywordAnalysisTest.analysis());
+        SearchCache.Key key = SearchCache.key(terms("tv"), params());
+        long version = cache.version();
+        cache.invalidate(Collections.singletonList(7L), Collections.singletonList("phone"));
+        cache.put(key, Collections.singletonList(1L), version);
+        assertEquals(Collections.singletonList(1L), cache.get(key));
+    }
+
+    @Test
+    public void testResultComputedBeforeInvalidateAllIsNotStored() {
+        SearchCache cache = new SearchCache(10, 60000, KeywordAnalysisTest.analysis());
+        SearchCache.Key key = SearchCache.key(terms("tv"), params());
+        long version = cache.version();
+        cache.invalidateAll();
+        cache.put(key, Collections.singletonList(1L), version);
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testBoundedBySize() {
+        SearchCache cache = new SearchCache(1, 60000, KeywordAnalysisTest.analysis());
+        cache.put(SearchCache.key(terms("tv"), params()), Collections.singletonList(1L), cache.version());
+        cache.put(SearchCache.key(terms("phone"), params()), Collections.singletonList(2L), cache.version());
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.stats().evictionCount());
+    }
+}
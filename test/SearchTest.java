@@ -87,6 +87,14 @@ public class SearchTest extends WithApplication {
         assertEquals(NOT_FOUND, res.status());
     }
 
+    @Test
+    public void testSearchInvalidPage() {
+        when(productDAO.findProductsByName(anyString(), any())).thenThrow(new IllegalArgumentException("limit"));
+
+        Result res = route(Helpers.fakeRequest("GET", "/search/test?limit=1000").session("user", "TaviAdmin"));
+        assertEquals(BAD_REQUEST, res.status());
+    }
+
     @Test
     public void testSearchHistoryNoSuchUser() {
         when(userDAO.get(any())).thenReturn(null);
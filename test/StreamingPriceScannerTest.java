@@ -0,0 +1,161 @@
+import models.Site;
+import org.jsoup.Jsoup;
+import org.junit.Test;
+import services.extraction.ExtractedPrice;
+import services.extraction.ExtractionPath;
+import services.extraction.PriceExtractor;
+import services.extraction.SiteExtractionRules;
+import services.extraction.StreamingPriceScanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class StreamingPriceScannerTest {
+
+    private SiteExtractionRules rules() {
+        Site site = new Site();
+        site.setId(1L);
+        site.setSiteKeyword("product-box");
+        site.setPriceElement("price");
+        site.setCurrencyElement("currency");
+        return SiteExtractionRules.compile(site);
+    }
+
+    /* Feeds the page in chunks of the given size, returns the number of chunks consumed */
+    private int feed(StreamingPriceScanner scanner, String page, int chunkSize) {
+        byte[] bytes = page.getBytes(StandardCharsets.UTF_8);
+        int chunks = 0;
+        for (int i = 0; i < bytes.length; i += chunkSize) {
+            chunks++;
+            if (!scanner.offer(ByteBuffer.wrap(Arrays.copyOfRange(bytes, i, Math.min(bytes.length, i + chunkSize))))) {
+                break;
+            }
+        }
+        return chunks;
+    }
+
+    private String padding(int length) {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) builder.append("<p>lorem ipsum șțăîâ</p>");
+        return builder.toString();
+    }
+
+    @Test
+    public void testStopsOnceBothValuesFound() {
+        String page = "<html><body><div class=\"price\">1.00</div>" + padding(4000)
+                + "<div class=\"item product-box\"><span class=\"price\">1299.50</span><span class=\"currency\">RON</span></div>"
+                + padding(100000) + "</body></html>";
+        StreamingPriceScanner scanner = new StreamingPriceScanner(rules(), 1000000, StandardCharsets.UTF_8);
+        feed(scanner, page, 7);
+
+        ExtractedPrice price = scanner.result();
+        assertNotNull(price);
+        assertEquals(1299.50f, price.getValue(), 0.001f);
+        assertEquals("RON", price.getCurrency());
+        assertTrue(scanner.getBytesRead() < 10000);
+    }
+
+    @Test
+    public void testRespectsByteCap() {
+        String page = "<html><body>" + padding(100000) + "<div class=\"product-box\"><span class=\"price\">10</span>"
+                + "<span class=\"currency\">EUR</span></div></body></html>";
+        StreamingPriceScanner scanner = new StreamingPriceScanner(rules(), 2048, StandardCharsets.UTF_8);
+        feed(scanner, page, 1024);
+
+        assertEquals(2048, scanner.getBytesRead());
+        assertNull(scanner.result());
+    }
+
+    @Test
+    public void testStructuredDataStopsBeforeRegion() {
+        String page = "<html><head><meta property=\"product:price:amount\" content=\"49.90\">"
+                + "<meta property=\"product:price:currency\" content=\"EUR\"></head><body>" + padding(100000)
+                + "<div class=\"product-box\"><span class=\"price\">10</span><span class=\"currency\">RON</span></div></body></html>";
+        StreamingPriceScanner scanner = new StreamingPriceScanner(rules(), 1000000, StandardCharsets.UTF_8);
+        feed(scanner, page, 64);
+
+        ExtractedPrice price = scanner.result();
+        assertNotNull(price);
+        assertEquals(ExtractionPath.META_TAGS, price.getPath());
+        assertEquals(49.90f, price.getValue(), 0.001f);
+        assertTrue(scanner.getBytesRead() < 1000);
+        assertNull(scanner.getRegion());
+    }
+
+    @Test
+    public void testStopsAtEndOfRegion() {
+        //The currency only follows the site element, the DOM mode doesn't find it either
+        String page = "<html><body><div class=\"product-box\"><div><span class=\"price\">10</span></div></div>"
+                + "<span class=\"currency\">RON</span>" + padding(100000) + "</body></html>";
+        StreamingPriceScanner scanner = new StreamingPriceScanner(rules(), 1000000, StandardCharsets.UTF_8);
+        feed(scanner, page, 16);
+
+        assertNull(scanner.result());
+        assertTrue(scanner.getBytesRead() < 1000);
+        assertEquals("<div class=\"product-box\"><div><span class=\"price\">10</span></div>", scanner.getRegion());
+    }
+
+    @Test
+    public void testSameResultWhateverTheChunkSize() {
+        String page = "<html><body>" + padding(3000) + "<div class=\"product-box\"><span class=\"price\" >\n 2499.99</span>"
+                + padding(3000) + "<span class=\"currency\">EUR</span></div>" + padding(3000) + "</body></html>";
+        ExtractedPrice dom = PriceExtractor.extract(PriceExtractor.selectRegion(Jsoup.parse(page), rules()), rules());
+        assertNotNull(dom);
+        for (int chunkSize : new int[]{1, 3, 64, 1000, 100000}) {
+            StreamingPriceScanner scanner = new StreamingPriceScanner(rules(), 1000000, StandardCharsets.UTF_8);
+            feed(scanner, page, chunkSize);
+            ExtractedPrice price = scanner.result();
+            assertNotNull(price);
+            assertEquals(dom.getValue(), price.getValue(), 0.001f);
+            assertEquals(dom.getCurrency(), price.getCurrency());
+        }
+    }
+
+    @Test
+    public void testJsonLdInHeadWinsOverEarlierMetaTags() {
+        String page = "<html><head><meta property=\"product:price:amount\" content=\"49.90\">"
+                + "<meta property=\"product:price:currency\" content=\"EUR\">" + padding(2000)
+                + "<script type=\"application/ld+json\">{\"@type\":\"Offer\",\"price\":\"45.00\",\"priceCurrency\":\"EUR\"}</script>"
+                + "</head><body>" + padding(100000) + "</body></html>";
+        StreamingPriceScanner scanner = new StreamingPriceScanner(rules(), 1000000, StandardCharsets.UTF_8);
+        feed(scanner, page, 64);
+
+        ExtractedPrice price = scanner.result();
+        assertNotNull(price);
+        assertEquals(ExtractionPath.JSON_LD, price.getPath());
+        assertEquals(45f, price.getValue(), 0.001f);
+        assertTrue(scanner.getBytesRead() < 10000);
+    }
+
+    @Test
+    public void testBufferedAndStreamedModesAgree() {
+        //Markup the DOM mode serializes differently from the raw page: quotes, case, entities and line breaks
+        String[] regions = {
+                "<span class=\"price\">12.50</span><span class=\"currency\">RON</span>",
+                "<span class=price>12.50</span><span class=currency>RON</span>",
+                "<span class='price'>12.50</span><span class='currency'>RON</span>",
+                "<SPAN CLASS=\"PRICE\">12.50</SPAN><SPAN CLASS=\"CURRENCY\">RON</SPAN>",
+                "<span class=\"price\" data-currency='RON'>&nbsp;12.50</span>",
+                "<div class=\"price\"\n>\n  12.50\n</div><div class=\"currency\">RON</div>",
+                "<input type=hidden name=price value=12.50><span class=currency>RON</span>"
+        };
+        for (String region : regions) {
+            String page = "<html><body>" + padding(2000) + "<div class=\"product-box\">" + region + "</div>" + padding(2000) + "</body></html>";
+            ExtractedPrice buffered = StreamingPriceScanner.scan(page, rules()).result();
+            assertNotNull(region, buffered);
+            assertEquals(region, 12.50f, buffered.getValue(), 0.001f);
+            assertEquals(region, "RON", buffered.getCurrency());
+            for (int chunkSize : new int[]{1, 5, 64, 4096}) {
+                StreamingPriceScanner scanner = new StreamingPriceScanner(rules(), 1000000, StandardCharsets.UTF_8);
+                feed(scanner, page, chunkSize);
+                ExtractedPrice streamed = scanner.result();
+                assertNotNull(region, streamed);
+                assertEquals(region, buffered.getValue(), streamed.getValue(), 0.001f);
+                assertEquals(region, buffered.getCurrency(), streamed.getCurrency());
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import org.junit.Test;
+import services.extraction.ExtractedPrice;
+import services.extraction.ExtractionPath;
+import services.extraction.StructuredDataExtractor;
+
+import static org.junit.Assert.*;
+
+public class StructuredDataExtractorTest {
+
+    private static final String JSON_LD = "<script type=\"application/ld+json\">{\"@context\":\"https://schema.org\","
+            + "\"@type\":\"Product\",\"name\":\"Phone <b>\",\"offers\":{\"@type\":\"Offer\",\"price\":\"2499.99\",\"priceCurrency\":\"RON\"}}</script>";
+    private static final String META = "<meta property=\"product:price:amount\" content=\"1.299,50\">"
+            + "<meta content='EUR' property='product:price:currency'>";
+    private static final String MICRODATA = "<div itemscope itemtype=\"http://schema.org/Offer\"><span itemprop=\"price\">1,099.00</span>"
+            + "<meta itemprop=\"priceCurrency\" content=\"USD\"></div>";
+
+    @Test
+    public void testJsonLdPreferred() {
+        ExtractedPrice price = StructuredDataExtractor.extract("<html><head>" + META + "</head><body>" + MICRODATA + JSON_LD + "</body></html>");
+        assertNotNull(price);
+        assertEquals(ExtractionPath.JSON_LD, price.getPath());
+        assertEquals(2499.99f, price.getValue(), 0.001f);
+        assertEquals("RON", price.getCurrency());
+    }
+
+    @Test
+    public void testJsonLdGraph() {
+        ExtractedPrice price = StructuredDataExtractor.extract("<script type='application/ld+json'>{\"@graph\":[{\"@type\":\"WebPage\"},"
+                + "{\"@type\":[\"Product\"],\"offers\":[{\"@type\":\"AggregateOffer\",\"lowPrice\":15,\"priceCurrency\":\"EUR\"}]}]}</script>");
+        assertNotNull(price);
+        assertEquals(15f, price.getValue(), 0.001f);
+        assertEquals("EUR", price.getCurrency());
+    }
+
+    @Test
+    public void testMetaTags() {
+        ExtractedPrice price = StructuredDataExtractor.extract("<html><head>" + META + "</head><body>" + MICRODATA + "</body></html>");
+        assertNotNull(price);
+        assertEquals(ExtractionPath.META_TAGS, price.getPath());
+        assertEquals(1299.50f, price.getValue(), 0.001f);
+        assertEquals("EUR", price.getCurrency());
+    }
+
+    @Test
+    public void testMicrodata() {
+        ExtractedPrice price = StructuredDataExtractor.extract("<html><body>" + MICRODATA + "</body></html>");
+        assertNotNull(price);
+        assertEquals(ExtractionPath.MICRODATA, price.getPath());
+        assertEquals(1099f, price.getValue(), 0.001f);
+        assertEquals("USD", price.getCurrency());
+    }
+
+    @Test
+    public void testIncompleteOrInvalidData() {
+        assertNull(StructuredDataExtractor.extract("<meta property=\"product:price:amount\" content=\"10\">"));
+        assertNull(StructuredDataExtractor.extract("<script type=\"application/ld+json\">{\"offers\":{\"price\":</script>"));
+        assertNull(StructuredDataExtractor.extract("<span itemprop=\"price\">10</span><span itemprop=\"priceCurrency\">lorem</span>"));
+    }
+
+    @Test
+    public void testChunkedInput() {
+        String page = "<html><head>" + JSON_LD + "</head></html>";
+        StructuredDataExtractor extractor = new StructuredDataExtractor();
+        for (int i = 0; i < page.length(); i += 5) {
+            extractor.feed(page.substring(i, Math.min(page.length(), i + 5)));
+        }
+        assertNotNull(extractor.result());
+        assertEquals(2499.99f, extractor.result().getValue(), 0.001f);
+    }
+
+    @Test
+    public void testGroupingSeparators() {
+        ExtractedPrice comma = StructuredDataExtractor.extract("<meta property=\"product:price:amount\" content=\"1,299\">"
+                + "<meta property=\"product:price:currency\" content=\"EUR\">");
+        ExtractedPrice dot = StructuredDataExtractor.extract("<meta property=\"product:price:amount\" content=\"1.299\">"
+                + "<meta property=\"product:price:currency\" content=\"EUR\">");
+        assertEquals(1299f, comma.getValue(), 0.001f);
+        assertEquals(1299f, dot.getValue(), 0.001f);
+    }
+
+    @Test
+    public void testDecimalSeparators() {
+        String[][] amounts = {{"12,5", "12.5"}, {"12.50", "12.5"}, {"0.500", "0.5"}, {"0,500", "0.5"}, {"1.299.000", "1299000"},
+                {"1,299,000.50", "1299000.5"}, {"1.299,50", "1299.5"}, {"RON 49.90", "49.9"}};
+        for (String[] amount : amounts) {
+            ExtractedPrice price = StructuredDataExtractor.extract("<span itemprop=\"price\">" + amount[0] + "</span>"
+                    + "<meta itemprop=\"priceCurrency\" content=\"EUR\">");
+            assertNotNull(amount[0], price);
+            assertEquals(amount[0], Float.parseFloat(amount[1]), price.getValue(), 0.001f);
+        }
+    }
+
+    @Test
+    public void testMachineReadableAmountsUseDotDecimal() {
+        String[][] amounts = {{"\"12.500\"", "12.5"}, {"1.299", "1.299"}, {"1299", "1299"}, {"\"1,299.00\"", "1299"}};
+        for (String[] amount : amounts) {
+            ExtractedPrice price = StructuredDataExtractor.extract("<script type=\"application/ld+json\">{\"@type\":\"Offer\",\"price\":"
+                    + amount[0] + ",\"priceCurrency\":\"EUR\"}</script>");
+            assertNotNull(amount[0], price);
+            assertEquals(amount[0], Float.parseFloat(amount[1]), price.getValue(), 0.0001f);
+        }
+        ExtractedPrice microdata = StructuredDataExtractor.extract("<meta itemprop=\"price\" content=\"1.299\">"
+                + "<meta itemprop=\"priceCurrency\" content=\"EUR\">");
+        assertEquals(1.299f, microdata.getValue(), 0.0001f);
+    }
+}
@@ -0,0 +1,45 @@
+import org.junit.Test;
+import services.crawler.TokenBucket;
+
+import static org.junit.Assert.*;
+
+public class TokenBucketTest {
+
+    @Test
+    public void testBurstThenSteadyRate() {
+        TokenBucket bucket = new TokenBucket(2, 3, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        //One token every 500ms
+        assertEquals(500, bucket.tryAcquire(0));
+        assertEquals(250, bucket.tryAcquire(250));
+        assertEquals(0, bucket.tryAcquire(500));
+    }
+
+    @Test
+    public void testTokensDontExceedBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, 0);
+        assertEquals(0, bucket.tryAcquire(60000));
+        assertEquals(0, bucket.tryAcquire(60000));
+        assertTrue(bucket.tryAcquire(60000) > 0);
+    }
+
+    @Test
+    public void testLowerRate() {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        bucket.setRate(0.5, 1, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(2000, bucket.tryAcquire(0));
+    }
+
+    @Test
+    public void testAvailableDoesntTakeToken() {
+        TokenBucket bucket = new TokenBucket(2, 1, 0);
+        assertEquals(0, bucket.available(0));
+        assertEquals(0, bucket.available(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(500, bucket.available(0));
+        assertEquals(0, bucket.available(500));
+    }
+}
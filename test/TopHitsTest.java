@@ -0,0 +1,53 @@
+import org.junit.Test;
+import utils.TopHits;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TopHitsTest {
+    private static final Comparator<Integer> DESCENDING = Comparator.reverseOrder();
+
+    @Test
+    public void testKeepsBestHits() {
+        TopHits<Integer> top = new TopHits<>(3, DESCENDING);
+        for (int hit : new int[]{5, 1, 9, 7, 3, 8}) top.offer(hit);
+        assertEquals(Arrays.asList(9, 8, 7), top.page(0));
+    }
+
+    @Test
+    public void testPageSkipsOffset() {
+        TopHits<Integer> top = new TopHits<>(4, DESCENDING);
+        for (int hit = 0; hit < 100; hit++) top.offer(hit);
+        assertEquals(Arrays.asList(97, 96), top.page(2));
+        assertEquals(Collections.emptyList(), top.page(4));
+    }
+
+    @Test
+    public void testSameOrderWhateverTheInputOrder() {
+        List<Integer> hits = Arrays.asList(4, 2, 8, 6, 1, 3);
+        TopHits<Integer> first = new TopHits<>(3, DESCENDING);
+        hits.forEach(first::offer);
+        Collections.reverse(hits);
+        TopHits<Integer> second = new TopHits<>(3, DESCENDING);
+        hits.forEach(second::offer);
+        assertEquals(first.page(0), second.page(0));
+    }
+
+    @Test
+    public void testZeroKeepsNothing() {
+        TopHits<Integer> top = new TopHits<>(0, DESCENDING);
+        top.offer(1);
+        assertTrue(top.page(0).isEmpty());
+    }
+
+    @Test
+    public void testLargeKDoesntPreallocate() {
+        TopHits<Integer> top = new TopHits<>(Integer.MAX_VALUE, DESCENDING);
+        for (int hit : new int[]{2, 3, 1}) top.offer(hit);
+        assertEquals(Arrays.asList(3, 2, 1), top.page(0));
+    }
+}
@@ -0,0 +1,35 @@
+import org.junit.Test;
+import utils.URLFixer;
+
+import static org.junit.Assert.*;
+
+public class URLFixerTest {
+
+    @Test
+    public void testNormalizeTrailingSlash() {
+        assertEquals("http://www.site.com/p/1", URLFixer.normalize("http://www.site.com/p/1/"));
+        assertEquals("http://www.site.com/p/1", URLFixer.normalize("http://www.site.com/p/1//"));
+        assertEquals("http://www.site.com", URLFixer.normalize("http://www.site.com/"));
+    }
+
+    @Test
+    public void testNormalizeFragment() {
+        assertEquals("http://www.site.com/p/1", URLFixer.normalize("http://www.site.com/p/1#reviews"));
+        assertEquals("http://www.site.com/p/1?color=red", URLFixer.normalize("http://www.site.com/p/1?color=red#reviews"));
+    }
+
+    @Test
+    public void testNormalizeHostCase() {
+        assertEquals("http://www.site.com/P/1", URLFixer.normalize("http://WWW.Site.COM/P/1"));
+        assertEquals("http://www.site.com/P/1", URLFixer.normalize("HTTP://WWW.SITE.COM/P/1"));
+    }
+
+    @Test
+    public void testSamePageSameKey() {
+        String key = URLFixer.normalize("http://www.site.com/p/1");
+        assertEquals(key, URLFixer.normalize(" https://www.site.com/p/1/#top"));
+        assertEquals(key, URLFixer.normalize("www.site.com/p/1"));
+        assertEquals(key, URLFixer.normalize("site.com/p/1"));
+        assertEquals(key, URLFixer.normalize("http://www.site.com:80/p/1"));
+    }
+}
@@ -0,0 +1,119 @@
+package services.crawler;
+
+import org.junit.Test;
+import play.Configuration;
+import services.IndexOutcome;
+import services.IndexResult;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class IndexingJobTest {
+
+    private static IndexResult result(IndexOutcome outcome, long fetchMillis) {
+        long fetchNanos = TimeUnit.MILLISECONDS.toNanos(fetchMillis);
+        return new IndexResult(1L, outcome, fetchNanos, TimeUnit.MILLISECONDS.toNanos(1), fetchNanos);
+    }
+
+    private static void run(IndexingJob job, IndexOutcome outcome, long fetchMillis) {
+        job.submitted();
+        job.started();
+        job.finished(result(outcome, fetchMillis));
+    }
+
+    @Test
+    public void testCountsByOutcome() {
+        IndexingJob job = new IndexingJob(1L, 2L);
+        run(job, IndexOutcome.UPDATED, 10);
+        run(job, IndexOutcome.UNCHANGED, 10);
+        run(job, IndexOutcome.UP_TO_DATE, 0);
+        run(job, IndexOutcome.DISALLOWED, 0);
+        run(job, IndexOutcome.UNREACHABLE, 10);
+        run(job, IndexOutcome.FAILED, 10);
+        job.rejected();
+        job.leasedElsewhere();
+
+        assertEquals(6, job.getSubmitted());
+        assertEquals(2, job.getSucceeded());
+        assertEquals(2, job.getSkipped());
+        assertEquals(2, job.getFailed());
+        assertEquals(1, job.getRejected());
+        assertEquals(1, job.getLeasedElsewhere());
+        assertEquals(0, job.getInFlight());
+        assertEquals(0, job.getQueued());
+    }
+
+    @Test
+    public void testQueuedAndInFlight() {
+        IndexingJob job = new IndexingJob(1L, 2L);
+        job.submitted();
+        job.submitted();
+        job.submitted();
+        job.started();
+        assertEquals(1, job.getInFlight());
+        assertEquals(2, job.getQueued());
+
+        //A retried product is queued again
+        job.retrying();
+        assertEquals(0, job.getInFlight());
+        assertEquals(3, job.getQueued());
+
+        job.dropped();
+        assertEquals(1, job.getFailed());
+        assertEquals(2, job.getQueued());
+    }
+
+    @Test
+    public void testFinishesOnceSubmissionIsDone() {
+        IndexingJob job = new IndexingJob(1L, 2L);
+        run(job, IndexOutcome.UPDATED, 10);
+        assertFalse(job.isFinished());
+        job.submitted();
+        job.submissionDone();
+        assertFalse(job.isFinished());
+        job.started();
+        job.finished(result(IndexOutcome.UNCHANGED, 10));
+        assertTrue(job.isFinished());
+        assertEquals("finished", job.getStatus());
+    }
+
+    @Test
+    public void testLatencyOfFetchedPagesOnly() {
+        IndexingJob job = new IndexingJob(1L, 2L);
+        for (int i = 1; i <= 100; i++) {
+            run(job, IndexOutcome.UPDATED, i);
+        }
+        //Not fetched, not measured
+        run(job, IndexOutcome.UP_TO_DATE, 0);
+        assertEquals(50, job.getFetchP50Millis());
+        assertEquals(99, job.getFetchP99Millis());
+        assertEquals(1, job.getExtractP50Millis());
+    }
+
+    @Test
+    public void testFailedSubmissionFinishesWithSubmittedProducts() {
+        IndexingJob job = new IndexingJob(1L, 2L);
+        job.submitted();
+        job.started();
+        job.submissionFailed("connection lost");
+        job.submissionDone();
+        assertEquals("failed", job.getStatus());
+        assertFalse(job.isFinished());
+
+        job.finished(result(IndexOutcome.UPDATED, 10));
+        assertTrue(job.isFinished());
+        assertEquals("connection lost", job.getError());
+    }
+
+    @Test
+    public void testJobsStartAgainOnceFailedJobFinished() {
+        IndexingJobs jobs = new IndexingJobs(new Configuration(new HashMap<>()));
+        IndexingJob job = jobs.start(2L);
+        assertTrue(job.claim());
+        job.submissionFailed("connection lost");
+        job.submissionDone();
+        assertNotEquals(job.getId(), jobs.start(2L).getId());
+    }
+}